@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import simpledb.Predicate.Op;
@@ -78,13 +79,11 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
-		BufferedInputStream bis = null;
 
 		try {
-			bis = new BufferedInputStream(new FileInputStream(f));
 			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
 				byte pageBuf[] = new byte[BTreeRootPtrPage.getPageSize()];
-				int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
+				int retval = Database.getFileHandleManager().read(f, ByteBuffer.wrap(pageBuf), 0);
 				if (retval == -1) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
@@ -98,12 +97,7 @@ public class BTreeFile implements DbFile {
 			}
 			else {
 				byte pageBuf[] = new byte[BufferPool.getPageSize()];
-				if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.getPageNumber()-1) * BufferPool.getPageSize()) !=
-						BTreeRootPtrPage.getPageSize() + (id.getPageNumber()-1) * BufferPool.getPageSize()) {
-					throw new IllegalArgumentException(
-							"Unable to seek to correct place in BTreeFile");
-				}
-				int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
+				int retval = Database.getFileHandleManager().read(f, ByteBuffer.wrap(pageBuf), pageOffset(id));
 				if (retval == -1) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
@@ -127,14 +121,6 @@ public class BTreeFile implements DbFile {
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
-		} finally {
-			// Close the file on success or error
-			try {
-				if (bis != null)
-					bis.close();
-			} catch (IOException ioe) {
-				// Ignore failures closing the file
-			}
 		}
 	}
 
@@ -148,16 +134,18 @@ public class BTreeFile implements DbFile {
 		BTreePageId id = (BTreePageId) page.getId();
 		
 		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
+		Database.getFileHandleManager().write(f, data, pageOffset(id));
+	}
+
+	/**
+	 * Returns the offset in the file on disk of the page with the given id.
+	 * The root pointer page is stored first, followed by the numbered pages.
+	 */
+	private long pageOffset(BTreePageId id) {
 		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
-		}
-		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (page.getId().getPageNumber()-1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+			return 0;
 		}
+		return BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber()-1) * BufferPool.getPageSize();
 	}
 	
 	/**
@@ -945,10 +933,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo-1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		Database.getFileHandleManager().write(f, BTreePage.createEmptyPageData(), pageOffset(newPageId));
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -1069,6 +1054,60 @@ public class BTreeFile implements DbFile {
 		return new BTreeFileIterator(this, tid);
 	}
 
+	/**
+	 * Asynchronously reads into the buffer pool the leaf pages to the right of
+	 * the specified leaf under the same parent, so that an iterator moving along
+	 * the leaves finds them cached. Leaves are usually scattered over the file,
+	 * so they are read concurrently rather than in order. Leaves that can't hold
+	 * a tuple matching the predicate are not read.
+	 * 
+	 * @param tid - the transaction id
+	 * @param leaf - the leaf page the iterator is on
+	 * @param ipred - the predicate the iterator filters on, or null for all tuples
+	 * @return the id of the parent page whose leaves were read, or null if the
+	 * leaf is the root
+	 * @see BufferPool#prefetchPagesAsync
+	 */
+	BTreePageId prefetchLeaves(TransactionId tid, BTreeLeafPage leaf, IndexPredicate ipred)
+			throws DbException, TransactionAbortedException {
+		BTreePageId parentId = leaf.getParentId();
+		if(parentId.pgcateg() != BTreePageId.INTERNAL) {
+			return null;
+		}
+		BTreeInternalPage parent = (BTreeInternalPage) Database.getBufferPool().getPage(
+				tid, parentId, Permissions.READ_ONLY);
+		// keys in the right child of an entry are at least the entry's key, so
+		// once the key is past the end of the range, no later leaf can match
+		Op stop = null;
+		if(ipred != null) {
+			if(ipred.getOp() == Op.LESS_THAN) {
+				stop = Op.GREATER_THAN_OR_EQ;
+			}
+			else if(ipred.getOp() == Op.LESS_THAN_OR_EQ || ipred.getOp() == Op.EQUALS) {
+				stop = Op.GREATER_THAN;
+			}
+		}
+
+		List<PageId> pids = new ArrayList<PageId>();
+		boolean found = false;
+		Iterator<BTreeEntry> it = parent.iterator();
+		while(it.hasNext()) {
+			BTreeEntry e = it.next();
+			if(!found) {
+				found = e.getLeftChild().equals(leaf.getId());
+				if(!found) {
+					continue;
+				}
+			}
+			if(stop != null && e.getKey().compare(stop, ipred.getField())) {
+				break;
+			}
+			pids.add(e.getRightChild());
+		}
+		Database.getBufferPool().prefetchPagesAsync(pids);
+		return parentId;
+	}
+
 }
 
 /**
@@ -1078,6 +1117,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
 	Iterator<Tuple> it = null;
 	BTreeLeafPage curp = null;
+	// the parent of the leaves that were last read ahead
+	BTreePageId prefetched = null;
 
 	TransactionId tid;
 	BTreeFile f;
@@ -1100,6 +1141,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
 		BTreePageId root = rootPtr.getRootId();
 		curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+		prefetched = f.prefetchLeaves(tid, curp, null);
 		it = curp.iterator();
 	}
 
@@ -1122,6 +1164,9 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 			else {
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
 						nextp, Permissions.READ_ONLY);
+				if(!curp.getParentId().equals(prefetched)) {
+					prefetched = f.prefetchLeaves(tid, curp, null);
+				}
 				it = curp.iterator();
 				if (!it.hasNext())
 					it = null;
@@ -1148,6 +1193,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		super.close();
 		it = null;
 		curp = null;
+		prefetched = null;
 	}
 }
 
@@ -1160,6 +1206,9 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	Iterator<Tuple> it = null;
 	BTreeLeafPage curp = null;
 
+	// the parent of the leaves that were last read ahead
+	BTreePageId prefetched = null;
+
 	TransactionId tid;
 	BTreeFile f;
 	IndexPredicate ipred;
@@ -1191,6 +1240,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 		else {
 			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
 		}
+		prefetched = f.prefetchLeaves(tid, curp, ipred);
 		it = curp.iterator();
 	}
 
@@ -1231,6 +1281,9 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 			else {
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
 						nextp, Permissions.READ_ONLY);
+				if(!curp.getParentId().equals(prefetched)) {
+					prefetched = f.prefetchLeaves(tid, curp, ipred);
+				}
 				it = curp.iterator();
 			}
 		}
@@ -1252,5 +1305,6 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	public void close() {
 		super.close();
 		it = null;
+		prefetched = null;
 	}
 }
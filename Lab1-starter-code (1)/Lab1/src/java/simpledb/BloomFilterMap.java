@@ -0,0 +1,291 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * BloomFilterMap keeps a Bloom filter per page of a HeapFile for each of a
+ * few selected columns, so that scans with an EQUALS predicate on one of
+ * those columns can skip pages that do not hold the value without reading
+ * them.
+ * <p>
+ * The filters are optional: they are built for a table by
+ * {@link HeapFileEncoder#buildBloomFilters}, and from then on HeapFile
+ * adds every inserted tuple to the filter of its page. Deletes leave the
+ * filters alone, so a filter may answer "maybe" for a value that is no
+ * longer on the page, but never "no" for one that is. Pages past the end of
+ * the map may hold any value.
+ * <p>
+ * The map is persisted in a sidecar file (the table file's name plus
+ * ".bf"). It starts with the number of filtered columns, the index of each
+ * of them, the number of bits of each filter and the number of hash
+ * functions, all as ints. It is followed by one entry per page holding the
+ * bits of the filter of each column in turn. Entries are written through as
+ * they change.
+ *
+ * @see HeapFile#getBloomFilters
+ * @see SeqScan#addPredicate
+ * @Threadsafe
+ */
+public class BloomFilterMap {
+
+    /** Default number of filter bits per tuple a page can hold. */
+    public static final int DEFAULT_BITS_PER_TUPLE = 8;
+
+    private final TupleDesc td;
+    private final File file;
+    private final int[] columns;
+    private final int numBits;
+    private final int numHashes;
+    private final int headerSize;
+
+    // per page, the bits of the filter of each column in turn
+    private final ArrayList<byte[]> pages = new ArrayList<byte[]>();
+
+    /**
+     * Creates an empty map for a table with the specified schema, persisted
+     * in the specified file.
+     *
+     * @param columns the fields to keep filters for
+     * @param numBits the number of bits of each filter; rounded up to a
+     *   whole number of bytes
+     * @param numHashes the number of bits set for each value
+     */
+    BloomFilterMap(TupleDesc td, File file, int[] columns, int numBits, int numHashes) {
+        this.td = td;
+        this.file = file;
+        this.columns = columns.clone();
+        this.numBits = (numBits + 7) / 8 * 8;
+        this.numHashes = numHashes;
+        this.headerSize = 4 * (3 + columns.length);
+    }
+
+    /**
+     * Creates an empty map for a table with the specified schema, sized for
+     * the specified number of filter bits per tuple a HeapPage of pageSize
+     * bytes can hold.
+     */
+    static BloomFilterMap create(TupleDesc td, File file, int[] columns, int bitsPerTuple,
+            int pageSize) {
+        int numBits = Math.max(64, HeapPage.getNumTuples(td, pageSize) * bitsPerTuple);
+        // the number of hash functions that minimizes false positives
+        int numHashes = Math.max(1, (int) Math.round(bitsPerTuple * Math.log(2)));
+        return new BloomFilterMap(td, file, columns, numBits, numHashes);
+    }
+
+    /** @return the sidecar file holding the Bloom filters of the table stored in f. */
+    public static File getBloomFilterFile(File f) {
+        return new File(f.getPath() + ".bf");
+    }
+
+    /**
+     * Reads a map from its sidecar file.
+     *
+     * @return the map, or null if the file does not exist
+     * @throws IOException if the file can't be read or is not a valid map
+     *   for the schema
+     */
+    static BloomFilterMap load(TupleDesc td, File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            int[] columns = new int[dis.readInt()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = dis.readInt();
+                if (columns[i] < 0 || columns[i] >= td.numFields()) {
+                    throw new IOException("bad column " + columns[i] + " in " + file);
+                }
+            }
+            int numBits = dis.readInt();
+            int numHashes = dis.readInt();
+            if (numBits <= 0 || numBits % 8 != 0 || numHashes <= 0) {
+                throw new IOException("bad filter size in " + file);
+            }
+            BloomFilterMap bf = new BloomFilterMap(td, file, columns, numBits, numHashes);
+            long n = (file.length() - bf.headerSize) / bf.entrySize();
+            for (long i = 0; i < n; i++) {
+                byte[] entry = new byte[bf.entrySize()];
+                dis.readFully(entry);
+                bf.pages.add(entry);
+            }
+            return bf;
+        } catch (EOFException e) {
+            throw new IOException("truncated Bloom filter file " + file);
+        } finally {
+            dis.close();
+        }
+    }
+
+    /** Writes the whole map to its sidecar file. */
+    void save() throws IOException {
+        Database.getFileHandleManager().close(file);
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            dos.writeInt(columns.length);
+            for (int c : columns) {
+                dos.writeInt(c);
+            }
+            dos.writeInt(numBits);
+            dos.writeInt(numHashes);
+            synchronized (this) {
+                for (byte[] entry : pages) {
+                    dos.write(entry);
+                }
+            }
+        } finally {
+            dos.close();
+        }
+    }
+
+    private int entrySize() {
+        return columns.length * numBits / 8;
+    }
+
+    /** @return the fields this map keeps filters for. */
+    public int[] getColumns() {
+        return columns.clone();
+    }
+
+    /** @return the number of pages the map has filters for. */
+    public synchronized int numPages() {
+        return pages.size();
+    }
+
+    /**
+     * Adds the values of the filtered fields of t to the filters of the
+     * specified page, and persists the entry if it changed.
+     */
+    public synchronized void addTuple(int pageNo, Tuple t) {
+        if (add(pageNo, t)) {
+            writePage(pageNo);
+        }
+    }
+
+    /**
+     * Forgets the filters of the pages at and after numPages, after the
+     * table file has been truncated to numPages pages.
+     */
+    public synchronized void truncate(int numPages) {
+        if (numPages >= pages.size()) {
+            return;
+        }
+        pages.subList(numPages, pages.size()).clear();
+        try {
+            Database.getFileHandleManager().truncate(file, headerSize + (long) numPages * entrySize());
+        } catch (IOException e) {
+            // a longer sidecar is discarded when the table is reopened
+            e.printStackTrace();
+        }
+    }
+
+    /** Writes the entry of the specified page to the sidecar file. */
+    synchronized void writePage(int pageNo) {
+        if (pageNo >= pages.size()) {
+            return;
+        }
+        ByteBuffer bb = ByteBuffer.wrap(pages.get(pageNo));
+        try {
+            Database.getFileHandleManager().write(file, bb,
+                    headerSize + (long) pageNo * entrySize());
+        } catch (IOException e) {
+            // the in-memory map is still correct for as long as the
+            // table stays open
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Gives the specified page empty filters, if it is the page just past
+     * the last one the map has filters for, i.e. a new, empty page. Other
+     * pages are left as they are: pages past the end of the map stay
+     * without filters, so that they may match anything.
+     *
+     * @return true if the page has filters
+     */
+    synchronized boolean addPage(int pageNo) {
+        if (pageNo == pages.size()) {
+            pages.add(new byte[entrySize()]);
+        }
+        return pageNo < pages.size();
+    }
+
+    /**
+     * Adds the values of the filtered fields of t to the filters of the
+     * specified page, without persisting them.
+     *
+     * @see #addPage
+     * @return true if a bit changed
+     */
+    synchronized boolean add(int pageNo, Tuple t) {
+        if (!addPage(pageNo)) {
+            return false;
+        }
+        byte[] entry = pages.get(pageNo);
+        boolean changed = false;
+        for (int c = 0; c < columns.length; c++) {
+            int base = c * numBits;
+            int h1 = mix(t.getField(columns[c]).hashCode());
+            int h2 = mix(h1 ^ 0x9e3779b9) | 1;
+            for (int i = 0; i < numHashes; i++) {
+                int bit = base + Math.floorMod(h1 + i * h2, numBits);
+                byte mask = (byte) (1 << (bit % 8));
+                if ((entry[bit / 8] & mask) == 0) {
+                    entry[bit / 8] |= mask;
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Checks whether the specified page may hold a tuple that satisfies all
+     * of the specified predicates. Only EQUALS predicates on filtered
+     * fields are checked.
+     *
+     * @return false only if no tuple on the page can match
+     */
+    public synchronized boolean mayMatch(int pageNo, List<Predicate> predicates) {
+        if (pageNo >= pages.size()) {
+            return true;
+        }
+        byte[] entry = pages.get(pageNo);
+        for (Predicate p : predicates) {
+            if (p.getOp() != Predicate.Op.EQUALS) {
+                continue;
+            }
+            for (int c = 0; c < columns.length; c++) {
+                if (columns[c] != p.getField()
+                        || p.getOperand().getType() != td.getFieldType(columns[c])) {
+                    continue;
+                }
+                int base = c * numBits;
+                int h1 = mix(p.getOperand().hashCode());
+                int h2 = mix(h1 ^ 0x9e3779b9) | 1;
+                for (int i = 0; i < numHashes; i++) {
+                    int bit = base + Math.floorMod(h1 + i * h2, numBits);
+                    if ((entry[bit / 8] & (1 << (bit % 8))) == 0) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Spreads the bits of a field's hash code, which is the value itself
+     * for IntFields.
+     */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
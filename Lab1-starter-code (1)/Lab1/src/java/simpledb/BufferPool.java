@@ -1,9 +1,18 @@
 package simpledb;
 
 import java.io.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Predicate;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -13,6 +22,29 @@ import java.util.ArrayList;
  * The BufferPool is also responsible for locking; when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The pool holds at most numPages pages of the default page size
+ * ({@link #getPageSize}). Tables may use pages of other sizes, so the pool
+ * counts its capacity in bytes: a 64KB page takes the room of sixteen 4KB
+ * ones. When it is full, its
+ * ReplacementPolicy chooses a page to evict among the clean ones; dirty
+ * pages stay until their transaction commits (NO STEAL). Evicting a page
+ * does not invalidate it for whoever still holds it: its frame lives as
+ * long as the page object does. Large sequential scans read through a
+ * {@link BufferRing}, so that they only displace a few pages. Tables
+ * given a {@link BufferQuota} in the Catalog are kept within their shares
+ * of the pool, and evicted in the order of their priorities.
+ * <p>
+ * The pool is partitioned into shards by the hash of the page id. Each
+ * shard holds its own share of the pages, with its own replacement state
+ * and latch, so threads working on different pages seldom contend. No
+ * operation latches the whole pool; the pool's own monitor is left to
+ * maintenance that must not run concurrently with itself, such as the
+ * LogFile operations that flush or discard pages.
+ * <p>
+ * Commits normally write their pages before they return (FORCE). With a
+ * {@link PageCleaner} running, they only log the pages, and the cleaner
+ * writes them in the background.
  *
  * @Threadsafe, all fields are final
  */
@@ -26,8 +58,68 @@ public class BufferPool {
     other classes. BufferPool should use the numPages argument to the
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
-    private final int numPages;
-    private final ConcurrentHashMap<PageId, Page> pageMap;
+    private final Shard[] shards;
+
+    /**
+     * Default capacity, in bytes, of the frame arena that holds the bytes of
+     * heap pages off the Java heap: the value of the simpledb.OffHeapBytes
+     * system property, or 0 to keep them on the heap.
+     */
+    public static final long DEFAULT_OFF_HEAP_BYTES = Long.getLong("simpledb.OffHeapBytes", 0);
+    private final FrameArena frameArena;
+
+    /**
+     * Default maximum number of shards: the value of the
+     * simpledb.BufferPoolShards system property, or the number of
+     * processors.
+     */
+    public static final int DEFAULT_SHARDS = Integer.getInteger("simpledb.BufferPoolShards",
+            Runtime.getRuntime().availableProcessors());
+    /**
+     * Fewest pages a shard holds by default, so that the pages of small
+     * pools are not spread over so many shards that one of them fills up
+     * while the others are mostly empty.
+     */
+    public static final int MIN_SHARD_PAGES = 64;
+    // getPage calls that found their page cached, and that did not
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /** Number of threads shared by all buffer pools to read pages ahead. */
+    public static final int READ_AHEAD_THREADS = 4;
+    private static final ExecutorService readAheadExecutor =
+            Executors.newFixedThreadPool(READ_AHEAD_THREADS, r -> {
+                Thread t = new Thread(r, "simpledb-read-ahead");
+                t.setDaemon(true);
+                return t;
+            });
+    /**
+     * Number of threads shared by all buffer pools to read scattered pages,
+     * and so the number of such reads that can be outstanding at once.
+     */
+    public static final int ASYNC_READ_THREADS = 16;
+    private static final ExecutorService asyncReadExecutor =
+            Executors.newFixedThreadPool(ASYNC_READ_THREADS, r -> {
+                Thread t = new Thread(r, "simpledb-async-read");
+                t.setDaemon(true);
+                return t;
+            });
+    // pages currently being read in the background by prefetchPages
+    private final ConcurrentHashMap<PageId, CompletableFuture<Page>> pendingReads;
+
+    /**
+     * Whether buffer pools start with a page cleaner: the value of the
+     * simpledb.PageCleaner system property.
+     */
+    public static final boolean DEFAULT_PAGE_CLEANER = Boolean.getBoolean("simpledb.PageCleaner");
+    // writes the pages of committed transactions, or null to write them at
+    // commit
+    private volatile PageCleaner cleaner = null;
+
+    // the files each running transaction appended pages to with
+    // HeapFile.bulkInsert, which are told when it completes
+    private final ConcurrentHashMap<TransactionId, Set<HeapFile>> bulkInserts =
+            new ConcurrentHashMap<>();
 
     /**
      * Creates a BufferPool that caches up to numPages pages.
@@ -35,9 +127,87 @@ public class BufferPool {
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, DEFAULT_OFF_HEAP_BYTES);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, and keeps the
+     * bytes of heap pages in up to offHeapBytes bytes of direct memory.
+     * Pages are evicted using CLOCK, in up to {@link #DEFAULT_SHARDS}
+     * shards of at least {@link #MIN_SHARD_PAGES} pages.
+     *
+     * @see #BufferPool(int, long, String, int)
+     */
+    public BufferPool(int numPages, long offHeapBytes) {
+        this(numPages, offHeapBytes, "clock",
+                Math.max(1, Math.min(DEFAULT_SHARDS, numPages / MIN_SHARD_PAGES)));
+    }
+
+    /**
+     * Creates a BufferPool of a single shard that caches up to numPages
+     * pages, and keeps the bytes of heap pages in up to offHeapBytes bytes
+     * of direct memory.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param offHeapBytes the capacity of the pool's frame arena, or 0 to
+     *   keep pages on the heap
+     * @param policy the policy that chooses the pages to evict; it must not
+     *   be shared with another pool
+     * @see FrameArena
+     */
+    public BufferPool(int numPages, long offHeapBytes, ReplacementPolicy policy) {
+        this(numPages, offHeapBytes, new ReplacementPolicy[] { policy });
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages in numShards
+     * shards, and keeps the bytes of heap pages in up to offHeapBytes bytes
+     * of direct memory. Each shard holds an equal share of the pages and
+     * evicts them with its own instance of the named policy.
+     *
+     * @param policy the name of the replacement policy, as accepted by
+     *   {@link ReplacementPolicy#create}
+     * @param numShards the number of shards; at most numPages
+     */
+    public BufferPool(int numPages, long offHeapBytes, String policy, int numShards) {
+        this(numPages, offHeapBytes, createPolicies(numPages, policy, numShards));
+    }
+
+    /** Creates a BufferPool with a shard for each of the specified policies. */
+    private BufferPool(int numPages, long offHeapBytes, ReplacementPolicy[] policies) {
         // Initialize the BufferPool 
-        this.numPages = numPages;
-        this.pageMap = new ConcurrentHashMap<>();
+        this.shards = new Shard[policies.length];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard((long) shardPages(numPages, shards.length, i) * getPageSize(),
+                    policies[i]);
+        }
+        this.pendingReads = new ConcurrentHashMap<>();
+        this.frameArena = new FrameArena(offHeapBytes);
+        if (DEFAULT_PAGE_CLEANER) {
+            startPageCleaner();
+        }
+    }
+
+    private static ReplacementPolicy[] createPolicies(int numPages, String policy, int numShards) {
+        if (numShards < 1 || numShards > Math.max(1, numPages)) {
+            throw new IllegalArgumentException("can't split " + numPages + " pages into "
+                    + numShards + " shards");
+        }
+        ReplacementPolicy[] policies = new ReplacementPolicy[numShards];
+        for (int i = 0; i < numShards; i++) {
+            policies[i] = ReplacementPolicy.create(policy, shardPages(numPages, numShards, i));
+        }
+        return policies;
+    }
+
+    /** @return the number of pages the i-th of numShards shards holds. */
+    private static int shardPages(int numPages, int numShards, int i) {
+        return numPages / numShards + (i < numPages % numShards ? 1 : 0);
+    }
+
+    /** @return the shard that caches the specified page. */
+    private Shard shardOf(PageId pid) {
+        return shards[Math.floorMod(pid.hashCode(), shards.length)];
     }
 
     public static int getPageSize() {
@@ -54,6 +224,159 @@ public class BufferPool {
         BufferPool.pageSize = DEFAULT_PAGE_SIZE;
     }
 
+    /**
+     * Returns the arena that pages read through this buffer pool keep their
+     * bytes in.
+     */
+    public FrameArena getFrameArena() {
+        return frameArena;
+    }
+
+    /** @return the number of getPage calls that found their page cached. */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** @return the number of getPage calls that had to read their page. */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** @return the number of pages in the buffer pool. */
+    public int getNumCachedPages() {
+        int n = 0;
+        for (Shard shard : shards) {
+            n += shard.pages.size();
+        }
+        return n;
+    }
+
+    /**
+     * Returns the number of cached pages of each table that has any, for
+     * monitoring the tables' {@link BufferQuota}s.
+     *
+     * @return a map from table id to number of cached pages
+     */
+    public Map<Integer, Integer> getOccupancy() {
+        Map<Integer, Integer> occupancy = new HashMap<>();
+        for (Shard shard : shards) {
+            shard.addOccupancy(occupancy);
+        }
+        return occupancy;
+    }
+
+    /** @return the number of cached pages of the specified table. */
+    public int getNumCachedPages(int tableId) {
+        return getOccupancy().getOrDefault(tableId, 0);
+    }
+
+    /**
+     * @return the maximum number of pages of the default page size in the
+     *   buffer pool
+     */
+    public int getNumPages() {
+        return (int) (getCapacity() / getPageSize());
+    }
+
+    /** @return the capacity of the buffer pool, in bytes of page data. */
+    public long getCapacity() {
+        long capacity = 0;
+        for (Shard shard : shards) {
+            capacity += shard.capacity;
+        }
+        return capacity;
+    }
+
+    /** @return the number of bytes of page data cached in the buffer pool. */
+    public long getNumCachedBytes() {
+        long n = 0;
+        for (Shard shard : shards) {
+            n += shard.usedBytes();
+        }
+        return n;
+    }
+
+    /** @return the number of cached pages that are not dirty. */
+    public int getNumCleanPages() {
+        int n = 0;
+        for (Shard shard : shards) {
+            for (Page page : shard.pages.values()) {
+                if (page.isDirty() == null) {
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    /** @return the number of shards the buffer pool is partitioned into. */
+    public int getNumShards() {
+        return shards.length;
+    }
+
+    /**
+     * Returns the cached pages, hottest first, as ranked by the replacement
+     * policies of the shards. The rankings of the shards are interleaved,
+     * so any prefix of the list holds the hottest pages of every shard.
+     *
+     * @see ReplacementPolicy#hottestPages
+     */
+    public List<PageId> getHotPages() {
+        List<List<PageId>> ranked = new ArrayList<>(shards.length);
+        int longest = 0;
+        for (Shard shard : shards) {
+            List<PageId> hottest = shard.policy.hottestPages();
+            ranked.add(hottest);
+            longest = Math.max(longest, hottest.size());
+        }
+        List<PageId> hot = new ArrayList<>();
+        for (int i = 0; i < longest; i++) {
+            for (List<PageId> hottest : ranked) {
+                if (i < hottest.size()) {
+                    hot.add(hottest.get(i));
+                }
+            }
+        }
+        return hot;
+    }
+
+    /**
+     * Reads the specified pages, e.g. the hot pages recorded before a
+     * restart, into the buffer pool in the background. Only as many of the
+     * first pages as fit in the pool's capacity are read, and pages of tables that are
+     * not in the catalog are skipped. The pages are read in file order,
+     * with one {@link #prefetchPages} call per table, so adjacent pages are
+     * read together and the tables are read concurrently.
+     *
+     * @param pids the pages to read, hottest first
+     * @return the number of pages queued for reading
+     */
+    public int warmUp(List<PageId> pids) {
+        Map<Integer, List<PageId>> byTable = new LinkedHashMap<>();
+        int queued = 0;
+        long bytes = 0;
+        long capacity = getCapacity();
+        for (PageId pid : pids) {
+            int size;
+            try {
+                size = Database.getCatalog().getPageSize(pid.getTableId());
+            } catch (NoSuchElementException e) {
+                continue;
+            }
+            if (bytes + size > capacity) {
+                break;
+            }
+            byTable.computeIfAbsent(pid.getTableId(), t -> new ArrayList<>()).add(pid);
+            bytes += size;
+            queued++;
+        }
+        for (List<PageId> table : byTable.values()) {
+            table.sort(Comparator.comparingInt(PageId::getPageNumber));
+            prefetchPages(table);
+        }
+        return queued;
+    }
+
     /**
      * Retrieve the specified page with the associated permissions.
      * Will acquire a lock and may block if that lock is held by another
@@ -68,28 +391,337 @@ public class BufferPool {
      * @param tid  the ID of the transaction requesting the page
      * @param pid  the ID of the requested page
      * @param perm the requested permissions on the page
+     * @throws DbException if the page is not cached and the pool is full
+     *   of dirty pages, or if the thread is interrupted while it waits for
+     *   a read ahead of the page; the thread's interrupt status is kept
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieves the specified page like {@link #getPage(TransactionId,
+     * PageId, Permissions)}, but if the page has to be read, it is cached
+     * through the specified ring: room is made for it by evicting the
+     * oldest page of the ring rather than a page the replacement policy
+     * chooses.
+     *
+     * @param ring the ring of the operation the page is read for, or null
+     *   to cache the page as usual
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+            throws TransactionAbortedException, DbException {
         // Check if the page is already in the buffer pool
-        Page page = pageMap.get(pid);
+        Shard shard = shardOf(pid);
+        Page page = shard.pages.get(pid);
         if (page != null) {
+            hits.incrementAndGet();
+            shard.policy.pageAccessed(pid);
             return page;
         }
+        misses.incrementAndGet();
 
-        // If the buffer pool is full, you might need to implement an eviction policy here.
-        // Since the lab specifies not to implement eviction in this part, we will skip this.
-        // In a full implementation, you would handle the case where pageMap.size() >= numPages.
+        // If the page is being read ahead, wait for that read instead of
+        // issuing a second one
+        CompletableFuture<Page> pending = pendingReads.get(pid);
+        if (pending != null) {
+            try {
+                page = pending.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for page " + pid);
+            } catch (ExecutionException e) {
+                // the read ahead failed; read the page below
+                page = null;
+            }
+        }
+        // the read ahead installs the page before it stops being pending,
+        // unless it found no room for it
+        if (page == null) {
+            page = shard.pages.get(pid);
+        }
+        if (page == null) {
+            // Load the page from the corresponding file
+            int tableId = pid.getTableId();
+            DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+            page = file.readPage(pid);
+            if (page == null) {
+                throw new DbException("can't read page " + pid);
+            }
+        }
+        if (ring != null && shard.pages.get(pid) == null) {
+            recycle(ring.add(pid));
+            Page cached = install(shard, pid, page, false);
+            if (cached != page) {
+                ring.remove(pid);
+            }
+            return cached;
+        }
+        return install(shard, pid, page, true);
+    }
+
+    /**
+     * Adds a page a transaction asked for to its shard, like
+     * Shard.installPage. If the shard is full of dirty pages, those that
+     * the page cleaner has yet to write for committed transactions are
+     * written first, so that they can be evicted.
+     *
+     * @throws DbException if the shard is full of dirty pages
+     */
+    private Page install(Shard shard, PageId pid, Page page, boolean accessed)
+            throws DbException {
+        try {
+            return shard.installPage(pid, page, accessed);
+        } catch (DbException e) {
+            if (!writeCommittedPages(shard)) {
+                throw e;
+            }
+            return shard.installPage(pid, page, accessed);
+        }
+    }
+
+    /**
+     * Writes the pages of a shard dirtied by committed transactions that
+     * the page cleaner has yet to write.
+     * <p>
+     * Holds the pool's monitor, like {@link #cleanPages}, so that the pages
+     * are not written while HeapFile.truncateEmptyPages drops them; the
+     * shard is not latched while they are written.
+     *
+     * @return whether any page was written
+     */
+    private synchronized boolean writeCommittedPages(Shard shard) {
+        PageCleaner c = cleaner;
+        if (c == null) {
+            return false;
+        }
+        List<Page> committed = new ArrayList<>();
+        for (Page page : shard.pages.values()) {
+            TransactionId dirtier = page.isDirty();
+            if (dirtier != null && c.isCommitted(dirtier)) {
+                committed.add(page);
+            }
+        }
+        if (committed.isEmpty()) {
+            return false;
+        }
+        try {
+            writePages(committed);
+        } catch (IOException e) {
+            return false;
+        }
+        return true;
+    }
 
-        // Load the page from the corresponding file
-        int tableId = pid.getTableId();
-        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
-        page = file.readPage(pid);
+    /**
+     * Retrieves the specified pages like {@link #getPage(TransactionId,
+     * PageId, Permissions)}, for operators that know the pages they need
+     * ahead of time. Cached pages are looked up first; the pages that are
+     * missing are then read with one {@link DbFile#readPages} call per
+     * file, which reads adjacent pages together, rather than one read per
+     * page.
+     *
+     * @param tid  the ID of the transaction requesting the pages
+     * @param pids the IDs of the requested pages, in any order
+     * @param perm the requested permissions on the pages
+     * @return the pages, in the order of pids
+     * @throws DbException if a page can't be read, or is not cached and the
+     *   pool is full of dirty pages
+     */
+    public List<Page> getPages(TransactionId tid, List<PageId> pids, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        Page[] result = new Page[pids.size()];
+        // pages to read, per table; pages being read ahead are left to getPage
+        Map<Integer, List<PageId>> toRead = new LinkedHashMap<>();
+        for (int i = 0; i < result.length; i++) {
+            PageId pid = pids.get(i);
+            Shard shard = shardOf(pid);
+            result[i] = shard.pages.get(pid);
+            if (result[i] != null) {
+                hits.incrementAndGet();
+                shard.policy.pageAccessed(pid);
+            } else if (!pendingReads.containsKey(pid)) {
+                List<PageId> list = toRead.computeIfAbsent(pid.getTableId(), t -> new ArrayList<>());
+                if (!list.contains(pid)) {
+                    list.add(pid);
+                }
+            }
+        }
 
-        // Add the page to the buffer pool
-        pageMap.put(pid, page);
+        Map<PageId, Page> read = new HashMap<>();
+        for (Map.Entry<Integer, List<PageId>> e : toRead.entrySet()) {
+            List<PageId> list = e.getValue();
+            List<Page> pages = Database.getCatalog().getDatabaseFile(e.getKey()).readPages(list);
+            for (int i = 0; i < list.size(); i++) {
+                if (pages.get(i) != null) {
+                    misses.incrementAndGet();
+                    PageId pid = list.get(i);
+                    read.put(pid, install(shardOf(pid), pid, pages.get(i), true));
+                }
+            }
+        }
 
-        return page;
+        // whatever is left is being read ahead, or failed to read
+        for (int i = 0; i < result.length; i++) {
+            if (result[i] == null) {
+                Page page = read.get(pids.get(i));
+                result[i] = page != null ? page : getPage(tid, pids.get(i), perm);
+            }
+        }
+        return Arrays.asList(result);
+    }
+
+    /**
+     * Evicts a page that left a BufferRing, unless it is dirty or no longer
+     * cached.
+     */
+    private void recycle(PageId pid) {
+        if (pid != null) {
+            shardOf(pid).recycle(pid);
+        }
+    }
+
+    /**
+     * Returns the specified page if it is in the buffer pool, without
+     * reading it from disk or acquiring any lock.
+     *
+     * @return the cached page, or null if the page is not cached
+     */
+    public Page getCachedPage(PageId pid) {
+        return shardOf(pid).pages.get(pid);
+    }
+
+    /**
+     * Asynchronously reads the specified pages into the buffer pool, in the
+     * given order, so that later calls to getPage find them cached. Pages
+     * that are already cached or already being read are skipped. A
+     * getPage call for a page that is still being read waits for that read
+     * instead of reading the page again.
+     * <p>
+     * No locks are acquired: the pages are only loaded, and transactions
+     * still lock them through getPage.
+     *
+     * @param pids the ids of the pages to read, all from the same file
+     */
+    public void prefetchPages(List<PageId> pids) {
+        prefetchPages(pids, null);
+    }
+
+    /**
+     * Reads the specified pages ahead like {@link #prefetchPages(List)}, but
+     * caches them through the specified ring.
+     *
+     * @param ring the ring of the scan the pages are read for, or null to
+     *   cache the pages as usual
+     * @see #getPage(TransactionId, PageId, Permissions, BufferRing)
+     */
+    public void prefetchPages(List<PageId> pids, BufferRing ring) {
+        List<PageId> toRead = new ArrayList<>();
+        List<CompletableFuture<Page>> futures = new ArrayList<>();
+        startReads(pids, toRead, futures);
+        if (toRead.isEmpty()) {
+            return;
+        }
+
+        // read the whole run in one task, with one batched read, so the
+        // reads reach the file in order and adjacent pages are read together
+        readAheadExecutor.execute(() -> {
+            List<Page> pages = null;
+            try {
+                DbFile file = Database.getCatalog().getDatabaseFile(toRead.get(0).getTableId());
+                pages = file.readPages(toRead);
+            } catch (RuntimeException e) {
+                // leave the pages to be read (and the error reported) by getPage
+            }
+            for (int i = 0; i < toRead.size(); i++) {
+                completePrefetch(toRead.get(i), futures.get(i), pages == null ? null : pages.get(i),
+                        ring);
+            }
+        });
+    }
+
+    /**
+     * Asynchronously reads the specified pages into the buffer pool, all at
+     * once rather than in order, so that up to {@link #ASYNC_READ_THREADS}
+     * reads are outstanding at the same time. This suits pages scattered
+     * over a file, such as the leaves of an index range, whose read
+     * latencies then overlap instead of adding up. Otherwise it behaves like
+     * {@link #prefetchPages}: cached and pending pages are skipped, no locks
+     * are acquired, and getPage waits for a page that is still being read.
+     *
+     * @param pids the ids of the pages to read
+     * @see DbFile#readPageAsync
+     */
+    public void prefetchPagesAsync(List<PageId> pids) {
+        prefetchPagesAsync(pids, null);
+    }
+
+    /**
+     * Reads the specified pages like {@link #prefetchPagesAsync(List)}, but
+     * caches them through the specified ring.
+     *
+     * @param ring the ring of the scan the pages are read for, or null to
+     *   cache the pages as usual
+     * @see #getPage(TransactionId, PageId, Permissions, BufferRing)
+     */
+    public void prefetchPagesAsync(List<PageId> pids, BufferRing ring) {
+        List<PageId> toRead = new ArrayList<>();
+        List<CompletableFuture<Page>> futures = new ArrayList<>();
+        startReads(pids, toRead, futures);
+        for (int i = 0; i < toRead.size(); i++) {
+            PageId pid = toRead.get(i);
+            CompletableFuture<Page> future = futures.get(i);
+            CompletableFuture<Page> read;
+            try {
+                DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+                read = file.readPageAsync(pid, asyncReadExecutor);
+            } catch (RuntimeException e) {
+                read = CompletableFuture.completedFuture(null);
+            }
+            // leave failed pages to be read (and the error reported) by getPage
+            read.whenComplete((page, e) -> completePrefetch(pid, future, e == null ? page : null, ring));
+        }
+    }
+
+    /**
+     * Registers a pending read for each of the specified pages that is
+     * neither cached nor already being read.
+     *
+     * @param toRead receives the pages the caller must read
+     * @param futures receives the future the caller must complete, through
+     *   completePrefetch, for each page in toRead
+     */
+    private void startReads(List<PageId> pids, List<PageId> toRead,
+            List<CompletableFuture<Page>> futures) {
+        for (PageId pid : pids) {
+            if (getCachedPage(pid) != null) {
+                continue;
+            }
+            CompletableFuture<Page> future = new CompletableFuture<>();
+            if (pendingReads.putIfAbsent(pid, future) == null) {
+                toRead.add(pid);
+                futures.add(future);
+            }
+        }
+    }
+
+    /**
+     * Installs a page read by prefetchPages or prefetchPagesAsync, through
+     * the specified ring if it is not null, and wakes up any getPage
+     * waiting for it.
+     */
+    private void completePrefetch(PageId pid, CompletableFuture<Page> future, Page page,
+            BufferRing ring) {
+        Shard shard = shardOf(pid);
+        if (ring != null && page != null && shard.pages.get(pid) == null) {
+            recycle(ring.add(pid));
+            if (!shard.completePrefetch(pid, future, page)) {
+                ring.remove(pid);
+            }
+        } else {
+            shard.completePrefetch(pid, future, page);
+        }
     }
 
     /**
@@ -123,13 +755,166 @@ public class BufferPool {
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
+     * <p>
+     * On commit, pages the transaction left dirty are written, or handed
+     * to the page cleaner if one is running; they must have been logged by
+     * {@link #commitPages} then. Pages the transaction appended with
+     * {@link HeapFile#bulkInsert} are emptied again on abort.
      *
      * @param tid    the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
      */
     public void transactionComplete(TransactionId tid, boolean commit)
             throws IOException {
-        // Not necessary for lab1|lab2
+        Set<HeapFile> bulkInserted = bulkInserts.remove(tid);
+        if (bulkInserted != null) {
+            for (HeapFile f : bulkInserted) {
+                f.bulkInsertComplete(tid, commit);
+            }
+        }
+        if (!commit) {
+            return;
+        }
+        // the pages commitPages only logged go to the cleaner, or are
+        // written now if it was stopped in the meantime
+        PageCleaner c = cleaner;
+        if (c == null) {
+            flushPages(tid);
+            return;
+        }
+        List<PageId> pids = new ArrayList<>();
+        for (Page page : getDirtyPages(tid)) {
+            page.setBeforeImage();
+            pids.add(page.getId());
+        }
+        c.enqueue(tid, pids);
+    }
+
+    /**
+     * Records that the specified transaction appended pages to the
+     * specified file with {@link HeapFile#bulkInsert}, so that the file
+     * learns whether it committed.
+     */
+    void bulkInserted(TransactionId tid, HeapFile file) {
+        bulkInserts.computeIfAbsent(tid, t -> ConcurrentHashMap.newKeySet()).add(file);
+    }
+
+    /**
+     * Makes the changes of a committing transaction durable, before its
+     * COMMIT record is written. Without a page cleaner, its dirty pages are
+     * written to disk. With one, an UPDATE record is logged for each of
+     * them instead; the COMMIT record forces these to disk, and then
+     * {@link #transactionComplete(TransactionId, boolean)} hands the pages
+     * to the cleaner.
+     *
+     * @param tid the committing transaction
+     * @see Transaction#transactionComplete
+     */
+    public void commitPages(TransactionId tid) throws IOException {
+        if (cleaner == null) {
+            flushPages(tid);
+            return;
+        }
+        LogFile log = Database.getLogFile();
+        for (Page page : getDirtyPages(tid)) {
+            log.logWrite(tid, page.getBeforeImage(), page);
+        }
+    }
+
+    /**
+     * @return the cached pages the specified transaction dirtied, or all
+     *   dirty pages if tid is null
+     */
+    private List<Page> getDirtyPages(TransactionId tid) {
+        List<Page> dirty = new ArrayList<>();
+        for (Shard shard : shards) {
+            for (Page page : shard.pages.values()) {
+                TransactionId dirtier = page.isDirty();
+                if (dirtier != null && (tid == null || tid.equals(dirtier))) {
+                    dirty.add(page);
+                }
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * Writes the specified dirty pages and marks them clean, unless another
+     * transaction dirtied them in the meantime. The pages of each file are
+     * handed to {@link DbFile#writePages} together, so that the file can
+     * sort them and write adjacent ones at once; no shard is latched while
+     * they are written.
+     */
+    private void writePages(List<Page> pages) throws IOException {
+        List<TransactionId> dirtiers = new ArrayList<>(pages.size());
+        Map<Integer, List<Page>> byFile = new LinkedHashMap<>();
+        for (Page page : pages) {
+            dirtiers.add(page.isDirty());
+            byFile.computeIfAbsent(page.getId().getTableId(), id -> new ArrayList<>()).add(page);
+        }
+        for (Map.Entry<Integer, List<Page>> e : byFile.entrySet()) {
+            Database.getCatalog().getDatabaseFile(e.getKey()).writePages(e.getValue());
+        }
+        for (int i = 0; i < pages.size(); i++) {
+            shardOf(pages.get(i).getId()).markClean(pages.get(i), dirtiers.get(i));
+        }
+    }
+
+    /**
+     * Starts a background thread that writes the pages of committed
+     * transactions, if none is running.
+     *
+     * @see PageCleaner
+     */
+    public synchronized void startPageCleaner() {
+        if (cleaner == null) {
+            cleaner = new PageCleaner(this);
+        }
+    }
+
+    /**
+     * Stops the page cleaner, if one is running, once it has written the
+     * pages of all transactions that have committed so far. Later commits
+     * write their own pages.
+     */
+    public void stopPageCleaner() {
+        PageCleaner c;
+        synchronized (this) {
+            c = cleaner;
+            cleaner = null;
+        }
+        // the cleaner takes the pool's monitor to write
+        if (c != null) {
+            c.stop();
+        }
+    }
+
+    /**
+     * @return whether tid has committed while its dirty pages wait for the
+     *   page cleaner
+     */
+    boolean isCommitted(TransactionId tid) {
+        PageCleaner c = cleaner;
+        return c != null && c.isCommitted(tid);
+    }
+
+    /**
+     * Writes pages for the page cleaner, except those that are no longer
+     * cached or that a transaction other than tid has dirtied since tid
+     * committed.
+     * <p>
+     * Holds the pool's monitor, like {@link #flushAllPages}, so that the
+     * pages are not written while HeapFile.truncateEmptyPages drops them.
+     */
+    synchronized void cleanPages(List<PageId> pids, TransactionId tid) throws IOException {
+        List<Page> pages = new ArrayList<>(pids.size());
+        for (PageId pid : pids) {
+            Page page = getCachedPage(pid);
+            if (page != null && tid.equals(page.isDirty())) {
+                pages.add(page);
+            }
+        }
+        writePages(pages);
     }
 
     /**
@@ -153,8 +938,7 @@ public class BufferPool {
         ArrayList<Page> pages = Database.getCatalog().getDatabaseFile(tableId).insertTuple(tid, t);
         // Mark any pages that were dirtied 
         for (Page p : pages) {
-            p.markDirty(true, tid);
-            pageMap.put(p.getId(), p);
+            markDirty(tid, p);
         }
     }
 
@@ -179,21 +963,33 @@ public class BufferPool {
         ArrayList<Page> pages = file.deleteTuple(tid, t);
         // Mark any pages that were dirtied 
         for (Page p : pages) {
-            p.markDirty(true, tid);
             // Add versions of any pages that have been dirtied to the cache
-            pageMap.put(p.getId(), p);
+            markDirty(tid, p);
         }
     }
 
+    /**
+     * Marks a page tid has modified in place as dirty, and caches it,
+     * replacing any other version of the page, so that it cannot be evicted
+     * before its changes are written. Call it right after the change: until
+     * then, getPage may evict the page while it is still clean, and the
+     * change is lost.
+     */
+    void markDirty(TransactionId tid, Page p) {
+        p.markDirty(true, tid);
+        shardOf(p.getId()).cacheDirtyPage(p);
+    }
+
     /**
      * Flush all dirty pages to disk.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      * break simpledb if running in NO STEAL mode.
+     * <p>
+     * The pages are written file by file, in page order, and each file is
+     * forced once (see {@link DbFile#writePages}).
      */
     public synchronized void flushAllPages() throws IOException {
-        for (PageId pid : pageMap.keySet()) {
-            flushPage(pid);
-        }
+        writePages(getDirtyPages(null));
     }
 
     /**
@@ -205,47 +1001,267 @@ public class BufferPool {
      * Also used by B+ tree files to ensure that deleted pages
      * are removed from the cache so they can be reused safely
      */
-    public synchronized void discardPage(PageId pid) {
-        pageMap.remove(pid);
-    }
-
-    /**
-     * Flushes a certain page to disk
-     *
-     * @param pid an ID indicating the page to flush
-     */
-    private synchronized void flushPage(PageId pid) throws IOException {
-        Page page = pageMap.get(pid);
-        if (page.isDirty() != null) {
-            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            file.writePage(page);
-            page.markDirty(false, null);
-        }
+    public void discardPage(PageId pid) {
+        shardOf(pid).discardPage(pid);
     }
 
     /**
      * Write all pages of the specified transaction to disk.
      */
-    public synchronized void flushPages(TransactionId tid) throws IOException {
-        // Not necessary for lab1|lab2
+    public void flushPages(TransactionId tid) throws IOException {
+        writePages(getDirtyPages(tid));
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * A partition of the buffer pool: the pages whose ids hash to it, and
+     * the policy that evicts them. Lookups read the map without latching;
+     * everything that changes it holds the shard's monitor.
      */
-    private synchronized void evictPage() throws DbException {
-        // Random eviction
-        List<PageId> keysAsArray = new ArrayList<>(this.pageMap.keySet());
-        int size = keysAsArray.size();
-        int item = (int) (Math.random() * size); 
-        PageId pid = keysAsArray.get(item);
-        // Flush the chosen page
-        try {
-            flushPage(pid);
-        } catch (IOException e) {
-            e.printStackTrace();
+    private final class Shard {
+        // the most bytes of page data the shard holds
+        private final long capacity;
+        final ConcurrentHashMap<PageId, Page> pages = new ConcurrentHashMap<>();
+        final ReplacementPolicy policy;
+        // the number of cached pages of each table, and the size of those
+        // pages
+        private final HashMap<Integer, Integer> occupancy = new HashMap<>();
+        private final HashMap<Integer, Integer> pageSizes = new HashMap<>();
+        // the bytes of page data cached; written under the shard's monitor
+        private volatile long usedBytes = 0;
+
+        Shard(long capacity, ReplacementPolicy policy) {
+            this.capacity = capacity;
+            this.policy = policy;
+        }
+
+        long usedBytes() {
+            return usedBytes;
+        }
+
+        /** @return the size of the pages of the specified table. */
+        private int pageSize(int tableId) {
+            Integer size = pageSizes.get(tableId);
+            if (size != null) {
+                return size;
+            }
+            try {
+                return Database.getCatalog().getPageSize(tableId);
+            } catch (NoSuchElementException e) {
+                return getPageSize();
+            }
+        }
+
+        /** @return the bytes of page data of the specified table cached. */
+        private long tableBytes(int tableId) {
+            Integer n = occupancy.get(tableId);
+            return n == null ? 0 : (long) n * pageSizes.get(tableId);
+        }
+
+        /**
+         * Adds a page a transaction asked for to the shard, evicting a page
+         * if the shard is full.
+         *
+         * @param accessed whether to count the access; pages read through
+         *   a BufferRing are not, so that policies take them as cold
+         * @return the cached copy of the page, which is page unless another
+         *   thread cached the page first
+         * @throws DbException if the shard is full of dirty pages
+         */
+        synchronized Page installPage(PageId pid, Page page, boolean accessed)
+                throws DbException {
+            Page cached = pages.get(pid);
+            if (cached == null) {
+                if (!makeRoom(pid.getTableId())) {
+                    throw new DbException("buffer pool is full of dirty pages");
+                }
+                add(pid, page);
+                cached = page;
+            }
+            if (accessed) {
+                policy.pageAccessed(pid);
+            }
+            return cached;
+        }
+
+        /** Caches a page that is not cached yet. */
+        private void add(PageId pid, Page page) {
+            int tableId = pid.getTableId();
+            int size = pageSize(tableId);
+            pages.put(pid, page);
+            policy.pageAdded(pid);
+            occupancy.merge(tableId, 1, Integer::sum);
+            pageSizes.put(tableId, size);
+            usedBytes += size;
+        }
+
+        /** Removes a page from the shard, if it is cached. */
+        private void remove(PageId pid) {
+            if (pages.remove(pid) != null) {
+                int tableId = pid.getTableId();
+                policy.pageRemoved(pid);
+                usedBytes -= pageSizes.get(tableId);
+                if (occupancy.computeIfPresent(tableId, (t, n) -> n > 1 ? n - 1 : null) == null) {
+                    pageSizes.remove(tableId);
+                }
+            }
+        }
+
+        /** Adds the number of cached pages of each table to occupancy. */
+        synchronized void addOccupancy(Map<Integer, Integer> occupancy) {
+            for (Map.Entry<Integer, Integer> e : this.occupancy.entrySet()) {
+                occupancy.merge(e.getKey(), e.getValue(), Integer::sum);
+            }
+        }
+
+        /**
+         * Evicts pages until there is room for one more page of the
+         * specified table. A table at the maximum share of its quota makes
+         * room among its own pages, if it can. A page larger than the whole
+         * shard is let into an empty shard.
+         *
+         * @return false if the shard is full and no page can be evicted
+         */
+        private boolean makeRoom(int tableId) {
+            Catalog catalog = Database.getCatalog();
+            int size = pageSize(tableId);
+            if (catalog.hasBufferQuotas() && tableBytes(tableId) + size
+                    > catalog.getBufferQuota(tableId).maxBytes(capacity, size)) {
+                // one pass finds the table's own victim, or else the victim
+                // to evict anyway if the shard is full
+                PageId pid = chooseVictim(clean(), p -> p.getTableId() == tableId);
+                if (pid != null && (pid.getTableId() == tableId || usedBytes + size > capacity)) {
+                    remove(pid);
+                }
+            }
+            while (usedBytes + size > capacity && !pages.isEmpty()) {
+                if (!evictPage()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Installs a page read by prefetchPages or prefetchPagesAsync, unless it was discarded
+         * while it was being read or there is no room for it, and wakes up any getPage waiting
+         * for it.
+         *
+         * @return whether the page was installed
+         */
+        synchronized boolean completePrefetch(PageId pid, CompletableFuture<Page> future,
+                Page page) {
+            boolean installed = page != null && pendingReads.get(pid) == future
+                    && !pages.containsKey(pid) && makeRoom(pid.getTableId());
+            if (installed) {
+                add(pid, page);
+            }
+            pendingReads.remove(pid, future);
+            future.complete(page);
+            return installed;
+        }
+
+        /** Marks a written page clean, unless dirtier is no longer its dirtier. */
+        synchronized void markClean(Page page, TransactionId dirtier) {
+            if (dirtier != null && dirtier.equals(page.isDirty())) {
+                page.markDirty(false, null);
+                policy.pageCleaned(page.getId());
+            }
+        }
+
+        /** Evicts a page that left a BufferRing, unless it is dirty. */
+        synchronized void recycle(PageId pid) {
+            Page page = pages.get(pid);
+            if (page != null && page.isDirty() == null) {
+                remove(pid);
+            }
+        }
+
+        /**
+         * Adds a page dirtied by insertTuple or deleteTuple to the shard,
+         * replacing any cached version. If the shard is full of dirty pages,
+         * it grows past its share rather than lose the page.
+         */
+        synchronized void cacheDirtyPage(Page p) {
+            if (pages.containsKey(p.getId())) {
+                pages.put(p.getId(), p);
+            } else {
+                makeRoom(p.getId().getTableId());
+                add(p.getId(), p);
+            }
+            policy.pageDirtied(p.getId());
+        }
+
+        synchronized void discardPage(PageId pid) {
+            pendingReads.remove(pid);
+            remove(pid);
+        }
+
+        /**
+         * Discards a clean page, chosen by the replacement policy, from the
+         * shard. Dirty pages are not evicted, so nothing needs to be
+         * written; pages the page cleaner has yet to write are written by
+         * BufferPool.install, which takes the pool's monitor to write them.
+         *
+         * @return false if every page is dirty
+         */
+        private boolean evictPage() {
+            PageId pid = chooseVictim(clean(), null);
+            if (pid == null) {
+                return false;
+            }
+            remove(pid);
+            return true;
+        }
+
+        /** @return a predicate accepting the cached pages that are clean */
+        private Predicate<PageId> clean() {
+            return p -> {
+                Page page = pages.get(p);
+                return page != null && page.isDirty() == null;
+            };
+        }
+
+        /**
+         * Asks the replacement policy for a victim among the evictable
+         * pages, respecting the tables' quotas: pages of tables down to
+         * their reserved share are not eligible, and tables of lower
+         * priority give up their pages first. Preferred pages go before any
+         * other. The quota check is part of the eligibility predicate, so
+         * the policy's single pass skips protected pages, and stops at the
+         * first eligible page of the lowest priority. Only if the quotas
+         * leave no victim does a second pass choose among all the evictable
+         * pages.
+         *
+         * @param preferred accepts the pages to evict first, or null
+         * @see BufferQuota
+         */
+        private PageId chooseVictim(Predicate<PageId> evictable, Predicate<PageId> preferred) {
+            Catalog catalog = Database.getCatalog();
+            if (!catalog.hasBufferQuotas()) {
+                return preferred == null ? policy.chooseVictim(evictable)
+                        : policy.chooseVictim(evictable, p -> preferred.test(p) ? 0 : 1, 0);
+            }
+            // the priority of each table above its reserved share; the
+            // others are left out
+            HashMap<Integer, Integer> priorities = new HashMap<>();
+            int best = Integer.MAX_VALUE;
+            for (int tableId : occupancy.keySet()) {
+                BufferQuota quota = catalog.getBufferQuota(tableId);
+                if (tableBytes(tableId) > quota.minBytes(capacity)) {
+                    priorities.put(tableId, quota.getPriority());
+                    best = Math.min(best, quota.getPriority());
+                }
+            }
+            PageId pid = null;
+            if (!priorities.isEmpty()) {
+                Predicate<PageId> eligible = p -> priorities.containsKey(p.getTableId())
+                        && evictable.test(p);
+                pid = preferred == null
+                        ? policy.chooseVictim(eligible, p -> priorities.get(p.getTableId()), best)
+                        : policy.chooseVictim(eligible, p -> preferred.test(p) ? Integer.MIN_VALUE
+                                : priorities.get(p.getTableId()), Integer.MIN_VALUE);
+            }
+            return pid != null ? pid : policy.chooseVictim(evictable);
         }
-        this.pageMap.remove(pid);
     }
 }
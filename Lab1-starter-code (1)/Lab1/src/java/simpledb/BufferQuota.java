@@ -0,0 +1,97 @@
+package simpledb;
+
+/**
+ * BufferQuota limits the share of the BufferPool a table may take, and how
+ * readily its pages are evicted, so that large tables do not crowd small,
+ * hot ones out of the pool. A quota has three parts:
+ * <ul>
+ * <li>a minimum share of the pool reserved for the table: its pages are not
+ * evicted to make room for other tables while it holds no more than that;
+ * <li>a maximum share of the pool: once the table's pages take that much of
+ * it, a page read for it replaces one of its own;
+ * <li>a priority: when the pool needs room, pages of tables with lower
+ * priorities are evicted before those of tables with higher ones.
+ * </ul>
+ * Quotas narrow the replacement policy's choice of victim rather than
+ * replace it, and they give way when nothing else can be evicted, so they
+ * never leave the pool unable to cache a page. Shares are of the pool's
+ * capacity in bytes, so a table with large pages gets fewer of them. They
+ * are enforced by each shard of the pool on its own frames; pages are
+ * spread evenly over the shards, so this approximates the share of the
+ * whole pool.
+ *
+ * @see Catalog#setBufferQuota
+ * @see BufferPool#getOccupancy
+ */
+public class BufferQuota {
+
+    /** The quota of tables that were not given one: no limits, priority 0. */
+    public static final BufferQuota DEFAULT = new BufferQuota(0, 1, 0);
+
+    private final double minShare;
+    private final double maxShare;
+    private final int priority;
+
+    /**
+     * Creates a quota.
+     *
+     * @param minShare the fraction of the pool reserved for the table
+     * @param maxShare the largest fraction of the pool the table may take
+     * @param priority the table's priority; higher priorities are evicted
+     *   later
+     * @throws IllegalArgumentException unless 0 &lt;= minShare &lt;=
+     *   maxShare &lt;= 1 and maxShare &gt; 0
+     */
+    public BufferQuota(double minShare, double maxShare, int priority) {
+        if (!(minShare >= 0 && minShare <= maxShare && maxShare > 0 && maxShare <= 1)) {
+            throw new IllegalArgumentException("invalid shares " + minShare + ", " + maxShare);
+        }
+        this.minShare = minShare;
+        this.maxShare = maxShare;
+        this.priority = priority;
+    }
+
+    public double getMinShare() {
+        return minShare;
+    }
+
+    public double getMaxShare() {
+        return maxShare;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    /** @return the number of bytes reserved for the table out of capacity. */
+    public long minBytes(long capacity) {
+        return (long) (minShare * capacity);
+    }
+
+    /**
+     * @return the most bytes the table may take out of capacity, at least
+     *   one of its pages of pageSize bytes
+     */
+    public long maxBytes(long capacity, int pageSize) {
+        return Math.max(pageSize, (long) Math.ceil(maxShare * capacity));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof BufferQuota)) {
+            return false;
+        }
+        BufferQuota q = (BufferQuota) o;
+        return minShare == q.minShare && maxShare == q.maxShare && priority == q.priority;
+    }
+
+    @Override
+    public int hashCode() {
+        return Double.hashCode(minShare) * 31 * 31 + Double.hashCode(maxShare) * 31 + priority;
+    }
+
+    @Override
+    public String toString() {
+        return "BufferQuota(min " + minShare + ", max " + maxShare + ", priority " + priority + ")";
+    }
+}
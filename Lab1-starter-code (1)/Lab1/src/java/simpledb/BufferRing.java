@@ -0,0 +1,87 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+
+/**
+ * BufferRing is a buffer-access strategy for operations that read many
+ * pages once, such as sequential scans of large tables. The pages such an
+ * operation brings into the BufferPool are remembered in a small ring; once
+ * the ring is full, each new page takes the place of the oldest one, which
+ * is evicted from the pool unless it has been dirtied since. However big
+ * the table, the operation displaces at most the ring's worth of other
+ * pages, so a single reporting query does not flush the working set of
+ * everything else. Pages that were already cached when the operation asked
+ * for them are used as usual and never enter the ring.
+ * <p>
+ * A ring belongs to a single operation, but the pages it reads ahead enter
+ * the ring from background threads, so it is thread-safe.
+ *
+ * @see BufferPool#getPage(TransactionId, PageId, Permissions, BufferRing)
+ * @see BufferPool#prefetchPages(java.util.List, BufferRing)
+ */
+public class BufferRing {
+
+    /** Fewest pages in the ring of a scan. */
+    public static final int DEFAULT_RING_PAGES = 32;
+
+    private final int numPages;
+    // the pages read through the ring, oldest first
+    private final ArrayDeque<PageId> ring;
+
+    /** Creates a ring of numPages pages. */
+    public BufferRing(int numPages) {
+        if (numPages < 1) {
+            throw new IllegalArgumentException("a ring needs at least one page");
+        }
+        this.numPages = numPages;
+        this.ring = new ArrayDeque<>(numPages);
+    }
+
+    /**
+     * Returns a ring for a sequential scan of a table of tablePages pages
+     * through the current BufferPool, or null if the scan should go through
+     * the pool as usual. As in PostgreSQL, tables of more than a quarter of
+     * the pool are scanned through a ring. The ring is large enough for the
+     * pages the scan reads ahead, and it is only used if it is no more than
+     * a quarter of the pool itself.
+     */
+    public static BufferRing forScan(int tablePages) {
+        int poolPages = Database.getBufferPool().getNumPages();
+        int ringPages = Math.max(DEFAULT_RING_PAGES, 2 * HeapFile.getReadAheadPages());
+        if (tablePages <= poolPages / 4 || ringPages > poolPages / 4) {
+            return null;
+        }
+        return new BufferRing(ringPages);
+    }
+
+    /** @return the number of pages the ring holds. */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /** @return the number of pages currently in the ring. */
+    public synchronized int size() {
+        return ring.size();
+    }
+
+    /**
+     * Adds a page that is about to be cached on behalf of the ring's
+     * operation.
+     *
+     * @return the page it replaces, which the caller must release from the
+     *   BufferPool, or null if the ring was not full
+     */
+    synchronized PageId add(PageId pid) {
+        PageId oldest = ring.size() >= numPages ? ring.poll() : null;
+        ring.add(pid);
+        return oldest;
+    }
+
+    /**
+     * Forgets a page that was added but not cached after all, because
+     * another thread cached it first.
+     */
+    synchronized void remove(PageId pid) {
+        ring.removeLastOccurrence(pid);
+    }
+}
@@ -39,6 +39,10 @@ public class Catalog {
     // A map from table name to table ID, for quick lookup by table name.
     private Map<String, Integer> nameToIdMap;
 
+    // The BufferPool quotas of the tables that have one, by table ID. The
+    // BufferPool reads them while it evicts pages, from any thread.
+    private final Map<Integer, BufferQuota> quotas = new ConcurrentHashMap<>();
+
     // Constructor for the Catalog class.
     public Catalog() {
         tables = new HashMap<>();    
@@ -111,6 +115,17 @@ public class Catalog {
         return tables.get(tableid).file.getTupleDesc();
     }
 
+    /**
+     * Returns the size, in bytes, of the pages of the specified table.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @throws NoSuchElementException if the table doesn't exist
+     * @see DbFile#getPageSize
+     */
+    public int getPageSize(int tableid) throws NoSuchElementException {
+        return getDatabaseFile(tableid).getPageSize();
+    }
+
     /**
      * Returns the DbFile that can be used to read the contents of the
      * specified table.
@@ -130,6 +145,34 @@ public class Catalog {
         return tables.get(tableid).pkeyField;
     }
 
+    /**
+     * Sets the share of the BufferPool the specified table may take, and
+     * the priority of its pages.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @param quota the table's quota, or null to remove its quota
+     */
+    public void setBufferQuota(int tableid, BufferQuota quota) {
+        if (quota == null) {
+            quotas.remove(tableid);
+        } else {
+            quotas.put(tableid, quota);
+        }
+    }
+
+    /**
+     * Returns the BufferPool quota of the specified table, which is
+     * {@link BufferQuota#DEFAULT} unless one was set.
+     */
+    public BufferQuota getBufferQuota(int tableid) {
+        return quotas.getOrDefault(tableid, BufferQuota.DEFAULT);
+    }
+
+    /** @return whether any table has a BufferPool quota. */
+    public boolean hasBufferQuotas() {
+        return !quotas.isEmpty();
+    }
+
     public Iterator<Integer> tableIdIterator() {
         // some code goes here
         return tables.keySet().iterator();
@@ -144,10 +187,20 @@ public class Catalog {
     public void clear() {
         tables.clear();
         nameToIdMap.clear();
+        quotas.clear();
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line of the file describes one table:
+     * <p>
+     *      name (field type [pk], field type, ...) [using format] [pagesize n]
+     *          [minshare f] [maxshare f] [priority p]
+     * <p>
+     * where format selects how the table's file is stored on disk: heap (the
+     * default), slotted, pax, mapped or compressed, and n is the size in
+     * bytes of the table's pages (by default {@link BufferPool#getPageSize}).
+     * minshare, maxshare and priority set the table's {@link BufferQuota}.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -188,8 +241,53 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                String format = "heap";
+                int pageSize = 0;
+                double minShare = BufferQuota.DEFAULT.getMinShare();
+                double maxShare = BufferQuota.DEFAULT.getMaxShare();
+                int priority = BufferQuota.DEFAULT.getPriority();
+                String[] options = line.substring(line.indexOf(")") + 1).trim().split("\\s+");
+                for (int i = 0; !options[0].isEmpty() && i < options.length; i += 2) {
+                    String option = options[i].toLowerCase();
+                    if (i + 1 < options.length && option.equals("using"))
+                        format = options[i + 1].toLowerCase();
+                    else if (i + 1 < options.length && option.equals("pagesize")
+                            && options[i + 1].matches("\\d{1,9}"))
+                        pageSize = Integer.parseInt(options[i + 1]);
+                    else if (i + 1 < options.length && option.equals("minshare")
+                            && options[i + 1].matches("0?\\.\\d+|[01]"))
+                        minShare = Double.parseDouble(options[i + 1]);
+                    else if (i + 1 < options.length && option.equals("maxshare")
+                            && options[i + 1].matches("0?\\.\\d+|[01]"))
+                        maxShare = Double.parseDouble(options[i + 1]);
+                    else if (i + 1 < options.length && option.equals("priority")
+                            && options[i + 1].matches("-?\\d{1,9}"))
+                        priority = Integer.parseInt(options[i + 1]);
+                    else {
+                        System.out.println("Unknown table options " + line.substring(line.indexOf(")") + 1));
+                        System.exit(0);
+                    }
+                }
+                HeapFile tabHf;
+                try {
+                    tabHf = openHeapFile(format, new File(baseFolder+"/"+name + ".dat"), t, pageSize);
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Invalid page size " + pageSize + " for table " + name);
+                    System.exit(0);
+                    return;
+                }
+                if (tabHf == null) {
+                    System.out.println("Unknown table format " + format);
+                    System.exit(0);
+                }
                 addTable(tabHf,name,primaryKey);
+                try {
+                    BufferQuota quota = new BufferQuota(minShare, maxShare, priority);
+                    setBufferQuota(tabHf.getId(), quota.equals(BufferQuota.DEFAULT) ? null : quota);
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Invalid buffer quota for table " + name);
+                    System.exit(0);
+                }
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
@@ -200,5 +298,30 @@ public class Catalog {
             System.exit(0);
         }
     }
+
+    /**
+     * Opens a table file stored in the specified format.
+     *
+     * @param format one of the formats accepted by loadSchema
+     * @param pageSize the size of the table's pages, or 0 for the default
+     * @return the table, or null if the format is unknown
+     * @throws IllegalArgumentException if the page size can't hold a tuple
+     */
+    static HeapFile openHeapFile(String format, File f, TupleDesc td, int pageSize) {
+        switch (format) {
+        case "heap":
+            return new HeapFile(f, td, pageSize);
+        case "slotted":
+            return new SlottedHeapFile(f, td, pageSize);
+        case "pax":
+            return new PaxHeapFile(f, td, pageSize);
+        case "mapped":
+            return new MappedHeapFile(f, td, pageSize, MappedHeapFile.DEFAULT_SEGMENT_BYTES);
+        case "compressed":
+            return new CompressedHeapFile(f, td, pageSize);
+        default:
+            return null;
+        }
+    }
 }
 
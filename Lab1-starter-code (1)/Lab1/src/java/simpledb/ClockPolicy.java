@@ -0,0 +1,164 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ClockPolicy approximates LRU with the CLOCK algorithm. Cached pages sit in
+ * a circular array of frames, each with a reference bit that is set when
+ * the page is accessed. To choose a victim, a hand sweeps the frames,
+ * clearing set bits, and stops at the first evictable page whose bit is
+ * already clear. Accesses only set a bit, and the hand clears at most one
+ * bit per frame it passes, so victim selection is O(1) amortized.
+ * <p>
+ * Victims are looked for without moving the hand: a page whose bit is
+ * clear is the one the hand would stop at first, and a page whose bit is
+ * set the one it would stop at on its second turn. Only once a victim is
+ * chosen does the hand move past it, clearing the bits it passes except
+ * those of evictable pages of a higher rank, which were never candidates.
+ * So a search that finds nothing, or that passes over pages the quotas of
+ * the BufferPool protect, does not take their reference bits.
+ * <p>
+ * Frames of pages the BufferPool reports dirty are left out of the search
+ * altogether, and keep their bits: the search only visits the frames of
+ * pages that may be clean, found a word of frames at a time in a BitSet.
+ * So a pool full of dirty pages costs a miss next to nothing, rather than
+ * a sweep of every frame under the policy's monitor. The worst case is
+ * still O(n) for n frames, when most pages are clean but none is
+ * evictable.
+ * <p>
+ * Pages that were read ahead but not accessed yet have a clear bit, so they
+ * are the first to go.
+ *
+ * @Threadsafe
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    // the page in each frame, or null for a free frame
+    private final ArrayList<PageId> frames = new ArrayList<>();
+    private final BitSet referenced = new BitSet();
+    // the frames holding pages not known to be dirty, which the hand visits
+    private final BitSet candidates = new BitSet();
+    // the frame holding each page
+    private final HashMap<PageId, Integer> frameOf = new HashMap<>();
+    private final ArrayDeque<Integer> freeFrames = new ArrayDeque<>();
+    private int hand = 0;
+
+    public synchronized void pageAdded(PageId pid) {
+        if (frameOf.containsKey(pid)) {
+            return;
+        }
+        Integer frame = freeFrames.poll();
+        if (frame == null) {
+            frame = frames.size();
+            frames.add(pid);
+        } else {
+            frames.set(frame, pid);
+        }
+        referenced.clear(frame);
+        candidates.set(frame);
+        frameOf.put(pid, frame);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame != null) {
+            referenced.set(frame);
+        }
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Integer frame = frameOf.remove(pid);
+        if (frame != null) {
+            frames.set(frame, null);
+            candidates.clear(frame);
+            freeFrames.push(frame);
+        }
+    }
+
+    public synchronized void pageDirtied(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame != null) {
+            candidates.clear(frame);
+        }
+    }
+
+    public synchronized void pageCleaned(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame != null) {
+            candidates.set(frame);
+        }
+    }
+
+    /**
+     * @return the distance from the hand of the first candidate frame at
+     *   least i frames past it, or n if there is none
+     */
+    private int nextCandidate(int i, int n) {
+        int frame;
+        if (hand + i < n) {
+            frame = candidates.nextSetBit(hand + i);
+            if (frame >= 0) {
+                return frame - hand;
+            }
+            frame = candidates.nextSetBit(0);
+        } else {
+            frame = candidates.nextSetBit(hand + i - n);
+        }
+        return frame >= 0 && frame < hand ? frame + n - hand : n;
+    }
+
+    public synchronized PageId chooseVictim(java.util.function.Predicate<PageId> evictable,
+            java.util.function.ToIntFunction<PageId> rank, int best) {
+        int n = frames.size();
+        // the victim so far, by its distance from the hand: a referenced
+        // page is reached on the hand's second turn, n frames later
+        int victim = -1;
+        int victimRank = Integer.MAX_VALUE;
+        long victimDistance = Long.MAX_VALUE;
+        for (int i = nextCandidate(0, n); i < n; i = nextCandidate(i + 1, n)) {
+            int frame = (hand + i) % n;
+            PageId pid = frames.get(frame);
+            if (!evictable.test(pid)) {
+                continue;
+            }
+            int r = rank.applyAsInt(pid);
+            long distance = referenced.get(frame) ? n + i : i;
+            if (r < victimRank || (r == victimRank && distance < victimDistance)) {
+                victim = frame;
+                victimRank = r;
+                victimDistance = distance;
+                if (r <= best && distance < n) {
+                    break;
+                }
+            }
+        }
+        if (victim < 0) {
+            return null;
+        }
+        // move the hand past the victim as a sweep would have
+        long end = Math.min(victimDistance, n);
+        for (int i = nextCandidate(0, n); i < end; i = nextCandidate(i + 1, n)) {
+            int frame = (hand + i) % n;
+            PageId pid = frames.get(frame);
+            if (!(evictable.test(pid) && rank.applyAsInt(pid) > victimRank)) {
+                referenced.clear(frame);
+            }
+        }
+        hand = (victim + 1) % n;
+        return frames.get(victim);
+    }
+
+    /** Referenced pages come first, then the others, each in frame order. */
+    public synchronized List<PageId> hottestPages() {
+        List<PageId> hottest = new ArrayList<>(frameOf.size());
+        for (boolean pass : new boolean[] { true, false }) {
+            for (int frame = 0; frame < frames.size(); frame++) {
+                PageId pid = frames.get(frame);
+                if (pid != null && referenced.get(frame) == pass) {
+                    hottest.add(pid);
+                }
+            }
+        }
+        return hottest;
+    }
+}
@@ -0,0 +1,382 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * CompressedHeapFile is a HeapFile whose pages are stored on disk in the
+ * compressed form produced by PageCompressor. Pages are decompressed when
+ * they are read, so the BufferPool holds ordinary HeapPages, and compressed
+ * again when they are written.
+ * <p>
+ * Compressed pages vary in size, so the file is paired with an index file
+ * (the table file's name plus ".idx") that records, for each page, the
+ * offset and length of the page in the table file and the capacity of the
+ * extent reserved for it. Each entry is a long offset followed by an int
+ * length and an int capacity. A page that no longer fits its extent when it
+ * is written is moved to a new extent twice its compressed size (up to the
+ * page size), so that a page that grows a tuple at a time moves only a few
+ * times. The extents pages move out of are kept in a free list, rebuilt
+ * from the gaps between extents when the index is loaded, and reused by
+ * later moves. When the file is truncated, as {@link Vacuum} does, pages at
+ * the end of the table file are moved into free extents nearer the start,
+ * so that the space can be returned.
+ *
+ * @see PageCompressor
+ * @see HeapFileEncoder#convertCompressed
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    /** Size, in bytes, of an entry of the index file. */
+    static final int INDEX_ENTRY_SIZE = 16;
+
+    private final File indexFile;
+
+    // guards the index and the free list. Readers hold the read lock while
+    // they read a page's extent, so that it can't be reused under them.
+    private final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
+    private volatile boolean indexLoaded = false;
+    // the index, loaded on first use: per page, the offset, length and
+    // capacity of its extent in the table file
+    private long[] offsets;
+    private int[] lengths;
+    private int[] capacities;
+    private int numPages;
+    // the end of the last extent in the table file
+    private long dataEnd;
+    // extents no page uses, before dataEnd: offset to size, with adjacent
+    // extents merged
+    private final TreeMap<Long, Integer> freeExtents = new TreeMap<Long, Integer>();
+
+    /**
+     * Constructs a compressed heap file backed by the specified file and its
+     * index file.
+     *
+     * @param f the file that stores the on-disk backing store for this heap
+     *          file.
+     * @param td the schema of the tuples within this file.
+     */
+    public CompressedHeapFile(File f, TupleDesc td) {
+        this(f, td, 0);
+    }
+
+    /**
+     * Constructs a compressed heap file whose pages are pageSize bytes long
+     * once decompressed.
+     *
+     * @see HeapFile#HeapFile(File, TupleDesc, int)
+     */
+    public CompressedHeapFile(File f, TupleDesc td, int pageSize) {
+        super(f, td, pageSize);
+        this.indexFile = getIndexFile(f);
+    }
+
+    /** @return the index file of the compressed table stored in f. */
+    public static File getIndexFile(File f) {
+        return new File(f.getPath() + ".idx");
+    }
+
+    /** Reads the index file, if it has not been read yet. */
+    private void loadIndex() throws IOException {
+        if (indexLoaded) {
+            return;
+        }
+        indexLock.writeLock().lock();
+        try {
+            if (!indexLoaded) {
+                readIndex();
+                indexLoaded = true;
+            }
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    private void readIndex() throws IOException {
+        int n = (int) (indexFile.length() / INDEX_ENTRY_SIZE);
+        byte[] index = new byte[n * INDEX_ENTRY_SIZE];
+        if (n > 0) {
+            Database.getFileHandleManager().readFully(indexFile, index, 0);
+        }
+        ByteBuffer buf = ByteBuffer.wrap(index);
+        long[] offsets = new long[Math.max(n, 16)];
+        lengths = new int[offsets.length];
+        capacities = new int[offsets.length];
+        dataEnd = 0;
+        for (int i = 0; i < n; i++) {
+            offsets[i] = buf.getLong();
+            lengths[i] = buf.getInt();
+            capacities[i] = buf.getInt();
+            dataEnd = Math.max(dataEnd, offsets[i] + capacities[i]);
+        }
+        numPages = n;
+        this.offsets = offsets;
+
+        // every gap between extents is free
+        Integer[] byOffset = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            byOffset[i] = i;
+        }
+        Arrays.sort(byOffset, (a, b) -> Long.compare(offsets[a], offsets[b]));
+        freeExtents.clear();
+        long end = 0;
+        for (int i : byOffset) {
+            if (offsets[i] > end) {
+                freeExtent(end, (int) (offsets[i] - end));
+            }
+            end = Math.max(end, offsets[i] + capacities[i]);
+        }
+    }
+
+    /**
+     * Returns the capacity of a new extent for a page whose compressed form
+     * is length bytes long: twice that, up to the uncompressed page size.
+     */
+    private int extentCapacity(int length) {
+        return Math.max(length, Math.min(2 * length, getPageSize()));
+    }
+
+    /**
+     * Returns the offset of a new extent of the specified size, taken from
+     * the first free extent that is large enough, or from the end of the
+     * table file.
+     */
+    private long allocateExtent(int size) {
+        for (Map.Entry<Long, Integer> e : freeExtents.entrySet()) {
+            if (e.getValue() >= size) {
+                long offset = e.getKey();
+                freeExtents.remove(offset);
+                if (e.getValue() > size) {
+                    freeExtents.put(offset + size, e.getValue() - size);
+                }
+                return offset;
+            }
+        }
+        long offset = dataEnd;
+        dataEnd += size;
+        return offset;
+    }
+
+    /** Adds the specified extent to the free list. */
+    private void freeExtent(long offset, int size) {
+        if (size == 0) {
+            return;
+        }
+        Map.Entry<Long, Integer> prev = freeExtents.floorEntry(offset);
+        if (prev != null && prev.getKey() + prev.getValue() == offset) {
+            offset = prev.getKey();
+            size += prev.getValue();
+            freeExtents.remove(offset);
+        }
+        Integer next = freeExtents.remove(offset + size);
+        if (next != null) {
+            size += next;
+        }
+        if (offset + size == dataEnd) {
+            dataEnd = offset;
+        } else {
+            freeExtents.put(offset, size);
+        }
+    }
+
+    /** Writes the index entry of the specified page. */
+    private void writeIndexEntry(int pageNo) throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        entry.putLong(offsets[pageNo]).putInt(lengths[pageNo]).putInt(capacities[pageNo]);
+        entry.flip();
+        Database.getFileHandleManager().write(indexFile, entry, (long) pageNo * INDEX_ENTRY_SIZE);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        // Reads and decompresses the page; returns null if an IOException
+        // occurs, like HeapFile.readPage.
+        try {
+            loadIndex();
+            byte[] compressed;
+            indexLock.readLock().lock();
+            try {
+                int pageNo = pid.getPageNumber();
+                if (pageNo < 0 || pageNo >= numPages) {
+                    throw new IllegalArgumentException("page " + pid + " does not exist");
+                }
+                compressed = new byte[lengths[pageNo]];
+                Database.getFileHandleManager().readFully(getFile(), compressed, offsets[pageNo]);
+            } finally {
+                indexLock.readLock().unlock();
+            }
+            byte[] data = PageCompressor.decompress(compressed, getTupleDesc(), getPageSize());
+            return createPage((HeapPageId) pid, data);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Reads the specified pages one at a time: compressed pages have no
+     * fixed offsets, so adjacent ones can't be read together.
+     */
+    @Override
+    public List<Page> readPages(List<PageId> pids) {
+        List<Page> pages = new ArrayList<>(pids.size());
+        for (PageId pid : pids) {
+            pages.add(readPage(pid));
+        }
+        return pages;
+    }
+
+    /**
+     * Writes the specified pages one at a time: compressed pages have no
+     * fixed offsets, so adjacent ones can't be written together.
+     */
+    @Override
+    public void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages) {
+            writePage(p);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized void writePage(Page page) throws IOException {
+        loadIndex();
+        byte[] compressed = PageCompressor.compress(page.getPageData(), getTupleDesc(),
+                getPageSize());
+        indexLock.writeLock().lock();
+        try {
+            int pageNo = page.getId().getPageNumber();
+            if (pageNo < 0 || pageNo > numPages) {
+                throw new IllegalArgumentException("page " + page.getId() + " is past the end of the file");
+            }
+            if (pageNo == numPages) {
+                if (numPages == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, numPages * 2);
+                    lengths = Arrays.copyOf(lengths, numPages * 2);
+                    capacities = Arrays.copyOf(capacities, numPages * 2);
+                }
+                capacities[pageNo] = 0;
+                numPages++;
+            }
+            long oldOffset = offsets[pageNo];
+            int oldCapacity = capacities[pageNo];
+            if (compressed.length > oldCapacity) {
+                // move the page to a new extent; the old one is only freed
+                // once the index no longer points to it
+                capacities[pageNo] = extentCapacity(compressed.length);
+                offsets[pageNo] = allocateExtent(capacities[pageNo]);
+            }
+            lengths[pageNo] = compressed.length;
+
+            // write the page before the index entry that points to it
+            Database.getFileHandleManager().write(getFile(), compressed, offsets[pageNo]);
+            writeIndexEntry(pageNo);
+            if (compressed.length > oldCapacity) {
+                freeExtent(oldOffset, oldCapacity);
+            }
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of pages in this CompressedHeapFile, as recorded in
+     * its index file.
+     */
+    public int numPages() {
+        try {
+            loadIndex();
+            indexLock.readLock().lock();
+            try {
+                return numPages;
+            } finally {
+                indexLock.readLock().unlock();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    /**
+     * Truncates the file to its first numPages pages, then moves pages from
+     * the end of the table file into free extents nearer its start, and
+     * returns the space after the last extent still in use.
+     */
+    @Override
+    protected synchronized void truncateFile(int numPages) throws IOException {
+        loadIndex();
+        indexLock.writeLock().lock();
+        try {
+            if (numPages < this.numPages) {
+                // shrink the index before the data it points to
+                Database.getFileHandleManager().truncate(indexFile, (long) numPages * INDEX_ENTRY_SIZE);
+                for (int i = numPages; i < this.numPages; i++) {
+                    freeExtent(offsets[i], capacities[i]);
+                }
+                this.numPages = numPages;
+            }
+            while (!freeExtents.isEmpty() && moveLastExtent()) {
+            }
+            if (getFile().length() > dataEnd) {
+                Database.getFileHandleManager().truncate(getFile(), dataEnd);
+            }
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Moves the page whose extent ends the table file into the first free
+     * extent it fits in, if there is one before its own.
+     *
+     * @return whether the page was moved
+     */
+    private boolean moveLastExtent() throws IOException {
+        int last = -1;
+        for (int i = 0; i < numPages; i++) {
+            if (offsets[i] + capacities[i] == dataEnd) {
+                last = i;
+                break;
+            }
+        }
+        if (last < 0) {
+            return false;
+        }
+        Map.Entry<Long, Integer> hole = null;
+        for (Map.Entry<Long, Integer> e : freeExtents.entrySet()) {
+            if (e.getValue() >= lengths[last]) {
+                hole = e;
+                break;
+            }
+        }
+        if (hole == null || hole.getKey() > offsets[last]) {
+            return false;
+        }
+        byte[] compressed = new byte[lengths[last]];
+        Database.getFileHandleManager().readFully(getFile(), compressed, offsets[last]);
+
+        long oldOffset = offsets[last];
+        int oldCapacity = capacities[last];
+        freeExtents.remove(hole.getKey());
+        offsets[last] = hole.getKey();
+        capacities[last] = Math.min(hole.getValue(), extentCapacity(lengths[last]));
+        if (hole.getValue() > capacities[last]) {
+            freeExtents.put(offsets[last] + capacities[last], hole.getValue() - capacities[last]);
+        }
+        Database.getFileHandleManager().write(getFile(), compressed, offsets[last]);
+        writeIndexEntry(last);
+        freeExtent(oldOffset, oldCapacity);
+        return true;
+    }
+
+    @Override
+    protected boolean pageHasRoomOnDisk(int pageNo) throws IOException {
+        TuplePage page = (TuplePage) readPage(new HeapPageId(getId(), pageNo));
+        if (page == null) {
+            throw new IOException("can't read page " + pageNo + " of " + getFile());
+        }
+        return page.hasRoom();
+    }
+}
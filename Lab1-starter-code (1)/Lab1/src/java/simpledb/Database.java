@@ -17,6 +17,7 @@ public class Database {
     private static AtomicReference<Database> _instance = new AtomicReference<Database>(new Database());
     private final Catalog _catalog;
     private final BufferPool _bufferpool;
+    private final FileHandleManager _filehandles;
 
     private final static String LOGFILENAME = "log";
     private final LogFile _logfile;
@@ -24,6 +25,7 @@ public class Database {
     private Database() {
         _catalog = new Catalog();
         _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        _filehandles = new FileHandleManager(FileHandleManager.DEFAULT_MAX_OPEN_FILES);
         LogFile tmp = null;
         try {
             tmp = new LogFile(new File(LOGFILENAME));
@@ -45,6 +47,11 @@ public class Database {
         return _instance.get()._bufferpool;
     }
 
+    /** Return the file handle manager of the static Database instance */
+    public static FileHandleManager getFileHandleManager() {
+        return _instance.get()._filehandles;
+    }
+
     /** Return the catalog of the static Database instance */
     public static Catalog getCatalog() {
         return _instance.get()._catalog;
@@ -55,11 +62,29 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(pages, BufferPool.DEFAULT_OFF_HEAP_BYTES);
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * that keeps pages in up to offHeapBytes of direct memory, and return it
+     */
+    public static BufferPool resetBufferPool(int pages, long offHeapBytes) {
+        return resetBufferPool(new BufferPool(pages, offHeapBytes));
+    }
+
+    /**
+     * Method used for testing -- replace the buffer pool with the specified
+     * one, e.g. one with another replacement policy, and return it
+     */
+    public static BufferPool resetBufferPool(BufferPool bufferPool) {
+        // the old pool's cleaner still writes through this catalog
+        _instance.get()._bufferpool.stopPageCleaner();
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), bufferPool);
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
@@ -75,7 +100,9 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
-        _instance.set(new Database());
+        _instance.get()._bufferpool.stopPageCleaner();
+        Database old = _instance.getAndSet(new Database());
+        old._filehandles.closeAll();
     }
 
 }
@@ -2,6 +2,8 @@
 package simpledb;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.io.*;
 
 /**
@@ -19,6 +21,38 @@ public interface DbFile {
      */
     public Page readPage(PageId id);
 
+    /**
+     * Starts reading the specified page from disk, and returns a future that
+     * completes with the page, or with null if it can't be read. The
+     * default implementation calls {@link #readPage} on the specified
+     * executor; files with a native asynchronous read path may override it.
+     *
+     * @param id the page to read
+     * @param executor the executor to run blocking reads on
+     */
+    public default CompletableFuture<Page> readPageAsync(PageId id, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> readPage(id), executor);
+    }
+
+    /**
+     * Reads the specified pages from disk, e.g. when the BufferPool misses
+     * on several pages at once. The default implementation calls
+     * {@link #readPage} for each page; files that store their pages at
+     * fixed offsets override it to sort the pages and read adjacent ones
+     * together.
+     *
+     * @param ids the pages to read, all of this file, in any order
+     * @return the pages, in the order of ids, with null for any page that
+     *   can't be read
+     */
+    public default List<Page> readPages(List<PageId> ids) {
+        List<Page> pages = new ArrayList<>(ids.size());
+        for (PageId id : ids) {
+            pages.add(readPage(id));
+        }
+        return pages;
+    }
+
     /**
      * Push the specified page to disk.
      *
@@ -28,6 +62,22 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Push the specified pages to disk, e.g. when the BufferPool flushes
+     * them on a commit or a checkpoint. The default implementation calls
+     * {@link #writePage} for each page; files that store their pages at
+     * fixed offsets override it to sort the pages and write adjacent ones
+     * together.
+     *
+     * @param pages the pages to write, all of this file, in any order
+     * @throws IOException if a write fails
+     */
+    public default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages) {
+            writePage(p);
+        }
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -88,4 +138,13 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     public TupleDesc getTupleDesc();
+
+    /**
+     * Returns the size, in bytes, of the pages of this file. By default this
+     * is {@link BufferPool#getPageSize}; files that were created with another
+     * page size override it.
+     */
+    public default int getPageSize() {
+        return BufferPool.getPageSize();
+    }
 }
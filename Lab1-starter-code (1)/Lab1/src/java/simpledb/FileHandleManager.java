@@ -0,0 +1,332 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * FileHandleManager keeps a bounded set of open FileChannels, one per table
+ * file, so that DbFiles do not have to open and close the underlying file on
+ * every page access. All reads and writes are positional
+ * (<code>FileChannel.read(ByteBuffer, long)</code> and
+ * <code>FileChannel.write(ByteBuffer, long)</code>), so concurrent readers of
+ * the same file never contend on a shared seek pointer.
+ * <p>
+ * When more than maxOpenFiles files are open, the least recently used handle
+ * is retired. A retired handle that is still in use by another thread is
+ * closed as soon as that thread is done with it.
+ * <p>
+ * Files are opened read-only until something writes to them, so read-only
+ * table files can be scanned. A handle whose channel was closed because a
+ * thread using it was interrupted is replaced on its next use.
+ *
+ * @see Database#getFileHandleManager
+ * @Threadsafe
+ */
+public class FileHandleManager {
+
+    /** Default number of files kept open at the same time. */
+    public static final int DEFAULT_MAX_OPEN_FILES = 64;
+
+    /** An open file together with the number of threads currently using it. */
+    private static class Handle {
+        final RandomAccessFile raf;
+        final FileChannel channel;
+        final boolean writable;
+        int pins = 0;
+        boolean retired = false;
+
+        Handle(RandomAccessFile raf, boolean writable) {
+            this.raf = raf;
+            this.channel = raf.getChannel();
+            this.writable = writable;
+        }
+    }
+
+    private final int maxOpenFiles;
+    // access-ordered, so that the eldest entry is the least recently used one
+    private final LinkedHashMap<File, Handle> handles;
+
+    /**
+     * Creates a FileHandleManager that keeps at most maxOpenFiles files open.
+     *
+     * @param maxOpenFiles maximum number of idle handles kept open.
+     */
+    public FileHandleManager(int maxOpenFiles) {
+        if (maxOpenFiles < 1) {
+            throw new IllegalArgumentException("maxOpenFiles must be positive");
+        }
+        this.maxOpenFiles = maxOpenFiles;
+        this.handles = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Reads bytes from the specified file into dst, starting at the given
+     * file position, until dst is full or the end of the file is reached.
+     *
+     * @param f the file to read from
+     * @param dst the buffer to fill
+     * @param position the file offset of the first byte to read
+     * @return the number of bytes read, or -1 if position is at or past the
+     *   end of the file
+     * @throws IOException if the file can't be opened or read
+     */
+    public int read(File f, ByteBuffer dst, long position) throws IOException {
+        Handle h = pin(f, false, false);
+        try {
+            int total = 0;
+            while (dst.hasRemaining()) {
+                int n = h.channel.read(dst, position + total);
+                if (n < 0) {
+                    return total == 0 ? -1 : total;
+                }
+                total += n;
+            }
+            return total;
+        } finally {
+            unpin(h);
+        }
+    }
+
+    /**
+     * Reads bytes from the specified file into dsts, filling one buffer
+     * after the other, starting at the given file position, with scattering
+     * reads (<code>FileChannel.read(ByteBuffer[])</code>). Reading stops
+     * when the buffers are full or the file ends.
+     *
+     * @return the number of bytes read, or -1 if position is at or past the
+     *   end of the file
+     * @throws IOException if the file can't be opened or read
+     */
+    public long read(File f, ByteBuffer[] dsts, long position) throws IOException {
+        Handle h = pin(f, false, false);
+        try {
+            long remaining = 0;
+            for (ByteBuffer dst : dsts) {
+                remaining += dst.remaining();
+            }
+            // like gathering writes, scattering reads use the channel's
+            // position
+            synchronized (h) {
+                h.channel.position(position);
+                long total = 0;
+                while (total < remaining) {
+                    long n = h.channel.read(dsts);
+                    if (n < 0) {
+                        return total == 0 ? -1 : total;
+                    }
+                    total += n;
+                }
+                return total;
+            }
+        } finally {
+            unpin(h);
+        }
+    }
+
+    /**
+     * Reads exactly buf.length bytes from the specified file, starting at the
+     * given file position.
+     *
+     * @throws EOFException if the file ends before buf is full
+     * @throws IOException if the file can't be opened or read
+     */
+    public void readFully(File f, byte[] buf, long position) throws IOException {
+        int n = read(f, ByteBuffer.wrap(buf), position);
+        if (n < buf.length) {
+            throw new EOFException("Read past end of " + f + " at offset " + position);
+        }
+    }
+
+    /**
+     * Writes all remaining bytes of src to the specified file, starting at the
+     * given file position. The file is created and extended as necessary.
+     *
+     * @throws IOException if the file can't be opened or written
+     */
+    public void write(File f, ByteBuffer src, long position) throws IOException {
+        Handle h = pin(f, true, true);
+        try {
+            long pos = position;
+            while (src.hasRemaining()) {
+                pos += h.channel.write(src, pos);
+            }
+        } finally {
+            unpin(h);
+        }
+    }
+
+    /**
+     * Writes all remaining bytes of srcs, one buffer after the other, to the
+     * specified file starting at the given file position, with gathering
+     * writes (<code>FileChannel.write(ByteBuffer[])</code>). The file is
+     * created and extended as necessary.
+     *
+     * @throws IOException if the file can't be opened or written
+     */
+    public void write(File f, ByteBuffer[] srcs, long position) throws IOException {
+        Handle h = pin(f, true, true);
+        try {
+            long remaining = 0;
+            for (ByteBuffer src : srcs) {
+                remaining += src.remaining();
+            }
+            // gathering writes and scattering reads go to the channel's
+            // position, which nothing else uses, so only they need to
+            // exclude each other
+            synchronized (h) {
+                h.channel.position(position);
+                while (remaining > 0) {
+                    remaining -= h.channel.write(srcs);
+                }
+            }
+        } finally {
+            unpin(h);
+        }
+    }
+
+    /**
+     * Writes buf to the specified file, starting at the given file position.
+     *
+     * @see #write(File, ByteBuffer, long)
+     */
+    public void write(File f, byte[] buf, long position) throws IOException {
+        write(f, ByteBuffer.wrap(buf), position);
+    }
+
+    /**
+     * Maps a region of the specified file into memory, read-only. The mapping
+     * stays valid after the handle is closed, and it sees writes made to the
+     * file through this manager.
+     *
+     * @param f the file to map
+     * @param position the file offset at which the mapped region starts
+     * @param size the size of the mapped region; it must not extend past the
+     *   end of the file
+     * @throws IOException if the file can't be opened or mapped
+     */
+    public MappedByteBuffer map(File f, long position, long size) throws IOException {
+        Handle h = pin(f, false, false);
+        try {
+            return h.channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        } finally {
+            unpin(h);
+        }
+    }
+
+    /**
+     * Truncates the specified file to the given size. Does nothing if the
+     * file is already that size or smaller.
+     *
+     * @throws IOException if the file can't be opened or truncated
+     */
+    public void truncate(File f, long size) throws IOException {
+        Handle h = pin(f, false, true);
+        try {
+            h.channel.truncate(size);
+        } finally {
+            unpin(h);
+        }
+    }
+
+    /**
+     * Forces any buffered writes to the specified file to disk.
+     */
+    public void force(File f) throws IOException {
+        Handle h = pin(f, false, false);
+        try {
+            h.channel.force(false);
+        } finally {
+            unpin(h);
+        }
+    }
+
+    /**
+     * Closes the handle on the specified file, if one is open. Must be called
+     * before a file is deleted or replaced so that later accesses do not go
+     * to the stale file.
+     */
+    public synchronized void close(File f) {
+        Handle h = handles.remove(f.getAbsoluteFile());
+        if (h != null) {
+            retire(h);
+        }
+    }
+
+    /** Closes all open handles. */
+    public synchronized void closeAll() {
+        for (Handle h : handles.values()) {
+            retire(h);
+        }
+        handles.clear();
+    }
+
+    /** @return the number of handles currently open. */
+    public synchronized int numOpenFiles() {
+        return handles.size();
+    }
+
+    /**
+     * Returns an open handle on the specified file, marking it as in use so
+     * that it can't be closed until the matching call to unpin.
+     *
+     * @param create whether the file should be created if it does not exist
+     * @param write whether the handle will be used to modify the file
+     */
+    private synchronized Handle pin(File f, boolean create, boolean write) throws IOException {
+        File key = f.getAbsoluteFile();
+        Handle h = handles.get(key);
+        // an interrupt during a read or write closes the channel for every
+        // thread, and a read-only handle can't be written through; in both
+        // cases open a new handle in place of the old one
+        if (h != null && (!h.channel.isOpen() || (write && !h.writable))) {
+            handles.remove(key);
+            retire(h);
+            h = null;
+        }
+        if (h == null) {
+            if (!create && !key.exists()) {
+                throw new FileNotFoundException(key.toString());
+            }
+            h = new Handle(new RandomAccessFile(key, write ? "rw" : "r"), write);
+            handles.put(key, h);
+            evictIdleHandles();
+        }
+        h.pins++;
+        return h;
+    }
+
+    private synchronized void unpin(Handle h) {
+        h.pins--;
+        if (h.retired && h.pins == 0) {
+            closeQuietly(h);
+        }
+    }
+
+    /** Retires least recently used handles until we are under maxOpenFiles. */
+    private void evictIdleHandles() {
+        Iterator<Handle> it = handles.values().iterator();
+        while (handles.size() > maxOpenFiles && it.hasNext()) {
+            Handle h = it.next();
+            it.remove();
+            retire(h);
+        }
+    }
+
+    private void retire(Handle h) {
+        h.retired = true;
+        if (h.pins == 0) {
+            closeQuietly(h);
+        }
+    }
+
+    private static void closeQuietly(Handle h) {
+        try {
+            h.raf.close();
+        } catch (IOException e) {
+            // Ignore failures closing the file
+        }
+    }
+}
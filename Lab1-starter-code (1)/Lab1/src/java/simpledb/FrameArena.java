@@ -0,0 +1,277 @@
+package simpledb;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * FrameArena holds the bytes of pages outside the Java heap, so that a large
+ * BufferPool does not give the garbage collector gigabytes of page contents
+ * to scan and copy. A page keeps its bytes in a frame, a ByteBuffer view of
+ * a slice of a direct buffer, and reads and writes them in place; the page
+ * object itself is a handful of fields.
+ * <p>
+ * Direct memory is reserved in slabs of up to {@link #SLAB_BYTES}, up to the
+ * capacity of the arena, and carved into frames of whatever page sizes are
+ * asked for. Pages are handed out freely (to iterators, to the log, as
+ * before images), and the BufferPool does not know when the last of them
+ * is done with a page it evicted, so it is the garbage collector that
+ * decides when the bytes of a page are dead: a frame goes back to the arena
+ * once the page that owns it is no longer reachable, and is reused for the
+ * next page of the same size. Before falling back to the heap, an
+ * allocation that finds no free frame checks every stripe for frames whose
+ * owners died. Once the capacity is used up and no frame of the right size
+ * is free, frames are allocated on the heap instead, so a full arena
+ * degrades to on-heap pages rather than failing; a warning is printed the
+ * first time.
+ * <p>
+ * The arena is split into stripes, each with its own share of the capacity
+ * and its own lock, so threads reading pages do not all contend for one
+ * lock. A thread allocates from the stripe its id picks, and from the
+ * others once that one is full.
+ * <p>
+ * An arena with a capacity of 0 allocates every frame on the heap. The JVM
+ * must be allowed at least the capacity of the arena in direct memory
+ * (-XX:MaxDirectMemorySize).
+ *
+ * @see BufferPool#getFrameArena
+ * @Threadsafe
+ */
+public class FrameArena {
+
+    /** Size, in bytes, of the direct buffers frames are carved from. */
+    public static final int SLAB_BYTES = 64 * 1024 * 1024;
+
+    /** The least capacity, in bytes, of a stripe of an arena. */
+    static final long MIN_STRIPE_BYTES = 16 * 1024 * 1024;
+
+    private final long capacity;
+    private final Stripe[] stripes;
+    // whether the heap fallback has been reported
+    private volatile boolean warned = false;
+
+    /** A direct frame, enqueued once its owner is no longer reachable. */
+    private static class FrameRef extends PhantomReference<Object> {
+        final ByteBuffer frame;
+
+        FrameRef(Object owner, ByteBuffer frame, ReferenceQueue<Object> q) {
+            super(owner, q);
+            this.frame = frame;
+        }
+    }
+
+    /** A share of the arena's capacity, with its own slabs and free frames. */
+    private static class Stripe {
+        private final long capacity;
+        // bytes of direct memory reserved so far
+        private long reserved = 0;
+        // the slab frames are currently carved from, positioned at its free space
+        private ByteBuffer slab = null;
+        // frames whose owners died, by size
+        private final HashMap<Integer, ArrayDeque<ByteBuffer>> free = new HashMap<>();
+        // the direct frames in use, kept reachable until their owners die
+        private final HashSet<FrameRef> live = new HashSet<>();
+        private final ReferenceQueue<Object> dead = new ReferenceQueue<>();
+        private long liveBytes = 0;
+        private long heapFrames = 0;
+
+        Stripe(long capacity) {
+            this.capacity = capacity;
+        }
+
+        /**
+         * @return a direct frame of size bytes for owner, or null if the
+         *   stripe has no room for one
+         */
+        synchronized ByteBuffer allocate(Object owner, int size) {
+            reclaim();
+            ArrayDeque<ByteBuffer> q = free.get(size);
+            ByteBuffer frame = q == null ? null : q.poll();
+            if (frame == null) {
+                frame = carve(size);
+            }
+            if (frame == null) {
+                return null;
+            }
+            frame.clear();
+            live.add(new FrameRef(owner, frame, dead));
+            liveBytes += size;
+            return frame;
+        }
+
+        /**
+         * Cuts a new frame of size bytes from the current slab, reserving a
+         * new slab if it is too short.
+         *
+         * @return the frame, or null if the capacity is used up
+         */
+        private ByteBuffer carve(int size) {
+            if (slab == null || slab.remaining() < size) {
+                long n = Math.min(SLAB_BYTES, capacity - reserved);
+                if (n < size) {
+                    return null;
+                }
+                try {
+                    slab = ByteBuffer.allocateDirect((int) n);
+                } catch (OutOfMemoryError e) {
+                    // the JVM allows less direct memory than the capacity; stop
+                    // reserving and keep the remaining frames on the heap
+                    reserved = capacity;
+                    return null;
+                }
+                reserved += n;
+            }
+            slab.limit(slab.position() + size);
+            ByteBuffer frame = slab.slice();
+            slab.position(slab.limit());
+            slab.limit(slab.capacity());
+            return frame;
+        }
+
+        /** Moves the frames of owners that died to the free lists. */
+        synchronized void reclaim() {
+            FrameRef ref;
+            while ((ref = (FrameRef) dead.poll()) != null) {
+                if (live.remove(ref)) {
+                    liveBytes -= ref.frame.capacity();
+                    free.computeIfAbsent(ref.frame.capacity(), k -> new ArrayDeque<>()).add(ref.frame);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates an arena that reserves up to capacity bytes of direct memory,
+     * in a stripe per processor, each of at least {@link #MIN_STRIPE_BYTES}.
+     *
+     * @param capacity the capacity in bytes, or 0 to keep frames on the heap
+     */
+    public FrameArena(long capacity) {
+        this(capacity, (int) Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+                capacity / MIN_STRIPE_BYTES)));
+    }
+
+    /**
+     * Creates an arena that reserves up to capacity bytes of direct memory,
+     * split evenly among numStripes stripes.
+     *
+     * @param capacity the capacity in bytes, or 0 to keep frames on the heap
+     * @param numStripes the number of stripes, at least 1
+     */
+    public FrameArena(long capacity, int numStripes) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+        if (numStripes < 1) {
+            throw new IllegalArgumentException("an arena needs at least one stripe");
+        }
+        this.capacity = capacity;
+        this.stripes = new Stripe[numStripes];
+        for (int i = 0; i < numStripes; i++) {
+            stripes[i] = new Stripe(capacity / numStripes + (i < capacity % numStripes ? 1 : 0));
+        }
+    }
+
+    /** @return the number of bytes of direct memory the arena may reserve. */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /** @return the number of bytes of direct memory reserved so far. */
+    public long getReservedBytes() {
+        long n = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                n += stripe.reserved;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return the number of bytes of direct memory in frames whose owners
+     *   have not been found dead yet
+     */
+    public long getLiveBytes() {
+        long n = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.reclaim();
+                n += stripe.liveBytes;
+            }
+        }
+        return n;
+    }
+
+    /** @return the number of frames allocated on the heap so far. */
+    public long getHeapFrames() {
+        long n = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                n += stripe.heapFrames;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns a frame of size bytes holding a copy of the first size bytes
+     * of data, which stays in use for as long as owner is reachable.
+     *
+     * @param owner the object, typically a page, whose lifetime bounds the
+     *   use of the frame; it must not be reachable from the frame
+     * @param data the bytes to copy; zeros are used past its end
+     */
+    public ByteBuffer copyOf(Object owner, byte[] data, int size) {
+        ByteBuffer frame = allocate(owner, size);
+        int n = Math.min(size, data.length);
+        frame.put(data, 0, n);
+        while (frame.hasRemaining()) {
+            frame.put((byte) 0);
+        }
+        frame.clear();
+        return frame;
+    }
+
+    /**
+     * Returns a frame of size bytes, with unspecified contents, which stays
+     * in use for as long as owner is reachable.
+     *
+     * @see #copyOf
+     */
+    public ByteBuffer allocate(Object owner, int size) {
+        int first = (int) (Thread.currentThread().getId() % stripes.length);
+        for (int i = 0; i < stripes.length; i++) {
+            ByteBuffer frame = stripes[(first + i) % stripes.length].allocate(owner, size);
+            if (frame != null) {
+                return frame;
+            }
+        }
+        Stripe stripe = stripes[first];
+        synchronized (stripe) {
+            stripe.heapFrames++;
+        }
+        if (capacity > 0 && !warned) {
+            warned = true;
+            System.err.println("FrameArena: all " + capacity + " bytes of direct memory in use;"
+                    + " allocating page frames on the heap");
+        }
+        return ByteBuffer.allocate(size);
+    }
+
+    /** @return a new array holding length bytes of frame, starting at offset. */
+    static byte[] copyOfRange(ByteBuffer frame, int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = frame.duplicate();
+        view.clear();
+        view.position(offset);
+        view.get(bytes);
+        return bytes;
+    }
+
+    /** @return a new array holding all the bytes of frame. */
+    static byte[] toArray(ByteBuffer frame) {
+        return copyOfRange(frame, 0, frame.capacity());
+    }
+}
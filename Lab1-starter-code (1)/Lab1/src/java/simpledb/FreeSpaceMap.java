@@ -0,0 +1,82 @@
+package simpledb;
+
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap keeps one bit per page of a HeapFile recording whether the
+ * page may have an empty slot, so that inserts can go straight to a page
+ * with room instead of walking the whole file through the BufferPool.
+ * <p>
+ * The map is only a hint: it is kept in memory, rebuilt from the page
+ * headers on disk when the file is first opened for an insert, and may be
+ * out of date for pages modified by transactions that later aborted.
+ * Callers must check the page itself and correct the map when it is wrong.
+ * Pages the map has never seen (e.g. appended to the file by another
+ * writer) are assumed to have room.
+ *
+ * @see HeapFile#insertTuple
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    // bit i is set if page i may have an empty slot
+    private final BitSet pagesWithRoom = new BitSet();
+    // number of pages of the file the map knows about
+    private int numPages = 0;
+
+    /**
+     * Returns the first page at or after fromPage that may have an empty
+     * slot.
+     *
+     * @param fromPage the page number to start searching at
+     * @param filePages the current number of pages in the file; pages past
+     *   the end of the map are assumed to have room
+     * @return a page number, or -1 if no page in [fromPage, filePages) may
+     *   have room
+     */
+    public synchronized int nextPageWithRoom(int fromPage, int filePages) {
+        grow(filePages);
+        int pageNo = pagesWithRoom.nextSetBit(fromPage);
+        if (pageNo < 0 || pageNo >= filePages) {
+            return -1;
+        }
+        return pageNo;
+    }
+
+    /**
+     * Records whether the specified page has an empty slot.
+     */
+    public synchronized void setHasRoom(int pageNo, boolean hasRoom) {
+        grow(pageNo + 1);
+        pagesWithRoom.set(pageNo, hasRoom);
+    }
+
+    /** @return true if the specified page may have an empty slot. */
+    public synchronized boolean hasRoom(int pageNo) {
+        return pageNo >= numPages || pagesWithRoom.get(pageNo);
+    }
+
+    /** @return the number of pages that may have an empty slot. */
+    public synchronized int numPagesWithRoom() {
+        return pagesWithRoom.cardinality();
+    }
+
+    /**
+     * Forgets the pages at and after numPages, after the file has been
+     * truncated to numPages pages.
+     */
+    public synchronized void truncate(int numPages) {
+        if (numPages < this.numPages) {
+            pagesWithRoom.clear(numPages, this.numPages);
+            this.numPages = numPages;
+        }
+    }
+
+    /** Extends the map to filePages pages, assuming new pages have room. */
+    private void grow(int filePages) {
+        if (filePages > numPages) {
+            pagesWithRoom.set(numPages, filePages);
+            numPages = filePages;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -8,7 +9,8 @@ import java.util.*;
  * in no particular order. Tuples are stored on pages, each of which is a fixed
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
- * constructor.
+ * constructor. Subclasses may store tuples in a different page format by
+ * overriding {@link #createPage} and {@link #pageHasRoomOnDisk}.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
@@ -21,6 +23,35 @@ public class HeapFile implements DbFile {
     // The schema of the tuples within this file.
     private final TupleDesc td;
 
+    // The size of the pages of this file, or 0 to use the BufferPool's
+    // page size.
+    private final int pageSize;
+
+    /** Default number of pages a sequential scan reads ahead of itself. */
+    public static final int DEFAULT_READ_AHEAD_PAGES = 32;
+
+    // Number of pages iterators read ahead; 0 disables read-ahead.
+    private static volatile int readAheadPages = DEFAULT_READ_AHEAD_PAGES;
+
+    // Which pages may have an empty slot; built on first use.
+    private FreeSpaceMap freeSpaceMap = null;
+
+    // Per-page bounds of the INT_TYPE columns; loaded on first use.
+    private volatile ZoneMap zoneMap = null;
+
+    // Per-page Bloom filters on selected columns, if the table has them;
+    // loaded on first use.
+    private BloomFilterMap bloomFilters = null;
+    private boolean bloomFiltersLoaded = false;
+
+    // Pages appended by bulkInsert for transactions that have not completed.
+    private final Map<TransactionId, BitSet> bulkInsertedPages = new HashMap<>();
+
+    // The number of open iterators over this file, or -1 while compact
+    // moves tuples; guarded by scanLatch.
+    private final Object scanLatch = new Object();
+    private int openScans = 0;
+
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -29,8 +60,36 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, 0);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are
+     * pageSize bytes long.
+     *
+     * @param pageSize the size of the pages of the file, in bytes, or 0 to
+     *            use {@link BufferPool#getPageSize}
+     */
+    public HeapFile(File f, TupleDesc td, int pageSize) {
+        if (pageSize < 0 || (pageSize > 0 && HeapPage.getNumTuples(td, pageSize) == 0)) {
+            throw new IllegalArgumentException("page size " + pageSize + " can't hold a tuple");
+        }
         this.file = f;
         this.td = td;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Sets the number of pages that iterators read ahead once they detect a
+     * sequential scan. Values of 0 or less disable read-ahead.
+     */
+    public static void setReadAheadPages(int pages) {
+        readAheadPages = pages;
+    }
+
+    /** @return the number of pages that iterators read ahead. */
+    public static int getReadAheadPages() {
+        return readAheadPages;
     }
 
     /**
@@ -64,105 +123,695 @@ public class HeapFile implements DbFile {
         return td;
     }
 
+    /**
+     * Returns the size of the pages of this file, which is the BufferPool's
+     * page size unless one was given to the constructor.
+     */
+    public int getPageSize() {
+        return pageSize > 0 ? pageSize : BufferPool.getPageSize();
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // Reads a page from the associated file based on the given PageId and returns a HeapPage.
         // Returns null if an IOException occurs.
         try {
-            RandomAccessFile raf = new RandomAccessFile(file, "r");
-            int pageSize = BufferPool.getPageSize();
+            int pageSize = getPageSize();
             byte[] data = new byte[pageSize];
             long offset = (long) pid.getPageNumber() * pageSize;
-            raf.seek(offset);
-            raf.readFully(data);
-            raf.close();
-            return new HeapPage((HeapPageId) pid, data);
+            Database.getFileHandleManager().readFully(file, data, offset);
+            return createPage((HeapPageId) pid, data);
         } catch (IOException e) {
             e.printStackTrace();
         }
         return null;
     }
 
+    /** Most pages read by a single scattering read in readPages. */
+    static final int MAX_READ_PAGES = 256;
+
+    /**
+     * Whether pages sit at their offsets in the file, so that readPages may
+     * read them there and build them with {@link #createPage}. Subclasses
+     * that only change the page format return true; by default, a subclass
+     * is assumed to read pages its own way and readPages calls its
+     * {@link #readPage} for each page.
+     */
+    protected boolean readsPagesInPlace() {
+        return getClass() == HeapFile.class;
+    }
+
+    /**
+     * Reads the specified pages in page number order, coalescing each run
+     * of adjacent pages into a single scattering read of up to
+     * {@link #MAX_READ_PAGES} pages, unless the pages are not read in place
+     * (see {@link #readsPagesInPlace}): then they are read one at a time.
+     */
+    @Override
+    public List<Page> readPages(List<PageId> pids) {
+        Page[] pages = new Page[pids.size()];
+        if (!readsPagesInPlace()) {
+            for (int i = 0; i < pages.length; i++) {
+                pages[i] = readPage(pids.get(i));
+            }
+            return Arrays.asList(pages);
+        }
+        // indexes into pids, by page number
+        Integer[] order = new Integer[pids.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingInt(i -> pids.get(i).getPageNumber()));
+        int pageSize = getPageSize();
+        int start = 0;
+        while (start < order.length) {
+            int first = pids.get(order[start]).getPageNumber();
+            int end = start + 1;
+            while (end < order.length && end - start < MAX_READ_PAGES
+                    && pids.get(order[end]).getPageNumber() == first + (end - start)) {
+                end++;
+            }
+            ByteBuffer[] run = new ByteBuffer[end - start];
+            for (int i = 0; i < run.length; i++) {
+                run[i] = ByteBuffer.allocate(pageSize);
+            }
+            try {
+                Database.getFileHandleManager().read(file, run, (long) first * pageSize);
+                // pages past the end of the file are left null
+                for (int i = 0; i < run.length && !run[i].hasRemaining(); i++) {
+                    int j = order[start + i];
+                    pages[j] = createPage((HeapPageId) pids.get(j), run[i].array());
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            start = end;
+        }
+        return Arrays.asList(pages);
+    }
+
+    /**
+     * Creates a page of this file from its on-disk bytes. Passing the
+     * result of {@link HeapPage#createEmptyPageData} must create an empty
+     * page.
+     *
+     * @param pid the id of the page
+     * @param data the bytes of the page, as read from disk
+     * @return a HeapPage; subclasses return their own page format
+     * @throws IOException if the data is not a valid page
+     */
+    protected TuplePage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // Writes the specified page to disk
         try {
-            RandomAccessFile raf = new RandomAccessFile(file, "rw");
-            int pageSize = BufferPool.getPageSize();
+            flushZoneMap();
+            int pageSize = getPageSize();
             byte[] data = page.getPageData();
             long offset = (long) page.getId().getPageNumber() * pageSize;
-            raf.seek(offset);
-            raf.write(data);
-            raf.close();
+            Database.getFileHandleManager().write(file, data, offset);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /** Most pages written by a single gathering write in writePages. */
+    static final int MAX_WRITE_PAGES = 256;
+
+    /**
+     * Writes the specified pages in page number order, coalescing each run
+     * of adjacent pages into a single gathering write of up to
+     * {@link #MAX_WRITE_PAGES} pages, and then forces the file to disk
+     * once.
+     */
+    @Override
+    public void writePages(List<Page> pages) throws IOException {
+        if (pages.isEmpty()) {
+            return;
+        }
+        flushZoneMap();
+        List<Page> sorted = new ArrayList<>(pages);
+        sorted.sort(Comparator.comparingInt(p -> p.getId().getPageNumber()));
+        FileHandleManager handles = Database.getFileHandleManager();
+        int start = 0;
+        while (start < sorted.size()) {
+            int first = sorted.get(start).getId().getPageNumber();
+            int end = start + 1;
+            while (end < sorted.size() && end - start < MAX_WRITE_PAGES
+                    && sorted.get(end).getId().getPageNumber() == first + (end - start)) {
+                end++;
+            }
+            ByteBuffer[] run = new ByteBuffer[end - start];
+            for (int i = start; i < end; i++) {
+                run[i - start] = ByteBuffer.wrap(sorted.get(i).getPageData());
+            }
+            handles.write(file, run, (long) first * getPageSize());
+            start = end;
+        }
+        handles.force(file);
+    }
+
     /**
      * Returns the number of pages in this HeapFile.
      */
     public int numPages() {
         // Calculates and returns the number of pages in the associated file.
         long fileSize = file.length();
-        int pageSize = BufferPool.getPageSize();
+        int pageSize = getPageSize();
         return (int) Math.ceil((double) fileSize / pageSize);
     }
 
+    /**
+     * Returns the free-space map of this file, building it from the page
+     * headers on disk the first time it is needed. Only the header of each
+     * page is read, and the BufferPool is not involved.
+     *
+     * @return the map of pages that may have an empty slot
+     */
+    public synchronized FreeSpaceMap getFreeSpaceMap() {
+        if (freeSpaceMap == null) {
+            FreeSpaceMap fsm = new FreeSpaceMap();
+            int n = numPages();
+            for (int i = 0; i < n; i++) {
+                try {
+                    fsm.setHasRoom(i, pageHasRoomOnDisk(i));
+                } catch (IOException e) {
+                    // leave the page marked as having room; inserts check it
+                    fsm.setHasRoom(i, true);
+                }
+            }
+            freeSpaceMap = fsm;
+        }
+        return freeSpaceMap;
+    }
+
+    /**
+     * Returns the zone map of this file, loading it from its sidecar file the
+     * first time it is needed. No pages are read: the zones of pages the
+     * sidecar does not know yet are completed by scans that read them. If
+     * the sidecar has more entries than the file has pages, it belongs to an
+     * older version of the file and is discarded.
+     *
+     * @return the zone map of this file
+     */
+    public synchronized ZoneMap getZoneMap() {
+        if (zoneMap == null) {
+            File zmFile = ZoneMap.getZoneMapFile(file);
+            ZoneMap zm = null;
+            try {
+                zm = ZoneMap.load(td, zmFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            if (zm == null || zm.numPages() > numPages()) {
+                Database.getFileHandleManager().close(zmFile);
+                zmFile.delete();
+                zm = new ZoneMap(td, zmFile);
+            }
+            zoneMap = zm;
+        }
+        return zoneMap;
+    }
+
+    /**
+     * Writes the changes to the zone map, if it has been loaded, to its
+     * sidecar file. Called before pages are written, so that the zones on
+     * disk cover the pages on disk, and at checkpoints.
+     *
+     * @see ZoneMap#flush
+     */
+    public void flushZoneMap() throws IOException {
+        ZoneMap zm = zoneMap;
+        if (zm != null) {
+            zm.flush();
+        }
+    }
+
+    /**
+     * Returns the Bloom filters of this file, loading them from their
+     * sidecar file the first time they are needed. If the sidecar does not
+     * cover exactly the pages of the file, or can't be read, it is out of
+     * date and is discarded.
+     *
+     * @return the Bloom filters of this file, or null if it has none
+     * @see HeapFileEncoder#buildBloomFilters
+     */
+    public synchronized BloomFilterMap getBloomFilters() {
+        if (!bloomFiltersLoaded) {
+            File bfFile = BloomFilterMap.getBloomFilterFile(file);
+            BloomFilterMap bf = null;
+            boolean valid = true;
+            try {
+                bf = BloomFilterMap.load(td, bfFile);
+                valid = bf == null || bf.numPages() == numPages();
+            } catch (IOException e) {
+                e.printStackTrace();
+                valid = false;
+            }
+            if (!valid) {
+                Database.getFileHandleManager().close(bfFile);
+                bfFile.delete();
+                bf = null;
+            }
+            bloomFilters = bf;
+            bloomFiltersLoaded = true;
+        }
+        return bloomFilters;
+    }
+
+    /** Replaces the Bloom filters of this file with newly built ones. */
+    synchronized void setBloomFilters(BloomFilterMap bf) {
+        bloomFilters = bf;
+        bloomFiltersLoaded = true;
+    }
+
+    /**
+     * Checks whether the specified page, as stored on disk, has room for
+     * another tuple, reading as little of the page as possible.
+     *
+     * @see TuplePage#hasRoom
+     * @throws IOException if the page can't be read
+     */
+    protected boolean pageHasRoomOnDisk(int pageNo) throws IOException {
+        int pageSize = getPageSize();
+        byte[] header = new byte[HeapPage.getHeaderSize(td, pageSize)];
+        Database.getFileHandleManager().readFully(file, header,
+                (long) pageNo * pageSize);
+        return HeapPage.hasEmptySlot(header, HeapPage.getNumTuples(td, pageSize));
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-        // Inserts the specified tuple into the file.
+        // Inserts the specified tuple into the file, on the first page the
+        // free-space map says has room.
         ArrayList<Page> affectedPages = new ArrayList<>();
-        boolean pageFound = false;
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        ZoneMap zm = getZoneMap();
+        BloomFilterMap bf = getBloomFilters();
 
-        for (int i = 0; i < numPages(); i++) {
+        int i = fsm.nextPageWithRoom(0, numPages());
+        while (i != -1) {
             HeapPageId pid = new HeapPageId(getId(), i);
-            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-            if (page.getNumEmptySlots() > 0) {
+            TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            if (page.hasRoomFor(t)) {
                 page.insertTuple(t);
+                fsm.setHasRoom(i, page.hasRoom());
+                zm.addTuple(i, t);
+                if (bf != null) {
+                    bf.addTuple(i, t);
+                }
                 affectedPages.add(page);
-                pageFound = true;
-                break;
+                return affectedPages;
             }
+            // the map was out of date for this page
+            fsm.setHasRoom(i, false);
+            i = fsm.nextPageWithRoom(i + 1, numPages());
         }
-        if (!pageFound) {
-            // Create a new page and insert the tuple
+
+        // Create a new page and insert the tuple; appending is serialized
+        // with bulkInsert, which appends pages too
+        TuplePage newPage;
+        synchronized (this) {
             HeapPageId newPid = new HeapPageId(getId(), numPages());
-            HeapPage newPage = new HeapPage(newPid, HeapPage.createEmptyPageData());
+            newPage = createPage(newPid, HeapPage.createEmptyPageData(getPageSize()));
             newPage.insertTuple(t);
+            zm.addTuple(newPid.getPageNumber(), t);
             writePage(newPage);
-            affectedPages.add(newPage);
         }
+        int newPageNo = newPage.getId().getPageNumber();
+        fsm.setHasRoom(newPageNo, newPage.hasRoom());
+        if (bf != null) {
+            bf.addTuple(newPageNo, t);
+        }
+        affectedPages.add(newPage);
         return affectedPages;
     }
 
+    /** Number of pages bulkInsert fills before logging and writing them. */
+    static final int BULK_INSERT_BATCH_PAGES = 64;
+
+    /**
+     * Appends the specified tuples to the end of the file on behalf of
+     * transaction tid, without going through the BufferPool. Tuples are
+     * packed onto fresh pages in a private buffer; each batch of full pages
+     * is logged as a whole new page (with an empty before image), the log
+     * is forced, and the pages are written straight to the file. The cost
+     * is therefore per page rather than per tuple, which makes this the way
+     * to load large amounts of data into an existing table.
+     * <p>
+     * Existing pages are never touched, even if they have room. The pages
+     * are on disk before tid commits, so if it aborts, the BufferPool has
+     * them emptied again and the file truncated (see
+     * {@link #bulkInsertComplete}); until tid completes, the free-space map
+     * does not offer their room to other inserts. The zone map and Bloom
+     * filters are kept up to date. Other inserts that append pages wait
+     * until the current batch is written.
+     *
+     * @param tid the transaction appending the tuples
+     * @param tuples the tuples to append; their RecordIds are set
+     * @return the number of tuples appended
+     * @throws DbException if a tuple does not match the schema of the file
+     *   or does not fit on an empty page
+     */
+    public long bulkInsert(TransactionId tid, Iterator<Tuple> tuples)
+            throws DbException, IOException {
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        ZoneMap zm = getZoneMap();
+        BloomFilterMap bf = getBloomFilters();
+        long count = 0;
+        List<TuplePage> batch = new ArrayList<>(BULK_INSERT_BATCH_PAGES);
+        // a tuple that did not fit in the previous batch
+        Tuple next = null;
+
+        while (next != null || tuples.hasNext()) {
+            synchronized (this) {
+                int pageNo = numPages();
+                TuplePage page = null;
+                while (next != null || tuples.hasNext()) {
+                    Tuple t = next != null ? next : tuples.next();
+                    next = null;
+                    if (page == null || !page.hasRoomFor(t)) {
+                        if (batch.size() == BULK_INSERT_BATCH_PAGES) {
+                            next = t;
+                            break;
+                        }
+                        page = createPage(new HeapPageId(getId(), pageNo + batch.size()),
+                                HeapPage.createEmptyPageData(getPageSize()));
+                        batch.add(page);
+                        if (!page.hasRoomFor(t)) {
+                            throw new DbException("tuple does not fit on a page: " + t);
+                        }
+                    }
+                    page.insertTuple(t);
+                    if (bf != null) {
+                        bf.add(page.getId().getPageNumber(), t);
+                    }
+                    count++;
+                }
+
+                // write-ahead: log every page, force the log, then write
+                for (TuplePage p : batch) {
+                    Database.getLogFile().logWrite(tid, p.getBeforeImage(), p);
+                }
+                Database.getLogFile().force();
+                for (TuplePage p : batch) {
+                    zm.completePage(p.getId().getPageNumber(), p);
+                    // keep other inserts off the pages before the file
+                    // grows to hold them
+                    fsm.setHasRoom(p.getId().getPageNumber(), false);
+                }
+                for (TuplePage p : batch) {
+                    writePage(p);
+                }
+                BitSet appended = bulkInsertedPages.computeIfAbsent(tid, t -> new BitSet());
+                for (TuplePage p : batch) {
+                    appended.set(p.getId().getPageNumber());
+                }
+            }
+            Database.getBufferPool().bulkInserted(tid, this);
+            if (bf != null) {
+                for (TuplePage p : batch) {
+                    bf.writePage(p.getId().getPageNumber());
+                }
+            }
+            batch.clear();
+        }
+        return count;
+    }
+
+    /**
+     * Called by the BufferPool when a transaction that appended pages with
+     * {@link #bulkInsert} completes. On commit, the room left on the pages
+     * is offered to other inserts. On abort, the pages are overwritten with
+     * empty pages and dropped from the BufferPool, and the file is
+     * truncated after its last page that is still in use.
+     *
+     * @param tid the completing transaction
+     * @param commit whether tid committed
+     */
+    void bulkInsertComplete(TransactionId tid, boolean commit) throws IOException {
+        BitSet pages;
+        synchronized (this) {
+            pages = bulkInsertedPages.remove(tid);
+        }
+        if (pages == null) {
+            return;
+        }
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        BufferPool bp = Database.getBufferPool();
+        byte[] empty = HeapPage.createEmptyPageData(getPageSize());
+        for (int i = pages.nextSetBit(0); i >= 0; i = pages.nextSetBit(i + 1)) {
+            if (!commit) {
+                HeapPageId pid = new HeapPageId(getId(), i);
+                bp.discardPage(pid);
+                writePage(createPage(pid, empty));
+            }
+            fsm.setHasRoom(i, true);
+        }
+        if (!commit) {
+            truncateEmptyPages();
+        }
+    }
+
+    /**
+     * Moves the tuples on up to maxPages pages at the end of the file into
+     * empty slots of earlier pages, on behalf of transaction tid, so that
+     * the end of the file can be truncated once tid commits. Works from the
+     * last page backwards, and stops at the first tuple that has no room
+     * on an earlier page. Moved tuples get new RecordIds; the pages are
+     * modified through the BufferPool, like any other delete and insert.
+     * <p>
+     * There is no lock manager, so pages another transaction has dirtied
+     * are left alone: tid would take over their uncommitted changes, and
+     * write them when it commits. Compaction stops at such a source page
+     * and skips such target pages. Tuples are only moved while no iterator
+     * over the file is open, since a scan between the source and target
+     * pages would miss or repeat them; iterators opened meanwhile wait
+     * until compact returns.
+     *
+     * @param tid the transaction moving the tuples
+     * @param maxPages the maximum number of pages to empty
+     * @return the number of tuples moved, or -1 if nothing was tried
+     *   because iterators over the file are open
+     * @see #truncateEmptyPages
+     * @see Vacuum
+     */
+    public int compact(TransactionId tid, int maxPages)
+            throws DbException, IOException, TransactionAbortedException {
+        synchronized (scanLatch) {
+            if (openScans != 0) {
+                return -1;
+            }
+            openScans = -1;
+        }
+        try {
+            return moveTuples(tid, maxPages);
+        } finally {
+            synchronized (scanLatch) {
+                openScans = 0;
+                scanLatch.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return true if the specified page has uncommitted changes of a
+     *   transaction other than tid
+     */
+    private static boolean dirtiedByOther(Page page, TransactionId tid) {
+        TransactionId dirtier = page.isDirty();
+        return dirtier != null && !dirtier.equals(tid);
+    }
+
+    /** Does the work of {@link #compact}, once scans are shut out. */
+    private int moveTuples(TransactionId tid, int maxPages)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        ZoneMap zm = getZoneMap();
+        BloomFilterMap bf = getBloomFilters();
+        int moved = 0;
+        int last = numPages() - 1;
+        for (int n = 0; n < maxPages && last > 0; n++, last--) {
+            HeapPageId sourcePid = new HeapPageId(getId(), last);
+            TuplePage source = (TuplePage) bp.getPage(tid, sourcePid, Permissions.READ_WRITE);
+            if (dirtiedByOther(source, tid)) {
+                return moved;
+            }
+            List<Tuple> tuples = new ArrayList<>();
+            Iterator<Tuple> it = source.iterator();
+            while (it.hasNext()) {
+                tuples.add(it.next());
+            }
+
+            int target = fsm.nextPageWithRoom(0, last);
+            for (Tuple t : tuples) {
+                TuplePage page = null;
+                while (target != -1) {
+                    page = (TuplePage) bp.getPage(tid, new HeapPageId(getId(), target),
+                            Permissions.READ_WRITE);
+                    if (dirtiedByOther(page, tid)) {
+                        target = fsm.nextPageWithRoom(target + 1, last);
+                        continue;
+                    }
+                    if (page.hasRoomFor(t)) {
+                        break;
+                    }
+                    // the map was out of date for this page
+                    fsm.setHasRoom(target, false);
+                    target = fsm.nextPageWithRoom(target + 1, last);
+                }
+                if (target == -1) {
+                    // there is no room left before this page
+                    return moved;
+                }
+
+                Tuple copy = new Tuple(td);
+                for (int i = 0; i < td.numFields(); i++) {
+                    copy.setField(i, t.getField(i));
+                }
+                // each page is cached dirty as soon as it changes: fetching
+                // the next target may evict a clean page, source included,
+                // and a change made to an evicted page would be lost
+                page.insertTuple(copy);
+                bp.markDirty(tid, page);
+                source.deleteTuple(t);
+                bp.markDirty(tid, source);
+                fsm.setHasRoom(target, page.hasRoom());
+                fsm.setHasRoom(last, true);
+                zm.addTuple(target, copy);
+                if (bf != null) {
+                    bf.addTuple(target, copy);
+                }
+                moved++;
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Truncates the file after its last page that holds a tuple, or that
+     * has uncommitted changes in the BufferPool that are not on disk yet;
+     * the first page is always kept. Truncated pages are discarded from the
+     * BufferPool, and the free-space map, zone map and Bloom filters are
+     * truncated with the file.
+     *
+     * @return the number of pages removed
+     * @see #compact
+     */
+    public int truncateEmptyPages() throws IOException {
+        BufferPool bp = Database.getBufferPool();
+        // lock order: the BufferPool, then the file (see LogFile)
+        synchronized (bp) {
+            synchronized (this) {
+                int n = numPages();
+                int keep = n;
+                while (keep > 1) {
+                    HeapPageId pid = new HeapPageId(getId(), keep - 1);
+                    Page cached = bp.getCachedPage(pid);
+                    // changes of committed transactions the page cleaner
+                    // has yet to write are logged, so they need not stop us
+                    if (cached != null && cached.isDirty() != null
+                            && !bp.isCommitted(cached.isDirty())) {
+                        break;
+                    }
+                    TuplePage page = (TuplePage) (cached != null ? cached : readPage(pid));
+                    if (page == null || page.iterator().hasNext()) {
+                        break;
+                    }
+                    keep--;
+                }
+                if (keep == n) {
+                    return 0;
+                }
+
+                for (int i = keep; i < n; i++) {
+                    bp.discardPage(new HeapPageId(getId(), i));
+                }
+                truncateFile(keep);
+                getFreeSpaceMap().truncate(keep);
+                getZoneMap().truncate(keep);
+                BloomFilterMap bf = getBloomFilters();
+                if (bf != null) {
+                    bf.truncate(keep);
+                }
+                return n - keep;
+            }
+        }
+    }
+
+    /**
+     * Truncates the file to its first numPages pages.
+     *
+     * @throws IOException if the file can't be truncated
+     */
+    protected void truncateFile(int numPages) throws IOException {
+        Database.getFileHandleManager().truncate(file, (long) numPages * getPageSize());
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         // Deletes the specified tuple from the file.
         ArrayList<Page> affectedPages = new ArrayList<>();
         HeapPageId pid = (HeapPageId) t.getRecordId().getPageId();
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
         page.deleteTuple(t);
+        getFreeSpaceMap().setHasRoom(pid.getPageNumber(), true);
+        // the zone map and Bloom filters are left alone: the delete may
+        // still be rolled back
         affectedPages.add(page);
         return affectedPages;
     }
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
-        // Returns an iterator over all tuples in the file.
+        return iterator(tid, Collections.<Predicate>emptyList());
+    }
+
+    /**
+     * Returns an iterator over the tuples in the file that satisfy all of
+     * the specified predicates. Pages the zone map or the Bloom filters
+     * rule out are never fetched from the BufferPool, and the first
+     * predicate is evaluated on each page before tuples are materialized.
+     *
+     * @param tid the transaction the scan runs as a part of
+     * @param predicates the predicates tuples must satisfy; may be empty
+     * @see ZoneMap
+     * @see BloomFilterMap
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> predicates) {
+        // Returns an iterator over the matching tuples in the file.
+        final ZoneMap zones = predicates.isEmpty() ? null : getZoneMap();
+        final BloomFilterMap blooms = predicates.isEmpty() ? null : getBloomFilters();
         return new DbFileIterator() {
             // Current page index to keep track of the iterator's position.
             private int currentPageIndex = 0;
             // Iterator over tuples in the current page.
             private Iterator<Tuple> currentIterator = null;
+            // Pages before this index have already been read ahead.
+            private int readAheadUpTo = 0;
+            // The ring the pages of a large file are read through, so that
+            // the scan does not flush the BufferPool; null for small files.
+            private BufferRing ring = null;
+            // Whether this iterator is counted in openScans.
+            private boolean counted = false;
 
             /**
              * Opens the iterator, initializing the state for iteration.
              */
             public void open() throws DbException, TransactionAbortedException {
+                if (!counted) {
+                    scanOpened();
+                    counted = true;
+                }
                 currentPageIndex = 0;
+                readAheadUpTo = 0;
+                ring = BufferRing.forScan(numPages());
                 currentIterator = getIteratorForPage();
             }
 
@@ -175,10 +824,9 @@ public class HeapFile implements DbFile {
                     return false;
                 }
 
-                if (!currentIterator.hasNext() && currentPageIndex < numPages() - 1) {
+                while (!currentIterator.hasNext() && currentPageIndex < numPages() - 1) {
                     currentPageIndex++; // Move to the next page.
                     currentIterator = getIteratorForPage(); // Update iterator for new page.
-                    return hasNext(); // Check again for the new page.
                 }
 
                 return currentIterator.hasNext(); // Return true if current page has more tuples.
@@ -209,6 +857,10 @@ public class HeapFile implements DbFile {
              */
             public void close() {
                 currentIterator = null;
+                if (counted) {
+                    scanClosed();
+                    counted = false;
+                }
             }
 
             /**
@@ -219,12 +871,133 @@ public class HeapFile implements DbFile {
                 if (currentPageIndex >= numPages()) {
                     throw new NoSuchElementException("No more pages in file.");
                 }
+                // Skipping the page if no tuple on it can match.
+                if (!mayMatch(currentPageIndex)) {
+                    return Collections.emptyIterator();
+                }
                 // Constructing the PageId for the current page.
                 PageId pageId = new HeapPageId(getId(), currentPageIndex);
                 // Fetching the page from the BufferPool.
-                HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_ONLY);
-                // Returning the iterator for the fetched page.
-                return page.iterator();
+                TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid, pageId,
+                        Permissions.READ_ONLY, ring);
+                readAhead();
+                if (zones == null) {
+                    return page.iterator();
+                }
+                zones.completePage(currentPageIndex, page);
+                // Returning the iterator over the matching tuples of the page.
+                return filter(page.iterator(predicates.get(0)),
+                        predicates.subList(1, predicates.size()));
+            }
+
+            /**
+             * Private helper method that checks the zone map and the Bloom
+             * filters for a page.
+             * @return false if no tuple on the page can match
+             */
+            private boolean mayMatch(int pageNo) {
+                return zones == null || zones.mayMatch(pageNo, predicates)
+                        && (blooms == null || blooms.mayMatch(pageNo, predicates));
+            }
+
+            /**
+             * Private helper method that asks the BufferPool to load the next
+             * pages of the file in the background. Scans only start reading
+             * ahead once they move past their first page, and top the window
+             * up once half of it has been consumed.
+             */
+            private void readAhead() {
+                int window = getReadAheadPages();
+                if (window <= 0 || currentPageIndex == 0
+                        || readAheadUpTo - currentPageIndex > window / 2) {
+                    return;
+                }
+                int start = Math.max(readAheadUpTo, currentPageIndex + 1);
+                int end = Math.min(currentPageIndex + 1 + window, numPages());
+                if (start >= end) {
+                    return;
+                }
+                List<PageId> pids = new ArrayList<>(end - start);
+                for (int i = start; i < end; i++) {
+                    if (mayMatch(i)) {
+                        pids.add(new HeapPageId(getId(), i));
+                    }
+                }
+                // pages left after skipping are scattered, so read them
+                // concurrently rather than in order
+                if (zones == null) {
+                    Database.getBufferPool().prefetchPages(pids, ring);
+                } else {
+                    Database.getBufferPool().prefetchPagesAsync(pids, ring);
+                }
+                readAheadUpTo = end;
+            }
+        };
+    }
+
+    /**
+     * Counts an iterator over this file as open, waiting while compact is
+     * moving tuples.
+     */
+    private void scanOpened() {
+        boolean interrupted = false;
+        synchronized (scanLatch) {
+            while (openScans < 0) {
+                try {
+                    scanLatch.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            openScans++;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Counts an iterator over this file as closed. */
+    private void scanClosed() {
+        synchronized (scanLatch) {
+            openScans--;
+        }
+    }
+
+    /**
+     * Returns the tuples of it that satisfy all of the specified predicates.
+     */
+    private static Iterator<Tuple> filter(Iterator<Tuple> it, List<Predicate> predicates) {
+        if (predicates.isEmpty()) {
+            return it;
+        }
+        return new Iterator<Tuple>() {
+            private Tuple next = advance();
+
+            private Tuple advance() {
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    boolean matches = true;
+                    for (Predicate p : predicates) {
+                        matches = matches && p.filter(t);
+                    }
+                    if (matches) {
+                        return t;
+                    }
+                }
+                return null;
+            }
+
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            public Tuple next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = next;
+                next = advance();
+                return t;
             }
         };
     }
@@ -1,7 +1,15 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -29,6 +37,13 @@ public class HeapFileEncoder {
    * @throws IOException if the temporary/output file can't be opened
    */
   public static void convert(ArrayList<ArrayList<Integer>> tuples, File outFile, int npagebytes, int numFields) throws IOException {
+      convert(writeTempInput(tuples, numFields), outFile, npagebytes, numFields);
+  }
+
+  /** Writes the specified integer tuples to a temporary comma delimited
+   * text file, in the format the file based convert methods read.
+   */
+  private static File writeTempInput(ArrayList<ArrayList<Integer>> tuples, int numFields) throws IOException {
       File tempInput = File.createTempFile("tempTable", ".txt");
       tempInput.deleteOnExit();
       BufferedWriter bw = new BufferedWriter(new FileWriter(tempInput));
@@ -48,7 +63,7 @@ public class HeapFileEncoder {
           bw.write('\n');
       }
       bw.close();
-      convert(tempInput, outFile, npagebytes, numFields);
+      return tempInput;
   }
 
       public static void convert(File inFile, File outFile, int npagebytes,
@@ -90,6 +105,7 @@ public class HeapFileEncoder {
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
+      discardSidecars(outFile);
 
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
@@ -223,4 +239,391 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Number of pages each task of convertParallel encodes. */
+  static final int PAGES_PER_CHUNK = 64;
+
+  /** Converts the specified input text file into a binary page file, in the
+   * same format as {@link #convert(File, File, int, int, Type[], char)},
+   * using a pool of worker threads.
+   * <p>
+   * The input is read line by line and split into chunks of
+   * {@link #PAGES_PER_CHUNK} pages' worth of lines. Workers parse and
+   * encode the chunks into pages, and the chunks are written to the output
+   * file in input order with one large write each. At most two chunks per
+   * thread are in memory at a time, so inputs of any size can be converted.
+   * <p>
+   * Malformed lines are reported and skipped, which leaves the last page of
+   * their chunk partly empty; for well-formed input the output is the same
+   * as that of convert.
+   *
+   * @see #convert(File, File, int, int, Type[], char)
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in the output file
+   * @param numFields the number of fields in each input line/output tuple
+   * @param typeAr the types of the fields
+   * @param fieldSeparator the character separating fields on a line
+   * @param nthreads the number of worker threads
+   * @throws IOException if the input/output file can't be opened or written
+   */
+  public static void convertParallel(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, int nthreads)
+      throws IOException {
+      if (nthreads < 1)
+          throw new IllegalArgumentException("nthreads must be positive: " + nthreads);
+      discardSidecars(outFile);
+      final TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+      final Pattern separator = Pattern.compile(Pattern.quote(String.valueOf(fieldSeparator)));
+      int nrecords = (npagebytes * 8) / (td.getSize() * 8 + 1);
+      int chunkLines = nrecords * PAGES_PER_CHUNK;
+
+      ExecutorService pool = Executors.newFixedThreadPool(nthreads);
+      ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+      BufferedReader br = new BufferedReader(new FileReader(inFile), 1 << 20);
+      FileChannel out = new FileOutputStream(outFile).getChannel();
+      try {
+          long npages = 0;
+          List<String> lines = new ArrayList<String>(chunkLines);
+          String line;
+          while ((line = br.readLine()) != null) {
+              if (line.trim().isEmpty())
+                  continue;
+              lines.add(line);
+              if (lines.size() == chunkLines) {
+                  pending.add(pool.submit(encodeChunk(lines, td, separator, npagebytes)));
+                  lines = new ArrayList<String>(chunkLines);
+                  while (pending.size() > 2 * nthreads)
+                      npages += writeChunk(out, pending.remove(), npagebytes);
+              }
+          }
+          if (!lines.isEmpty())
+              pending.add(pool.submit(encodeChunk(lines, td, separator, npagebytes)));
+          while (!pending.isEmpty())
+              npages += writeChunk(out, pending.remove(), npagebytes);
+
+          // like convert, write an empty page for an empty file
+          if (npages == 0)
+              writeFully(out, ByteBuffer.wrap(new byte[npagebytes]));
+      } finally {
+          pool.shutdownNow();
+          br.close();
+          out.close();
+      }
+  }
+
+  /** Returns a task that parses the specified lines and encodes them into
+   * consecutive HeapPages, each full but the last.
+   */
+  private static Callable<byte[]> encodeChunk(final List<String> lines, final TupleDesc td,
+                 final Pattern separator, final int npagebytes) {
+      return new Callable<byte[]>() {
+          public byte[] call() {
+              int nrecbytes = td.getSize();
+              int nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1);
+              int nheaderbytes = (nrecords + 7) / 8;
+              int npages = (lines.size() + nrecords - 1) / nrecords;
+              byte[] pages = new byte[npages * npagebytes];
+              int n = 0;
+              for (String line : lines) {
+                  Tuple t = parseLine(separator.split(line, -1), td);
+                  if (t == null) {
+                      System.out.println ("BAD LINE : " + line);
+                      continue;
+                  }
+                  int page = (n / nrecords) * npagebytes;
+                  int slot = n % nrecords;
+                  pages[page + slot / 8] |= (byte) (1 << (slot % 8));
+                  int offset = page + nheaderbytes + slot * nrecbytes;
+                  for (int i = 0; i < td.numFields(); i++)
+                      td.getFieldType(i).write(t.getField(i), pages, offset + td.getFieldOffset(i));
+                  n++;
+              }
+              // drop the pages left empty by malformed lines
+              return Arrays.copyOf(pages, (n + nrecords - 1) / nrecords * npagebytes);
+          }
+      };
+  }
+
+  /** Waits for a chunk encoded by encodeChunk and appends it to out.
+   *
+   * @return the number of pages written
+   */
+  private static long writeChunk(FileChannel out, Future<byte[]> chunk, int npagebytes)
+      throws IOException {
+      byte[] pages;
+      try {
+          pages = chunk.get();
+      } catch (InterruptedException e) {
+          throw new InterruptedIOException("interrupted while converting");
+      } catch (ExecutionException e) {
+          throw new IOException("can't encode chunk", e.getCause());
+      }
+      writeFully(out, ByteBuffer.wrap(pages));
+      return pages.length / npagebytes;
+  }
+
+  private static void writeFully(FileChannel out, ByteBuffer buf) throws IOException {
+      while (buf.hasRemaining())
+          out.write(buf);
+  }
+
+  /** Convert the specified tuple list (with only integer fields) into a
+   * binary page file in the SlottedHeapPage format.
+   *
+   * @see #convert(ArrayList, File, int, int)
+   * @see SlottedHeapFile
+   */
+  public static void convertSlotted(ArrayList<ArrayList<Integer>> tuples, File outFile, int npagebytes, int numFields) throws IOException {
+      Type[] ts = new Type[numFields];
+      Arrays.fill(ts, Type.INT_TYPE);
+      convertSlotted(writeTempInput(tuples, numFields), outFile, npagebytes, numFields, ts, ',');
+  }
+
+   /** Convert the specified input text file into a binary page file in the
+    * SlottedHeapPage format, where STRING_TYPE fields are stored with their
+    * actual length rather than padded out to STRING_LEN bytes. The input is
+    * read as for {@link #convert(File, File, int, int, Type[], char)}.
+    * Pages are filled with as many records as fit.
+    *
+    * @see SlottedHeapPage
+    * @see SlottedHeapFile
+    * @param inFile The input file to read data from
+    * @param outFile The output file to write data to
+    * @param npagebytes The number of bytes per page in the output file
+    * @param numFields the number of fields in each input line/output tuple
+    * @param typeAr the types of the fields
+    * @param fieldSeparator the character separating fields on a line
+    * @throws IOException if the input/output file can't be opened, or a
+    *   record does not fit on an empty page
+    */
+  public static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      convertTuples(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator,
+              (page, td, t) -> SlottedHeapPage.appendRecord(page, t) >= 0);
+  }
+
+  /** Convert the specified tuple list (with only integer fields) into a
+   * binary page file in the PaxHeapPage format.
+   *
+   * @see #convert(ArrayList, File, int, int)
+   * @see PaxHeapFile
+   */
+  public static void convertPax(ArrayList<ArrayList<Integer>> tuples, File outFile, int npagebytes, int numFields) throws IOException {
+      Type[] ts = new Type[numFields];
+      Arrays.fill(ts, Type.INT_TYPE);
+      convertPax(writeTempInput(tuples, numFields), outFile, npagebytes, numFields, ts, ',');
+  }
+
+   /** Convert the specified input text file into a binary page file in the
+    * PaxHeapPage format, where each page stores its tuples column by column.
+    * The input is read as for
+    * {@link #convert(File, File, int, int, Type[], char)}.
+    *
+    * @see PaxHeapPage
+    * @see PaxHeapFile
+    * @param inFile The input file to read data from
+    * @param outFile The output file to write data to
+    * @param npagebytes The number of bytes per page in the output file
+    * @param numFields the number of fields in each input line/output tuple
+    * @param typeAr the types of the fields
+    * @param fieldSeparator the character separating fields on a line
+    * @throws IOException if the input/output file can't be opened
+    */
+  public static void convertPax(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      convertTuples(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator,
+              (page, td, t) -> PaxHeapPage.appendTuple(page, td, t) >= 0);
+  }
+
+  /** Convert the specified tuple list (with only integer fields) into a
+   * compressed page file and its index file.
+   *
+   * @see #convert(ArrayList, File, int, int)
+   * @see CompressedHeapFile
+   */
+  public static void convertCompressed(ArrayList<ArrayList<Integer>> tuples, File outFile, int npagebytes, int numFields) throws IOException {
+      Type[] ts = new Type[numFields];
+      Arrays.fill(ts, Type.INT_TYPE);
+      convertCompressed(writeTempInput(tuples, numFields), outFile, npagebytes, numFields, ts, ',');
+  }
+
+   /** Convert the specified input text file into a file of compressed
+    * HeapPages, as read by CompressedHeapFile, and its index file. The pages
+    * are first encoded as for
+    * {@link #convert(File, File, int, int, Type[], char)}, then each page is
+    * compressed with PageCompressor.
+    *
+    * @see CompressedHeapFile
+    * @see PageCompressor
+    * @param inFile The input file to read data from
+    * @param outFile The output file to write data to; the index is written
+    *   to CompressedHeapFile.getIndexFile(outFile)
+    * @param npagebytes The number of bytes per (uncompressed) page
+    * @param numFields the number of fields in each input line/output tuple
+    * @param typeAr the types of the fields
+    * @param fieldSeparator the character separating fields on a line
+    * @throws IOException if the input/output file can't be opened
+    */
+  public static void convertCompressed(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      File heapFile = File.createTempFile("tempTable", ".dat");
+      heapFile.deleteOnExit();
+      convert(inFile, heapFile, npagebytes, numFields, typeAr, fieldSeparator);
+      discardSidecars(outFile);
+      TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+
+      DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(heapFile)));
+      DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outFile)));
+      DataOutputStream index = new DataOutputStream(new BufferedOutputStream(
+              new FileOutputStream(CompressedHeapFile.getIndexFile(outFile))));
+      byte[] page = new byte[npagebytes];
+      long offset = 0;
+      for (long n = heapFile.length() / npagebytes; n > 0; n--) {
+          is.readFully(page);
+          byte[] compressed = PageCompressor.compress(page, td, npagebytes);
+          os.write(compressed);
+          index.writeLong(offset);
+          index.writeInt(compressed.length);
+          index.writeInt(compressed.length);
+          offset += compressed.length;
+      }
+      is.close();
+      os.close();
+      index.close();
+      heapFile.delete();
+  }
+
+  /** Adds a tuple to a page being built by convertTuples. */
+  private interface PageAppender {
+      /** @return false if the tuple does not fit on the page */
+      boolean append(byte[] page, TupleDesc td, Tuple t);
+  }
+
+  /** Reads tuples from a delimited text file and packs as many of them as
+   * fit onto each page with the specified appender, writing out a page when
+   * the next tuple does not fit.
+   */
+  private static void convertTuples(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, PageAppender appender)
+      throws IOException {
+      discardSidecars(outFile);
+      TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+      String separator = java.util.regex.Pattern.quote(String.valueOf(fieldSeparator));
+
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      FileOutputStream os = new FileOutputStream(outFile);
+      byte[] page = new byte[npagebytes];
+      boolean pageEmpty = true;
+      int npages = 0;
+
+      String line;
+      while ((line = br.readLine()) != null) {
+          if (line.trim().isEmpty())
+              continue;
+          Tuple t = parseLine(line.split(separator, -1), td);
+          if (t == null) {
+              System.out.println ("BAD LINE : " + line);
+              continue;
+          }
+          if (!appender.append(page, td, t)) {
+              // the page is full; write it out and start a new one
+              os.write(page);
+              npages++;
+              page = new byte[npagebytes];
+              if (!appender.append(page, td, t)) {
+                  br.close();
+                  os.close();
+                  throw new IOException("record does not fit on a page: " + line);
+              }
+          }
+          pageEmpty = false;
+      }
+
+      // flush the last page if it has records on it, or if the file is empty
+      if (!pageEmpty || npages == 0)
+          os.write(page);
+      br.close();
+      os.close();
+  }
+
+  /** Deletes the zone map and Bloom filters of a table file that is about
+   * to be replaced, since they describe the old contents of the file.
+   *
+   * @see ZoneMap#getZoneMapFile
+   * @see BloomFilterMap#getBloomFilterFile
+   */
+  private static void discardSidecars(File outFile) {
+      for (File f : new File[] { ZoneMap.getZoneMapFile(outFile),
+                                 BloomFilterMap.getBloomFilterFile(outFile) }) {
+          Database.getFileHandleManager().close(f);
+          f.delete();
+      }
+  }
+
+  /** Builds per-page Bloom filters on the specified columns of a table, and
+   * writes them to the table's sidecar file, replacing any it had. From
+   * then on, the HeapFile keeps them up to date as tuples are inserted, and
+   * scans use them to skip pages for EQUALS predicates.
+   * <p>
+   * The pages are read straight from the file, so this should be run on a
+   * table that is not being modified, e.g. right after converting it.
+   *
+   * @see BloomFilterMap
+   * @param hf the table, in any of the HeapFile formats
+   * @param columns the fields to build filters for
+   * @param bitsPerTuple the number of filter bits per tuple a page can hold;
+   *   more bits mean fewer pages read needlessly
+   * @throws IOException if the table can't be read or the filters can't be
+   *   written
+   */
+  public static void buildBloomFilters(HeapFile hf, int[] columns, int bitsPerTuple)
+      throws IOException {
+      TupleDesc td = hf.getTupleDesc();
+      for (int c : columns) {
+          if (c < 0 || c >= td.numFields())
+              throw new IllegalArgumentException("no field " + c + " in " + td);
+      }
+      BloomFilterMap bf = BloomFilterMap.create(td,
+              BloomFilterMap.getBloomFilterFile(hf.getFile()), columns, bitsPerTuple,
+              hf.getPageSize());
+      int n = hf.numPages();
+      for (int i = 0; i < n; i++) {
+          TuplePage page = (TuplePage) hf.readPage(new HeapPageId(hf.getId(), i));
+          if (page == null)
+              throw new IOException("can't read page " + i + " of " + hf.getFile());
+          // an empty page still gets a filter, saying it holds nothing
+          bf.addPage(i);
+          Iterator<Tuple> it = page.iterator();
+          while (it.hasNext())
+              bf.add(i, it.next());
+      }
+      bf.save();
+      hf.setBloomFilters(bf);
+  }
+
+  /** Parses the fields of one input line into a tuple, or returns null if
+   * the line is malformed.
+   */
+  private static Tuple parseLine(String[] fields, TupleDesc td) {
+      if (fields.length < td.numFields())
+          return null;
+      Tuple t = new Tuple(td);
+      for (int i = 0; i < td.numFields(); i++) {
+          String s = fields[i].trim();
+          if (td.getFieldType(i) == Type.INT_TYPE) {
+              try {
+                  t.setField(i, new IntField(Integer.parseInt(s)));
+              } catch (NumberFormatException e) {
+                  return null;
+              }
+          } else {
+              t.setField(i, new StringField(s, Type.STRING_LEN));
+          }
+      }
+      return t;
+  }
 }
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -11,15 +12,21 @@ import java.io.*;
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];
-    final Tuple tuples[];
+    final int headerSize;
     final int numSlots;
+    // the serialized page: header bytes followed by the tuple slots, in a
+    // frame of the BufferPool's FrameArena. This is the only copy of the
+    // page contents; insertTuple and deleteTuple update it in place and
+    // tuples are decoded from it on demand
+    final ByteBuffer data;
     private TransactionId dirtyingTransaction;
 
+    // the page as of the last setBeforeImage, or null if it has not been
+    // modified since
     byte[] oldData;
     private final Byte oldDataLock=new Byte((byte)0);
 
@@ -28,54 +35,86 @@ public class HeapPage implements Page {
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1))
+     *          floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * database table, which can be determined via {@link Catalog#getTupleDesc},
+     * and page size is the page size of the table, which can be determined
+     * via {@link Catalog#getPageSize}.
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#getPageSize()
+     * @see Catalog#getPageSize
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
-        this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-        // allocate and read the header slots 
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records 
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        int pageSize = Database.getCatalog().getPageSize(id.getTableId());
+        this.numSlots = getNumTuples(td, pageSize);
+        if (data.length < pageSize) {
+            throw new EOFException("page data is shorter than a page");
         }
-        dis.close();
+        this.headerSize = getHeaderSize(numSlots);
+        // keep a private copy of the raw bytes: records are only decoded
+        // when they are asked for
+        this.data = Database.getBufferPool().getFrameArena().copyOf(this, data, pageSize);
+    }
 
-        setBeforeImage();
+    /**
+     * @return the number of tuple slots on a page of the default size
+     *   holding tuples of the specified schema
+     */
+    static int getNumTuples(TupleDesc td) {
+        return getNumTuples(td, BufferPool.getPageSize());
     }
 
-    /** Retrieve the number of tuples on this page.
-        @return the number of tuples on this page
-    */
-    private int getNumTuples() {
+    /**
+     * @return the number of tuple slots on a page of pageSize bytes holding
+     *   tuples of the specified schema
+     */
+    static int getNumTuples(TupleDesc td, int pageSize) {
         int tupleSize = td.getSize();
-        return (BufferPool.getPageSize() * 8) / (tupleSize * 8 + 1);
+        return (pageSize * 8) / (tupleSize * 8 + 1);
     }
 
     /**
-     * Computes the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
-     * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
+     * @return the number of header bytes on a page of the default size
+     *   holding tuples of the specified schema
      */
-    private int getHeaderSize() {
-        return (int) Math.ceil(getNumTuples() / 8.0);
+    static int getHeaderSize(TupleDesc td) {
+        return getHeaderSize(getNumTuples(td));
+    }
+
+    /**
+     * @return the number of header bytes on a page of pageSize bytes holding
+     *   tuples of the specified schema
+     */
+    static int getHeaderSize(TupleDesc td, int pageSize) {
+        return getHeaderSize(getNumTuples(td, pageSize));
+    }
+
+    /** @return the number of header bytes on a page with numSlots slots */
+    private static int getHeaderSize(int numSlots) {
+        return (numSlots + 7) / 8;
+    }
+
+    /**
+     * Checks a page header, as stored at the start of the page data, for an
+     * empty slot without parsing the rest of the page.
+     *
+     * @param header the header bytes of the page
+     * @param numSlots the number of tuple slots on the page
+     * @return true if at least one of the slots is not in use
+     */
+    static boolean hasEmptySlot(byte[] header, int numSlots) {
+        for (int i = 0; i < numSlots; i++) {
+            if ((header[i / 8] & (1 << (i % 8))) == 0) {
+                return true;
+            }
+        }
+        return false;
     }
     
     /** Return a view of this page before it was modified
@@ -85,7 +124,7 @@ public class HeapPage implements Page {
             byte[] oldDataRef = null;
             synchronized(oldDataLock)
             {
-                oldDataRef = oldData;
+                oldDataRef = oldData != null ? oldData : getPageData();
             }
             return new HeapPage(pid,oldDataRef);
         } catch (IOException e) {
@@ -99,7 +138,21 @@ public class HeapPage implements Page {
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = null;
+        }
+    }
+
+    /**
+     * Saves the contents of the page as its before image, unless the page
+     * has been modified since the last setBeforeImage. Called before every
+     * modification, so that unmodified pages keep no second copy.
+     */
+    private void saveBeforeImage() {
+        synchronized(oldDataLock)
+        {
+        if (oldData == null) {
+            oldData = getPageData();
+        }
         }
     }
 
@@ -111,39 +164,42 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the offset in the page data of the record stored in the
+     *   specified slot
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
+    private int getTupleOffset(int slotId) {
+        return headerSize + slotId * td.getSize();
+    }
 
-        // read fields in the tuple
+    /**
+     * Decodes the tuple stored in the specified slot of the page data.
+     */
+    private Tuple decodeTuple(int slotId) {
         Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+        t.setRecordId(new RecordId(pid, slotId));
+        int offset = getTupleOffset(slotId);
+        for (int j=0; j<td.numFields(); j++) {
+            t.setField(j, td.getFieldType(j).parse(data, offset + td.getFieldOffset(j)));
         }
-
         return t;
     }
 
+    /**
+     * Returns one field of the tuple in the specified slot, without
+     * materializing the rest of the tuple.
+     *
+     * @param slotId the slot holding the tuple
+     * @param fieldIndex the index of the field in the tuple
+     * @throws NoSuchElementException if the slot is empty
+     */
+    public Field getField(int slotId, int fieldIndex) {
+        if (!isSlotUsed(slotId)) {
+            throw new NoSuchElementException("slot " + slotId + " is empty");
+        }
+        return td.getFieldType(fieldIndex).parse(data,
+                getTupleOffset(slotId) + td.getFieldOffset(fieldIndex));
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -151,69 +207,15 @@ public class HeapPage implements Page {
      * The invariant here is that it should be possible to pass the byte
      * array generated by getPageData to the HeapPage constructor and
      * have it produce an identical HeapPage object.
+     * <p>
+     * The page keeps its contents serialized, so this is a copy of its
+     * frame.
      *
      * @see #HeapPage
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        return FrameArena.toArray(data);
     }
 
     /**
@@ -226,8 +228,17 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.getPageSize();
-        return new byte[len]; //all 0
+        return createEmptyPageData(BufferPool.getPageSize());
+    }
+
+    /**
+     * Generates a byte array corresponding to an empty HeapPage of a table
+     * with the specified page size.
+     *
+     * @see Catalog#getPageSize
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
     }
 
     /**
@@ -249,14 +260,10 @@ public class HeapPage implements Page {
         
         // check if the tuple is in this page and if the slot is already empty
         if (this.pid.equals(t_pid) && isSlotUsed(t_ntup)) {            
-            // check if the tupple are the same
-            Tuple t_hp = this.tuples[t_ntup];
-            if (t_hp.getRecordId().equals(t.getRecordId())) {
-                // remove the tuple
-                tuples[t_ntup] = null;
-                // set the header bit to 0 
-                markSlotUsed(t_ntup, false);
-            }
+            saveBeforeImage();
+            // set the header bit to 0; the record bytes are left in place
+            // for iterators that were created before the delete
+            markSlotUsed(t_ntup, false);
         } else {
             throw new DbException("The tuple is not in this page or the slot is already empty.");
         }
@@ -278,8 +285,12 @@ public class HeapPage implements Page {
         boolean inserted = false;
         for (int i = 0; i < numSlots; i++) {
             if (!isSlotUsed(i)) {
+                saveBeforeImage();
                 t.setRecordId(new RecordId(this.pid, i));
-                tuples[i] = t;
+                int offset = getTupleOffset(i);
+                for (int j = 0; j < td.numFields(); j++) {
+                    td.getFieldType(j).write(t.getField(j), data, offset + td.getFieldOffset(j));
+                }
                 markSlotUsed(i, true);
                 inserted = true;
                 break;
@@ -315,7 +326,7 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         int count = 0;
-        for (int i = 0; i < tuples.length; i++) {
+        for (int i = 0; i < numSlots; i++) {
             if (!isSlotUsed(i)) {
                 count++;
             }
@@ -323,23 +334,31 @@ public class HeapPage implements Page {
         return count;
     }
 
+    // see TuplePage.java for javadocs
+    public boolean hasRoomFor(Tuple t) {
+        return hasRoom();
+    }
+
+    // see TuplePage.java for javadocs
+    public boolean hasRoom() {
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Returns true if associated slot on this page is filled.
      */
     public boolean isSlotUsed(int i) {
-        boolean[] bits = new boolean[8];
         int n_byte = i / 8;
         int n_bit_in_byte = i % 8;
         
-        /*
-         * Read the n_byte-th byte stored in the header and store it 
-         * as a bit array, taking into account the big-endianness of the JVM.
-         */
-        for (int j = 7; j >= 0; j--) {
-            bits[j] = (header[n_byte] & (1 << j)) != 0;
-        }
-        
-        return bits[n_bit_in_byte];
+        // test the n_bit_in_byte-th (least significant first) bit of the
+        // n_byte-th header byte, without allocating
+        return (data.get(n_byte) & (1 << n_bit_in_byte)) != 0;
     }
 
     /**
@@ -350,7 +369,7 @@ public class HeapPage implements Page {
         int bitIndex = i % 8;   
         // Flip the bit only if necessary
         if ((!isSlotUsed(i) && value) || (isSlotUsed(i) && !value)) {
-            header[byteIndex] = (byte) (header[byteIndex] ^ (1 << bitIndex));
+            data.put(byteIndex, (byte) (data.get(byteIndex) ^ (1 << bitIndex)));
         }
     }
 
@@ -359,12 +378,58 @@ public class HeapPage implements Page {
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
-        ArrayList<Tuple> validTuples = new ArrayList<>();
-        for (int i = 0; i < tuples.length; i++) {
-            if (isSlotUsed(i)) {
-                validTuples.add(tuples[i]);
+        return iterator(null);
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page that satisfy the
+     * specified predicate. The predicate is evaluated on the single field it
+     * refers to, decoded straight from the page data, so tuples that do not
+     * match are never materialized.
+     *
+     * @param p the predicate to filter on, or null to return all tuples
+     * @return an iterator over the matching tuples on this page (calling
+     *   remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator(Predicate p) {
+        // the slots in use when the iterator was created; the iterator does
+        // not see later inserts
+        final byte[] usedSlots = FrameArena.copyOfRange(data, 0, headerSize);
+        return new Iterator<Tuple>() {
+            // the next slot to look at
+            private int slot = advance(0);
+
+            /** Returns the first used, matching slot at or after i. */
+            private int advance(int i) {
+                while (i < numSlots && ((usedSlots[i / 8] & (1 << (i % 8))) == 0
+                        || p != null && !matches(i))) {
+                    i++;
+                }
+                return i;
             }
-        }
-        return validTuples.iterator();
+
+            private boolean matches(int i) {
+                Field f = td.getFieldType(p.getField()).parse(data,
+                        getTupleOffset(i) + td.getFieldOffset(p.getField()));
+                return f.compare(p.getOp(), p.getOperand());
+            }
+
+            public boolean hasNext() {
+                return slot < numSlots;
+            }
+
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = decodeTuple(slot);
+                slot = advance(slot + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 }
@@ -0,0 +1,99 @@
+package simpledb;
+
+import java.io.*;
+import java.lang.reflect.Constructor;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * HotPageFile stores a list of page ids, such as the hot pages of the
+ * BufferPool, so that they can be read back after a restart. Each id is
+ * stored like the ids in the log: the name of its class followed by the
+ * integers of {@link PageId#serialize}.
+ *
+ * @see LogFile#saveHotPages
+ * @see LogFile#warmUp
+ */
+class HotPageFile {
+
+    private HotPageFile() {
+    }
+
+    /**
+     * Writes the specified ids to f, replacing its contents at once: the
+     * ids go to a temporary file that is then renamed to f, so a crash
+     * leaves either the old list or the new one. Each call uses a temporary
+     * file of its own, so concurrent calls (from a checkpoint and the timer
+     * of LogFile.recordHotPagesEvery) do not write over each other; the
+     * last rename wins.
+     */
+    static void write(File f, List<PageId> pids) throws IOException {
+        File dir = f.getAbsoluteFile().getParentFile();
+        File tmp = Files.createTempFile(dir.toPath(), f.getName(), ".tmp").toFile();
+        try {
+            writeIds(tmp, pids);
+            Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /** Writes the specified ids to f. */
+    private static void writeIds(File f, List<PageId> pids) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(f)))) {
+            out.writeInt(pids.size());
+            for (PageId pid : pids) {
+                int[] data = pid.serialize();
+                out.writeUTF(pid.getClass().getName());
+                out.writeInt(data.length);
+                for (int i : data) {
+                    out.writeInt(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the ids written to f by {@link #write}.
+     *
+     * @return the ids, in the order they were written, or an empty list if
+     *   f does not exist
+     * @throws IOException if f can't be read or is not a list of ids
+     */
+    static List<PageId> read(File f) throws IOException {
+        if (!f.exists()) {
+            return Collections.emptyList();
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(f)))) {
+            int n = in.readInt();
+            List<PageId> pids = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                String className = in.readUTF();
+                Object[] args = new Object[in.readInt()];
+                for (int j = 0; j < args.length; j++) {
+                    args[j] = in.readInt();
+                }
+                pids.add(newPageId(className, args));
+            }
+            return pids;
+        }
+    }
+
+    /** Creates a page id of the named class from its serialized integers. */
+    private static PageId newPageId(String className, Object[] args) throws IOException {
+        try {
+            for (Constructor<?> c : Class.forName(className).getConstructors()) {
+                if (c.getParameterCount() == args.length) {
+                    return (PageId) c.newInstance(args);
+                }
+            }
+        } catch (ReflectiveOperationException | ClassCastException | IllegalArgumentException e) {
+            throw new IOException("can't create a " + className, e);
+        }
+        throw new IOException("can't create a " + className + " from " + args.length + " ints");
+    }
+}
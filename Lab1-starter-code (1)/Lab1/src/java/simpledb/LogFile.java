@@ -32,6 +32,14 @@ must not be declared synchronized and must begin with a block like:
        }
     }
 </pre>
+
+<p>
+BufferPool does not hold its own monitor for page operations; those only
+latch the shard the page belongs to.  Holding the pool's monitor therefore
+does not stop other transactions from reading and writing pages, only
+other maintenance that follows this protocol.  A checkpoint latches the
+shards while holding this monitor, so BufferPool must not call into the
+LogFile while it holds a shard latch.
 */
 
 /**
@@ -69,12 +77,28 @@ for each active transaction.
 
 </ul>
 
+<u> Warm restarts: </u>
+<p>
+
+Next to the log, in a file with the suffix <code>.hot</code>, the log
+keeps the BufferPool's hot pages, hottest first (see {@link
+BufferPool#getHotPages}). They are recorded at every checkpoint, and so
+at shutdown, and every {@link #HOT_PAGES_PERIOD_MS} milliseconds once
+{@link #recordHotPagesEvery} has been called. {@link #warmUp} reads them
+back into the BufferPool in the background, so that the cache is warm
+soon after a restart rather than after the workload has touched every
+page again.
+
 */
 
 public class LogFile {
 
     final File logFile;
     private RandomAccessFile raf;
+    // the BufferPool's hot pages, for warmUp
+    final File hotPagesFile;
+    // records the hot pages periodically, once recordHotPagesEvery is called
+    private Timer hotPagesTimer;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -84,6 +108,13 @@ public class LogFile {
     static final int CHECKPOINT_RECORD = 5;
     static final long NO_CHECKPOINT_ID = -1;
 
+    /**
+     * Default period, in milliseconds, at which the hot pages are recorded
+     * between checkpoints: the value of the simpledb.HotPagesPeriod system
+     * property, or one minute.
+     */
+    public static final long HOT_PAGES_PERIOD_MS = Long.getLong("simpledb.HotPagesPeriod", 60000);
+
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
@@ -106,6 +137,7 @@ public class LogFile {
     */
     public LogFile(File f) throws IOException {
 	this.logFile = f;
+        this.hotPagesFile = new File(f.getPath() + ".hot");
         raf = new RandomAccessFile(f, "rw");
         recoveryUndecided = true;
 
@@ -328,6 +360,7 @@ public class LogFile {
                 Iterator<Long> els = keys.iterator();
                 force();
                 Database.getBufferPool().flushAllPages();
+                flushZoneMaps();
                 startCpOffset = raf.getFilePointer();
                 raf.writeInt(CHECKPOINT_RECORD);
                 raf.writeLong(-1); //no tid , but leave space for convenience
@@ -355,6 +388,7 @@ public class LogFile {
         }
 
         logTruncate();
+        saveHotPages();
     }
 
     /** Truncate any unneeded portion of the log to reduce its space
@@ -476,6 +510,10 @@ public class LogFile {
         extensive recovery.)
     */
     public synchronized void shutdown() {
+        if (hotPagesTimer != null) {
+            hotPagesTimer.cancel();
+            hotPagesTimer = null;
+        }
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
             raf.close();
@@ -496,6 +534,69 @@ public class LogFile {
                 // some code goes here
             }
          }
+        warmUp();
+    }
+
+    /**
+     * Writes the zone maps of the HeapFiles in the catalog to their
+     * sidecar files, so that zones completed by scans survive a restart.
+     */
+    private void flushZoneMaps() throws IOException {
+        Catalog catalog = Database.getCatalog();
+        Iterator<Integer> it = catalog.tableIdIterator();
+        while (it.hasNext()) {
+            DbFile f = catalog.getDatabaseFile(it.next());
+            if (f instanceof HeapFile) {
+                ((HeapFile) f).flushZoneMap();
+            }
+        }
+    }
+
+    /**
+     * Records the BufferPool's hot pages next to the log, for {@link
+     * #warmUp} to read after a restart. Failures are reported and
+     * otherwise ignored: the hot pages only speed up restarts.
+     */
+    public void saveHotPages() {
+        try {
+            HotPageFile.write(hotPagesFile, Database.getBufferPool().getHotPages());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Starts reading the hot pages last recorded by {@link #saveHotPages}
+     * into the BufferPool, in the background. The tables must be in the
+     * catalog already; pages of other tables are skipped.
+     *
+     * @return the number of pages queued for reading
+     * @see BufferPool#warmUp
+     */
+    public int warmUp() {
+        try {
+            return Database.getBufferPool().warmUp(HotPageFile.read(hotPagesFile));
+        } catch (IOException e) {
+            // an unreadable list only costs a cold start
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    /**
+     * Records the hot pages every periodMs milliseconds from a background
+     * thread, in addition to the checkpoints, until {@link #shutdown}.
+     */
+    public synchronized void recordHotPagesEvery(long periodMs) {
+        if (hotPagesTimer != null) {
+            hotPagesTimer.cancel();
+        }
+        hotPagesTimer = new Timer("simpledb-hot-pages", true);
+        hotPagesTimer.schedule(new TimerTask() {
+            public void run() {
+                saveHotPages();
+            }
+        }, periodMs, periodMs);
     }
 
     /** Print out a human readable represenation of the log */
@@ -0,0 +1,125 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LruKPolicy implements LRU-K: the victim is the page whose K-th most
+ * recent access is the oldest, so that pages touched once by a scan go
+ * before pages that are accessed repeatedly. Pages with fewer than K
+ * accesses count as infinitely old and are evicted first, least recently
+ * accessed first.
+ * <p>
+ * The access history of evicted pages is retained for as many pages as the
+ * buffer pool holds, so that a page that comes back soon after it was
+ * evicted is recognized as hot. Victims among pages with fewer than K
+ * accesses are found in O(1); among the others, which are kept ordered by
+ * their K-th most recent access, in O(log n).
+ *
+ * @Threadsafe
+ */
+public class LruKPolicy implements ReplacementPolicy {
+
+    /** Default number of accesses the policy remembers per page. */
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    // logical clock, advanced on every access
+    private long now = 0;
+    // the last k access times of each cached page, oldest first
+    private final HashMap<PageId, long[]> history = new HashMap<>();
+    // cached pages with fewer than k accesses, least recently accessed first
+    private final LinkedHashMap<PageId, Boolean> cold = new LinkedHashMap<>(16, 0.75f, true);
+    // cached pages with k accesses, ordered by their k-th most recent access
+    private final TreeMap<Long, PageId> hot = new TreeMap<>();
+    // the history of recently evicted pages, oldest first
+    private final LinkedHashMap<PageId, long[]> retained;
+
+    /**
+     * Creates a policy that orders pages by their k-th most recent access,
+     * for a buffer pool of numPages pages.
+     */
+    public LruKPolicy(int k, final int numPages) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        this.k = k;
+        this.retained = new LinkedHashMap<PageId, long[]>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageId, long[]> eldest) {
+                return size() > numPages;
+            }
+        };
+    }
+
+    public synchronized void pageAdded(PageId pid) {
+        if (history.containsKey(pid)) {
+            return;
+        }
+        long[] times = retained.remove(pid);
+        if (times == null) {
+            // no accesses yet; unused entries are 0
+            times = new long[k];
+        }
+        history.put(pid, times);
+        file(pid, times);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        long[] times = history.get(pid);
+        if (times == null) {
+            return;
+        }
+        unfile(pid, times);
+        System.arraycopy(times, 1, times, 0, k - 1);
+        times[k - 1] = ++now;
+        file(pid, times);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        long[] times = history.remove(pid);
+        if (times != null) {
+            unfile(pid, times);
+            retained.put(pid, times);
+        }
+    }
+
+    public synchronized PageId chooseVictim(java.util.function.Predicate<PageId> evictable,
+            java.util.function.ToIntFunction<PageId> rank, int best) {
+        Victim victim = new Victim(evictable, rank, best);
+        if (!victim.consider(cold.keySet())) {
+            victim.consider(hot.values());
+        }
+        return victim.pid;
+    }
+
+    public synchronized List<PageId> hottestPages() {
+        List<PageId> hottest = new ArrayList<>(history.size());
+        hottest.addAll(hot.descendingMap().values());
+        List<PageId> recent = new ArrayList<>(cold.keySet());
+        Collections.reverse(recent);
+        hottest.addAll(recent);
+        return hottest;
+    }
+
+    /**
+     * Adds a page to cold or hot, depending on its accesses. Access times
+     * are unique, so they identify the pages in hot.
+     */
+    private void file(PageId pid, long[] times) {
+        if (times[0] == 0) {
+            cold.put(pid, Boolean.TRUE);
+        } else {
+            hot.put(times[0], pid);
+        }
+    }
+
+    private void unfile(PageId pid, long[] times) {
+        if (times[0] == 0) {
+            cold.remove(pid);
+        } else {
+            hot.remove(times[0]);
+        }
+    }
+}
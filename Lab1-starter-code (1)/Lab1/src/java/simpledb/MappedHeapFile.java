@@ -0,0 +1,131 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * MappedHeapFile is a HeapFile that serves page reads from memory-mapped
+ * segments of the table file instead of issuing a read system call per page.
+ * It is meant for read-mostly tables that fit in memory: once a segment is
+ * mapped, reading a page is a memory copy out of the OS page cache.
+ * <p>
+ * The on-disk format is the same as HeapFile, so a table can be opened with
+ * either class. Writes still go through the file channel; the mappings are
+ * shared with the OS page cache and so observe them. Segments are mapped
+ * lazily, and the last one is re-mapped when insertTuple appends pages past
+ * its end.
+ *
+ * @see simpledb.HeapFile
+ */
+public class MappedHeapFile extends HeapFile {
+
+    /** Default size, in bytes, of each mapped segment of the file. */
+    public static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+
+    private final int segmentBytes;
+
+    // mapped segments, indexed by segment number; null if not mapped yet
+    private final ArrayList<ByteBuffer> segments = new ArrayList<>();
+    // the page size the segments were mapped for
+    private int mappedPageSize = -1;
+
+    /**
+     * Constructs a memory-mapped heap file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this heap
+     *          file.
+     * @param td the schema of the tuples within this file.
+     */
+    public MappedHeapFile(File f, TupleDesc td) {
+        this(f, td, DEFAULT_SEGMENT_BYTES);
+    }
+
+    /**
+     * Constructs a memory-mapped heap file that maps the specified file in
+     * segments of (roughly) segmentBytes bytes.
+     */
+    public MappedHeapFile(File f, TupleDesc td, int segmentBytes) {
+        this(f, td, 0, segmentBytes);
+    }
+
+    /**
+     * Constructs a memory-mapped heap file whose pages are pageSize bytes
+     * long, mapped in segments of (roughly) segmentBytes bytes.
+     *
+     * @see HeapFile#HeapFile(File, TupleDesc, int)
+     */
+    public MappedHeapFile(File f, TupleDesc td, int pageSize, int segmentBytes) {
+        super(f, td, pageSize);
+        if (segmentBytes <= 0) {
+            throw new IllegalArgumentException("segmentBytes must be positive");
+        }
+        this.segmentBytes = segmentBytes;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        // Copies the page out of its mapped segment and returns a page.
+        // Returns null if the page can't be mapped, like HeapFile.readPage.
+        try {
+            int pageSize = getPageSize();
+            int pagesPerSegment = Math.max(1, segmentBytes / pageSize);
+            int segmentNo = pid.getPageNumber() / pagesPerSegment;
+            int offset = (pid.getPageNumber() % pagesPerSegment) * pageSize;
+
+            ByteBuffer view = getSegment(segmentNo, offset + pageSize, pageSize, pagesPerSegment).duplicate();
+            byte[] data = new byte[pageSize];
+            view.position(offset);
+            view.get(data);
+            return createPage((HeapPageId) pid, data);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Reads the specified pages one at a time: each is copied out of its
+     * mapped segment, so there is no read to coalesce.
+     */
+    @Override
+    public List<Page> readPages(List<PageId> pids) {
+        List<Page> pages = new ArrayList<>(pids.size());
+        for (PageId pid : pids) {
+            pages.add(readPage(pid));
+        }
+        return pages;
+    }
+
+    /**
+     * Returns the mapped segment with the given number, mapping (or
+     * re-mapping, if the file grew) it so that it covers at least minLength
+     * bytes.
+     *
+     * @throws EOFException if the file is too short to cover minLength bytes
+     *   of the segment.
+     */
+    private synchronized ByteBuffer getSegment(int segmentNo, int minLength, int pageSize,
+            int pagesPerSegment) throws IOException {
+        // tests may change the page size; drop mappings made for the old one
+        if (pageSize != mappedPageSize) {
+            segments.clear();
+            mappedPageSize = pageSize;
+        }
+        while (segments.size() <= segmentNo) {
+            segments.add(null);
+        }
+
+        ByteBuffer segment = segments.get(segmentNo);
+        if (segment == null || segment.capacity() < minLength) {
+            long start = (long) segmentNo * pagesPerSegment * pageSize;
+            long length = Math.min((long) pagesPerSegment * pageSize, getFile().length() - start);
+            if (length < minLength) {
+                throw new EOFException("Read past end of " + getFile());
+            }
+            segment = Database.getFileHandleManager().map(getFile(), start, length);
+            segments.set(segmentNo, segment);
+        }
+        return segment;
+    }
+}
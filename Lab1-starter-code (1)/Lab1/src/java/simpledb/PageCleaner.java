@@ -0,0 +1,128 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * PageCleaner writes the dirty pages of committed transactions to disk from
+ * a background thread, so that commits do not wait for their pages to be
+ * written and the BufferPool keeps clean frames that getPage can evict
+ * without writing anything.
+ * <p>
+ * Write-ahead logging is respected: a transaction hands its pages over only
+ * after their UPDATE records and its COMMIT record have been forced to the
+ * log (see {@link BufferPool#commitPages}), and the cleaner only writes a
+ * page while the committed transaction is still the last one to have
+ * dirtied it. A page dirtied again by a later transaction is left for that
+ * transaction to write, so the BufferPool stays NO STEAL.
+ * <p>
+ * Pages are written a batch at a time, with a pause after each batch, so
+ * that the writes trickle out rather than compete with queries for the
+ * disk. There is no pause while less than a tenth of the pool is clean.
+ *
+ * @Threadsafe
+ */
+class PageCleaner implements Runnable {
+
+    /** Number of pages written between pauses. */
+    static final int BATCH_PAGES = 16;
+    /** Length of the pause between batches, in milliseconds. */
+    static final long PAUSE_MS = 5;
+
+    /** The pages a committed transaction left dirty. */
+    private static class Committed {
+        final TransactionId tid;
+        final List<PageId> pids;
+
+        Committed(TransactionId tid, List<PageId> pids) {
+            this.tid = tid;
+            this.pids = pids;
+        }
+    }
+
+    // tells the thread to stop once it has written all earlier pages
+    private static final Committed STOP = new Committed(null, null);
+
+    private final BufferPool pool;
+    private final LinkedBlockingQueue<Committed> queue = new LinkedBlockingQueue<>();
+    // committed transactions whose pages may not all be written yet
+    private final Set<TransactionId> committed = ConcurrentHashMap.newKeySet();
+    private final Thread thread;
+    private volatile boolean stopping = false;
+
+    /** Creates and starts a cleaner for the specified pool. */
+    PageCleaner(BufferPool pool) {
+        this.pool = pool;
+        this.thread = new Thread(this, "simpledb-page-cleaner");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues the pages a committed transaction left dirty. Their log
+     * records must already have been forced.
+     */
+    void enqueue(TransactionId tid, List<PageId> pids) {
+        if (!pids.isEmpty()) {
+            committed.add(tid);
+            queue.add(new Committed(tid, pids));
+        }
+    }
+
+    /**
+     * @return whether tid has committed and the cleaner may not have
+     *   written all its pages yet, i.e. whether pages it dirtied may be
+     *   written without breaking NO STEAL or WAL
+     */
+    boolean isCommitted(TransactionId tid) {
+        return committed.contains(tid);
+    }
+
+    /** Writes all queued pages, then stops the thread. */
+    void stop() {
+        stopping = true;
+        queue.add(STOP);
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void run() {
+        while (true) {
+            Committed c;
+            try {
+                c = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (c == STOP) {
+                return;
+            }
+            for (int i = 0; i < c.pids.size(); i += BATCH_PAGES) {
+                try {
+                    pool.cleanPages(c.pids.subList(i, Math.min(i + BATCH_PAGES, c.pids.size())),
+                            c.tid);
+                } catch (Exception e) {
+                    // leave the pages dirty for flushAllPages
+                    e.printStackTrace();
+                }
+                if (!stopping && pool.getNumCleanPages() >= pool.getNumPages() / 10) {
+                    try {
+                        Thread.sleep(PAUSE_MS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+            committed.remove(c.tid);
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * PageCompressor converts HeapPage data to and from the compressed form
+ * stored by CompressedHeapFile.
+ * <p>
+ * A compressed page starts with the header bitmap of the page, unchanged.
+ * It is followed by one block per field, holding the values of that field
+ * for the used slots of the page, in slot order. Each block starts with a
+ * tag byte naming its encoding:
+ * <ul>
+ * <li>RLE (INT_TYPE): the number of runs, then a (value, length) pair of
+ * ints for each run.
+ * <li>FOR (INT_TYPE): frame of reference; the minimum value and a bit width,
+ * then each value minus the minimum, bit-packed.
+ * <li>DICT (STRING_TYPE): the distinct strings, then the index of each
+ * value's string, bit-packed.
+ * <li>PLAIN (STRING_TYPE): each string as a short length and its bytes.
+ * </ul>
+ * The compressor picks the smallest encoding that applies to each block.
+ * The contents of unused slots are not stored, and are zero after
+ * decompression.
+ *
+ * @see CompressedHeapFile
+ */
+public class PageCompressor {
+
+    static final byte RLE = 0;
+    static final byte FOR = 1;
+    static final byte DICT = 2;
+    static final byte PLAIN = 3;
+
+    private PageCompressor() {
+    }
+
+    /**
+     * Compresses the data of a HeapPage.
+     *
+     * @param data the page data, as returned by HeapPage.getPageData
+     * @param td the schema of the tuples on the page
+     * @param pageSize the size of the page
+     * @return the compressed page
+     */
+    public static byte[] compress(byte[] data, TupleDesc td, int pageSize) {
+        int numSlots = (pageSize * 8) / (td.getSize() * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+        int[] slots = usedSlots(data, numSlots);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(pageSize / 4);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.write(data, 0, headerSize);
+            for (int j = 0; j < td.numFields(); j++) {
+                int offset = headerSize + td.getFieldOffset(j);
+                if (td.getFieldType(j) == Type.INT_TYPE) {
+                    int[] values = new int[slots.length];
+                    for (int i = 0; i < slots.length; i++) {
+                        values[i] = Type.readInt(data, offset + slots[i] * td.getSize());
+                    }
+                    writeInts(dos, values);
+                } else {
+                    String[] values = new String[slots.length];
+                    for (int i = 0; i < slots.length; i++) {
+                        values[i] = ((StringField) Type.STRING_TYPE.parse(data,
+                                offset + slots[i] * td.getSize())).getValue();
+                    }
+                    writeStrings(dos, values);
+                }
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // a ByteArrayOutputStream does not throw
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Restores the data of a HeapPage from its compressed form.
+     *
+     * @param compressed a page compressed by {@link #compress}
+     * @param td the schema of the tuples on the page
+     * @param pageSize the size of the page
+     * @return the page data, suitable for the HeapPage constructor
+     * @throws IOException if compressed is not a valid compressed page
+     */
+    public static byte[] decompress(byte[] compressed, TupleDesc td, int pageSize) throws IOException {
+        int numSlots = (pageSize * 8) / (td.getSize() * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+        byte[] data = new byte[pageSize];
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(compressed));
+        dis.readFully(data, 0, headerSize);
+        int[] slots = usedSlots(data, numSlots);
+
+        for (int j = 0; j < td.numFields(); j++) {
+            int offset = headerSize + td.getFieldOffset(j);
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                int[] values = readInts(dis, slots.length);
+                for (int i = 0; i < slots.length; i++) {
+                    Type.writeInt(values[i], data, offset + slots[i] * td.getSize());
+                }
+            } else {
+                String[] values = readStrings(dis, slots.length);
+                for (int i = 0; i < slots.length; i++) {
+                    Type.STRING_TYPE.write(new StringField(values[i], Type.STRING_LEN), data,
+                            offset + slots[i] * td.getSize());
+                }
+            }
+        }
+        return data;
+    }
+
+    /** @return the numbers of the used slots of a page, in order. */
+    private static int[] usedSlots(byte[] header, int numSlots) {
+        int[] slots = new int[numSlots];
+        int n = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if ((header[i / 8] & (1 << (i % 8))) != 0) {
+                slots[n++] = i;
+            }
+        }
+        return Arrays.copyOf(slots, n);
+    }
+
+    /** Writes an INT_TYPE block with RLE or FOR, whichever is smaller. */
+    private static void writeInts(DataOutputStream dos, int[] values) throws IOException {
+        int runs = 0;
+        long min = Integer.MAX_VALUE;
+        long max = Integer.MIN_VALUE;
+        for (int i = 0; i < values.length; i++) {
+            if (i == 0 || values[i] != values[i - 1]) {
+                runs++;
+            }
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+        }
+        int width = values.length == 0 ? 0 : bitWidth(max - min);
+        long rleBytes = 4 + 8L * runs;
+        long forBytes = 5 + ((long) width * values.length + 7) / 8;
+
+        if (rleBytes <= forBytes) {
+            dos.writeByte(RLE);
+            dos.writeInt(runs);
+            for (int i = 0; i < values.length; ) {
+                int j = i;
+                while (j < values.length && values[j] == values[i]) {
+                    j++;
+                }
+                dos.writeInt(values[i]);
+                dos.writeInt(j - i);
+                i = j;
+            }
+        } else {
+            dos.writeByte(FOR);
+            dos.writeInt((int) min);
+            dos.writeByte(width);
+            long[] deltas = new long[values.length];
+            for (int i = 0; i < values.length; i++) {
+                deltas[i] = values[i] - min;
+            }
+            writePacked(dos, deltas, width);
+        }
+    }
+
+    private static int[] readInts(DataInputStream dis, int n) throws IOException {
+        int[] values = new int[n];
+        byte tag = dis.readByte();
+        if (tag == RLE) {
+            int runs = dis.readInt();
+            int i = 0;
+            for (int r = 0; r < runs; r++) {
+                int value = dis.readInt();
+                int length = dis.readInt();
+                if (length < 0 || i + length > n) {
+                    throw new IOException("corrupt RLE block");
+                }
+                Arrays.fill(values, i, i + length, value);
+                i += length;
+            }
+        } else if (tag == FOR) {
+            long min = dis.readInt();
+            int width = dis.readByte();
+            long[] deltas = readPacked(dis, n, width);
+            for (int i = 0; i < n; i++) {
+                values[i] = (int) (min + deltas[i]);
+            }
+        } else {
+            throw new IOException("unknown INT_TYPE encoding " + tag);
+        }
+        return values;
+    }
+
+    /** Writes a STRING_TYPE block with DICT or PLAIN, whichever is smaller. */
+    private static void writeStrings(DataOutputStream dos, String[] values) throws IOException {
+        LinkedHashMap<String, Integer> dict = new LinkedHashMap<String, Integer>();
+        long plainBytes = 0;
+        for (String s : values) {
+            if (!dict.containsKey(s)) {
+                dict.put(s, dict.size());
+            }
+            plainBytes += 2 + s.length();
+        }
+        int width = bitWidth(Math.max(0, dict.size() - 1));
+        long dictBytes = 4 + ((long) width * values.length + 7) / 8;
+        for (String s : dict.keySet()) {
+            dictBytes += 2 + s.length();
+        }
+
+        if (dictBytes < plainBytes) {
+            dos.writeByte(DICT);
+            dos.writeInt(dict.size());
+            for (String s : dict.keySet()) {
+                writeString(dos, s);
+            }
+            long[] codes = new long[values.length];
+            for (int i = 0; i < values.length; i++) {
+                codes[i] = dict.get(values[i]);
+            }
+            writePacked(dos, codes, width);
+        } else {
+            dos.writeByte(PLAIN);
+            for (String s : values) {
+                writeString(dos, s);
+            }
+        }
+    }
+
+    private static String[] readStrings(DataInputStream dis, int n) throws IOException {
+        String[] values = new String[n];
+        byte tag = dis.readByte();
+        if (tag == DICT) {
+            String[] dict = new String[dis.readInt()];
+            for (int i = 0; i < dict.length; i++) {
+                dict[i] = readString(dis);
+            }
+            long[] codes = readPacked(dis, n, bitWidth(Math.max(0, dict.length - 1)));
+            for (int i = 0; i < n; i++) {
+                if (codes[i] >= dict.length) {
+                    throw new IOException("corrupt DICT block");
+                }
+                values[i] = dict[(int) codes[i]];
+            }
+        } else if (tag == PLAIN) {
+            for (int i = 0; i < n; i++) {
+                values[i] = readString(dis);
+            }
+        } else {
+            throw new IOException("unknown STRING_TYPE encoding " + tag);
+        }
+        return values;
+    }
+
+    private static void writeString(DataOutputStream dos, String s) throws IOException {
+        dos.writeShort(s.length());
+        dos.writeBytes(s);
+    }
+
+    private static String readString(DataInputStream dis) throws IOException {
+        byte[] bs = new byte[dis.readUnsignedShort()];
+        dis.readFully(bs);
+        return new String(bs);
+    }
+
+    /** @return the number of bits needed to store values up to v. */
+    static int bitWidth(long v) {
+        return 64 - Long.numberOfLeadingZeros(v);
+    }
+
+    /** Writes the low width bits of each value, most significant first. */
+    static void writePacked(DataOutputStream dos, long[] values, int width) throws IOException {
+        long buffer = 0;
+        int bits = 0;
+        for (long v : values) {
+            for (int b = width - 1; b >= 0; b--) {
+                buffer = (buffer << 1) | ((v >>> b) & 1);
+                if (++bits == 8) {
+                    dos.writeByte((int) buffer);
+                    buffer = 0;
+                    bits = 0;
+                }
+            }
+        }
+        if (bits > 0) {
+            dos.writeByte((int) (buffer << (8 - bits)));
+        }
+    }
+
+    /** Reads n values written by writePacked with the same width. */
+    static long[] readPacked(DataInputStream dis, int n, int width) throws IOException {
+        long[] values = new long[n];
+        int current = 0;
+        int bitsLeft = 0;
+        for (int i = 0; i < n; i++) {
+            long v = 0;
+            for (int b = 0; b < width; b++) {
+                if (bitsLeft == 0) {
+                    current = dis.readUnsignedByte();
+                    bitsLeft = 8;
+                }
+                bitsLeft--;
+                v = (v << 1) | ((current >>> bitsLeft) & 1);
+            }
+            values[i] = v;
+        }
+        return values;
+    }
+}
@@ -608,6 +608,9 @@ public class Parser {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
         TableStats.computeStatistics();
+        // read the pages that were hot before the last shutdown
+        Database.getLogFile().warmUp();
+        Database.getLogFile().recordHotPagesEvery(LogFile.HOT_PAGES_PERIOD_MS);
 
         String queryFile = null;
 
@@ -0,0 +1,47 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * PaxHeapFile is a HeapFile whose pages store their tuples column by column
+ * in the PaxHeapPage format. A page holds as many tuples as a HeapPage, and
+ * its header has the same layout, so only the page class differs.
+ * <p>
+ * Files in this format can be produced with
+ * {@link HeapFileEncoder#convertPax}.
+ *
+ * @see PaxHeapPage
+ */
+public class PaxHeapFile extends HeapFile {
+
+    /**
+     * Constructs a PAX heap file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this heap
+     *          file.
+     * @param td the schema of the tuples within this file.
+     */
+    public PaxHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    /**
+     * Constructs a PAX heap file backed by the specified file, whose pages are
+     * pageSize bytes long.
+     *
+     * @see HeapFile#HeapFile(File, TupleDesc, int)
+     */
+    public PaxHeapFile(File f, TupleDesc td, int pageSize) {
+        super(f, td, pageSize);
+    }
+
+    @Override
+    protected boolean readsPagesInPlace() {
+        return true;
+    }
+
+    @Override
+    protected TuplePage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new PaxHeapPage(pid, data);
+    }
+}
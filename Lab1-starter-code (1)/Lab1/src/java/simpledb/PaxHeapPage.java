@@ -0,0 +1,311 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * PaxHeapPage is a page of a PaxHeapFile. It holds the same number of
+ * fixed-size tuples as a HeapPage, with the same header bitmap of used
+ * slots, but lays the tuples out column by column (PAX): after the header
+ * comes one minipage per field, holding the values of that field for every
+ * slot of the page. The value of field j of slot i is at
+ * <p>
+ *      headerSize + numSlots * td.getFieldOffset(j) + i * fieldLength(j)
+ * <p>
+ * so evaluating a predicate on one column of every tuple only touches that
+ * column's minipage.
+ *
+ * @see PaxHeapFile
+ * @see HeapPage
+ */
+public class PaxHeapPage implements TuplePage {
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final int headerSize;
+    final int numSlots;
+    // the serialized page, in a frame of the BufferPool's FrameArena;
+    // insertTuple and deleteTuple update it in place
+    final ByteBuffer data;
+    private TransactionId dirtyingTransaction;
+
+    // the page as of the last setBeforeImage, or null if it has not been
+    // modified since
+    byte[] oldData;
+    private final Byte oldDataLock=new Byte((byte)0);
+
+    /**
+     * Create a PaxHeapPage from a set of bytes of data read from disk. The
+     * number of slots and header bytes is computed as for
+     * {@link HeapPage#HeapPage}.
+     */
+    public PaxHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        int pageSize = Database.getCatalog().getPageSize(id.getTableId());
+        this.numSlots = HeapPage.getNumTuples(td, pageSize);
+        this.headerSize = HeapPage.getHeaderSize(td, pageSize);
+        if (data.length < pageSize) {
+            throw new EOFException("page data is shorter than a page");
+        }
+        this.data = Database.getBufferPool().getFrameArena().copyOf(this, data, pageSize);
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public PaxHeapPage getBeforeImage(){
+        try {
+            byte[] oldDataRef = null;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData != null ? oldData : getPageData();
+            }
+            return new PaxHeapPage(pid,oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized(oldDataLock)
+        {
+        oldData = null;
+        }
+    }
+
+    /**
+     * Saves the contents of the page as its before image, unless the page
+     * has been modified since the last setBeforeImage.
+     *
+     * @see HeapPage#saveBeforeImage
+     */
+    private void saveBeforeImage() {
+        synchronized(oldDataLock)
+        {
+        if (oldData == null) {
+            oldData = getPageData();
+        }
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page; a copy
+     * of its frame.
+     *
+     * @see #PaxHeapPage
+     */
+    public byte[] getPageData() {
+        return FrameArena.toArray(data);
+    }
+
+    /**
+     * @return the offset in a page of the value of the specified field of
+     *   the specified slot
+     */
+    private static int getValueOffset(TupleDesc td, int numSlots, int headerSize, int slot, int field) {
+        return headerSize + numSlots * td.getFieldOffset(field) + slot * td.getFieldType(field).getLen();
+    }
+
+    /** Writes the fields of t into their minipages at the specified slot. */
+    private static void writeTuple(ByteBuffer data, TupleDesc td, int numSlots, int headerSize, int slot, Tuple t) {
+        for (int j = 0; j < td.numFields(); j++) {
+            td.getFieldType(j).write(t.getField(j), data,
+                    getValueOffset(td, numSlots, headerSize, slot, j));
+        }
+    }
+
+    /**
+     * Adds t to the first empty slot of a page in data, whose size is
+     * data.length. Used to build pages without going through the Catalog,
+     * e.g. by HeapFileEncoder.
+     *
+     * @return the slot of the tuple, or -1 if the page is full
+     */
+    static int appendTuple(byte[] data, TupleDesc td, Tuple t) {
+        int numSlots = (data.length * 8) / (td.getSize() * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+        for (int i = 0; i < numSlots; i++) {
+            if ((data[i / 8] & (1 << (i % 8))) == 0) {
+                writeTuple(ByteBuffer.wrap(data), td, numSlots, headerSize, i, t);
+                data[i / 8] |= (1 << (i % 8));
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns one field of the tuple in the specified slot, read from that
+     * field's minipage.
+     *
+     * @throws NoSuchElementException if the slot is empty
+     */
+    public Field getField(int slotId, int fieldIndex) {
+        if (!isSlotUsed(slotId)) {
+            throw new NoSuchElementException("slot " + slotId + " is empty");
+        }
+        return td.getFieldType(fieldIndex).parse(data,
+                getValueOffset(td, numSlots, headerSize, slotId, fieldIndex));
+    }
+
+    /** Decodes the tuple stored in the specified slot. */
+    private Tuple decodeTuple(int slot) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slot));
+        for (int j = 0; j < td.numFields(); j++) {
+            t.setField(j, td.getFieldType(j).parse(data,
+                    getValueOffset(td, numSlots, headerSize, slot, j)));
+        }
+        return t;
+    }
+
+    /**
+     * Returns the number of empty slots on this page.
+     */
+    public int getNumEmptySlots() {
+        int count = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return (data.get(i / 8) & (1 << (i % 8))) != 0;
+    }
+
+    // see TuplePage.java for javadocs
+    public boolean hasRoomFor(Tuple t) {
+        return hasRoom();
+    }
+
+    // see TuplePage.java for javadocs
+    public boolean hasRoom() {
+        return getNumEmptySlots() > 0;
+    }
+
+    /**
+     * Delete the specified tuple from the page by clearing its header bit.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()) || !isSlotUsed(rid.getTupleNumber())) {
+            throw new DbException("The tuple is not in this page or the slot is already empty.");
+        }
+        int slot = rid.getTupleNumber();
+        saveBeforeImage();
+        data.put(slot / 8, (byte) (data.get(slot / 8) & ~(1 << (slot % 8))));
+    }
+
+    /**
+     * Adds the specified tuple to the first empty slot of the page.
+     * @throws DbException if the page is full (no empty slots) or tupledesc
+     *         is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("TupleDesc mismatch.");
+        }
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                saveBeforeImage();
+                writeTuple(data, td, numSlots, headerSize, i, t);
+                data.put(i / 8, (byte) (data.get(i / 8) | (1 << (i % 8))));
+                t.setRecordId(new RecordId(pid, i));
+                return;
+            }
+        }
+        throw new DbException("Page is full. No empty slots available.");
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtyingTransaction = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirtyingTransaction;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return iterator(null);
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page that satisfy the
+     * specified predicate. The predicate is evaluated against the minipage
+     * of the field it refers to, and only matching tuples are assembled
+     * from the other minipages.
+     *
+     * @param p the predicate to filter on, or null to return all tuples
+     */
+    public Iterator<Tuple> iterator(Predicate p) {
+        // the slots in use when the iterator was created
+        final byte[] usedSlots = FrameArena.copyOfRange(data, 0, headerSize);
+        return new Iterator<Tuple>() {
+            // the next slot to look at
+            private int slot = advance(0);
+
+            /** Returns the first used, matching slot at or after i. */
+            private int advance(int i) {
+                while (i < numSlots && ((usedSlots[i / 8] & (1 << (i % 8))) == 0
+                        || p != null && !matches(i))) {
+                    i++;
+                }
+                return i;
+            }
+
+            private boolean matches(int i) {
+                Field f = td.getFieldType(p.getField()).parse(data,
+                        getValueOffset(td, numSlots, headerSize, i, p.getField()));
+                return f.compare(p.getOp(), p.getOperand());
+            }
+
+            public boolean hasNext() {
+                return slot < numSlots;
+            }
+
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = decodeTuple(slot);
+                slot = advance(slot + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
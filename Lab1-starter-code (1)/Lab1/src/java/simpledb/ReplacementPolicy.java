@@ -0,0 +1,98 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy chooses which page the BufferPool evicts when it is
+ * full. The BufferPool tells the policy which pages enter and leave it and
+ * which are referenced, and asks it for a victim among the pages it is
+ * allowed to evict.
+ * <p>
+ * A page enters the pool either because a transaction asked for it
+ * ({@link #pageAdded} followed by {@link #pageAccessed}) or because it was
+ * read ahead ({@link #pageAdded} alone), so policies can tell the two
+ * apart. Implementations must be thread-safe: the BufferPool calls
+ * pageAccessed without holding its own lock.
+ *
+ * @see BufferPool#BufferPool(int, long, ReplacementPolicy)
+ */
+public interface ReplacementPolicy {
+
+    /** Called when the specified page is added to the buffer pool. */
+    public void pageAdded(PageId pid);
+
+    /** Called each time a transaction asks for the specified cached page. */
+    public void pageAccessed(PageId pid);
+
+    /**
+     * Called when the specified page leaves the buffer pool, whether it was
+     * evicted or discarded.
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Called when the specified cached page becomes dirty. Dirty pages are
+     * not evictable until {@link #pageCleaned} is called for them, so a
+     * policy may leave them out of its search for a victim.
+     */
+    public default void pageDirtied(PageId pid) {
+    }
+
+    /** Called when the specified cached page, once dirty, is clean again. */
+    public default void pageCleaned(PageId pid) {
+    }
+
+    /**
+     * Chooses the page to evict. The page stays in the policy until
+     * {@link #pageRemoved} is called for it.
+     *
+     * @param evictable accepts the pages the buffer pool is allowed to
+     *   evict, i.e. those that are not dirty
+     * @return the page to evict, or null if no page can be evicted
+     */
+    public default PageId chooseVictim(java.util.function.Predicate<PageId> evictable) {
+        return chooseVictim(evictable, pid -> 0, 0);
+    }
+
+    /**
+     * Chooses the page to evict among the evictable pages of the lowest
+     * rank, in the order the policy would evict them, with a single pass
+     * over the pages. The BufferPool ranks pages by the quotas of their
+     * tables. The policy's state only changes as it would have to evict the
+     * page returned; nothing changes if no page is returned.
+     *
+     * @param evictable accepts the pages the buffer pool is allowed to
+     *   evict
+     * @param rank the rank of an evictable page; lower ranks go first
+     * @param best the lowest rank a page may have: the pass stops at the
+     *   first evictable page of that rank
+     * @return the page to evict, or null if no page can be evicted
+     */
+    public PageId chooseVictim(java.util.function.Predicate<PageId> evictable,
+            java.util.function.ToIntFunction<PageId> rank, int best);
+
+    /**
+     * Returns the pages in the policy, i.e. the cached pages, hottest
+     * first: the last ones are those the policy would evict first.
+     *
+     * @see BufferPool#getHotPages
+     */
+    public java.util.List<PageId> hottestPages();
+
+    /**
+     * Creates a policy by name, for a buffer pool of numPages pages.
+     *
+     * @param name clock, lru-k or 2q
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    public static ReplacementPolicy create(String name, int numPages) {
+        switch (name.toLowerCase()) {
+        case "clock":
+            return new ClockPolicy();
+        case "lru-k":
+            return new LruKPolicy(LruKPolicy.DEFAULT_K, numPages);
+        case "2q":
+            return new TwoQueuePolicy(numPages);
+        default:
+            throw new IllegalArgumentException("unknown replacement policy " + name);
+        }
+    }
+}
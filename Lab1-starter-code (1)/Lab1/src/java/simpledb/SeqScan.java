@@ -6,6 +6,10 @@ import java.util.*;
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
+ * <p>
+ * Predicates can be pushed down into the scan with {@link #addPredicate};
+ * the scan then only returns the tuples that satisfy all of them, and a
+ * HeapFile uses its zone map to skip pages that cannot match.
  */
 public class SeqScan implements OpIterator {
 
@@ -32,6 +36,7 @@ public class SeqScan implements OpIterator {
     private String tableAlias;
     private TupleDesc td;
     private DbFileIterator iterator;
+    private List<Predicate> predicates = new ArrayList<Predicate>();
 
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
         // Initialize the SeqScan with the specified TransactionId, table ID, and table alias.
@@ -73,6 +78,7 @@ public class SeqScan implements OpIterator {
         this.tableid = tableid;
         this.tableAlias = tableAlias;
         this.td = null;
+        this.predicates = new ArrayList<Predicate>();
         if (this.iterator != null) {
             this.iterator.close();
             this.iterator = null;
@@ -83,13 +89,88 @@ public class SeqScan implements OpIterator {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Pushes a predicate down into this scan, so that it only returns tuples
+     * that satisfy it. Takes effect the next time the scan is opened;
+     * predicates are dropped by {@link #reset}.
+     *
+     * @param p a predicate over the fields of the scanned table
+     */
+    public void addPredicate(Predicate p) {
+        predicates.add(p);
+    }
+
+    /** @return the predicates pushed down into this scan. */
+    public List<Predicate> getPredicates() {
+        return Collections.unmodifiableList(predicates);
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         this.td = Database.getCatalog().getTupleDesc(tableid);
         DbFile file = Database.getCatalog().getDatabaseFile(tableid);
-        this.iterator = file.iterator(tid);
+        if (predicates.isEmpty()) {
+            this.iterator = file.iterator(tid);
+        } else if (file instanceof HeapFile) {
+            this.iterator = ((HeapFile) file).iterator(tid, new ArrayList<Predicate>(predicates));
+        } else {
+            this.iterator = new FilteredIterator(file.iterator(tid), new ArrayList<Predicate>(predicates));
+        }
         this.iterator.open();
     }
 
+    /**
+     * Applies pushed-down predicates to the tuples of a DbFile that can't
+     * evaluate them itself.
+     */
+    private static class FilteredIterator implements DbFileIterator {
+        private final DbFileIterator child;
+        private final List<Predicate> predicates;
+        private Tuple next = null;
+
+        FilteredIterator(DbFileIterator child, List<Predicate> predicates) {
+            this.child = child;
+            this.predicates = predicates;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+            next = null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            while (next == null && child.hasNext()) {
+                Tuple t = child.next();
+                boolean matches = true;
+                for (Predicate p : predicates) {
+                    matches = matches && p.filter(t);
+                }
+                if (matches) {
+                    next = t;
+                }
+            }
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+            next = null;
+        }
+
+        public void close() {
+            child.close();
+            next = null;
+        }
+    }
+
     /**
      * Returns the TupleDesc with field names from the underlying HeapFile,
      * prefixed with the tableAlias string from the constructor. This prefix
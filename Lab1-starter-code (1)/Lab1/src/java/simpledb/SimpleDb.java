@@ -1,5 +1,7 @@
 package simpledb;
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Random;
 
 public class SimpleDb {
     public static void main (String args[])
@@ -7,6 +9,20 @@ public class SimpleDb {
         // convert a file
         if(args[0].equals("convert")) {
         try {
+            // -threads=N anywhere converts with N worker threads, and
+            // -pagesize=N writes pages of N bytes (see Catalog.loadSchema)
+            int threads = 1;
+            int pageSize = BufferPool.getPageSize();
+            ArrayList<String> rest = new ArrayList<String>();
+            for (String a : args) {
+                if (a.startsWith("-threads="))
+                    threads = Integer.parseInt(a.substring("-threads=".length()));
+                else if (a.startsWith("-pagesize="))
+                    pageSize = Integer.parseInt(a.substring("-pagesize=".length()));
+                else
+                    rest.add(a);
+            }
+            args = rest.toArray(new String[rest.size()]);
             if (args.length<3 || args.length>5){
                 System.err.println("Unexpected number of arguments to convert ");
                 return;
@@ -43,8 +59,12 @@ public class SimpleDb {
                     fieldSeparator=args[4].charAt(0);
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+            if (threads > 1)
+                HeapFileEncoder.convertParallel(sourceTxtFile,targetDatFile,
+                        pageSize,numOfAttributes,ts,fieldSeparator,threads);
+            else
+                HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
+                        pageSize,numOfAttributes,ts,fieldSeparator);
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -90,10 +110,166 @@ public class SimpleDb {
             }
 
         }
+        else if (args[0].equals("benchconvert")) {
+            // benchconvert rows columns [threads]: times convert and
+            // convertParallel on a generated file of random integers
+            if (args.length < 3 || args.length > 4) {
+                System.err.println("Usage: benchconvert rows columns [threads]");
+                return;
+            }
+            int rows = Integer.parseInt(args[1]);
+            int columns = Integer.parseInt(args[2]);
+            int threads = args.length == 4 ? Integer.parseInt(args[3])
+                    : Runtime.getRuntime().availableProcessors();
+            Type[] ts = new Type[columns];
+            for (int i = 0; i < columns; i++)
+                ts[i] = Type.INT_TYPE;
+
+            File input = File.createTempFile("bench", ".txt");
+            File output = File.createTempFile("bench", ".dat");
+            input.deleteOnExit();
+            output.deleteOnExit();
+            Random r = new Random(0);
+            BufferedWriter bw = new BufferedWriter(new FileWriter(input), 1 << 20);
+            for (int i = 0; i < rows; i++) {
+                for (int j = 0; j < columns; j++) {
+                    if (j > 0)
+                        bw.write(',');
+                    bw.write(Integer.toString(r.nextInt()));
+                }
+                bw.write('\n');
+            }
+            bw.close();
+            System.out.println("input: " + rows + " rows, " + input.length() / (1 << 20) + " MB");
+
+            for (int t : new int[] { 1, threads }) {
+                long start = System.nanoTime();
+                if (t == 1)
+                    HeapFileEncoder.convert(input, output, BufferPool.getPageSize(), columns, ts, ',');
+                else
+                    HeapFileEncoder.convertParallel(input, output, BufferPool.getPageSize(), columns, ts, ',', t);
+                double secs = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%s, %d thread(s): %.2f s, %.0f rows/s, %.1f MB/s%n",
+                        t == 1 ? "convert" : "convertParallel", t, secs, rows / secs,
+                        input.length() / secs / (1 << 20));
+            }
+            input.delete();
+            output.delete();
+        }
+        else if (args[0].equals("benchpolicy")) {
+            // benchpolicy [tablePages] [poolPages] [accesses]: hit ratio of
+            // each replacement policy on a skewed workload, where 80% of
+            // the accesses go to 20% of the pages and a full scan of the
+            // table runs every so often
+            int tablePages = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+            int poolPages = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+            int accesses = args.length > 3 ? Integer.parseInt(args[3]) : 1000000;
+            HeapFile hf = createBenchTable(tablePages);
+
+            int hotPages = Math.max(1, tablePages / 5);
+            for (String name : new String[] { "clock", "lru-k", "2q" }) {
+                BufferPool bp = Database.resetBufferPool(new BufferPool(poolPages, 0,
+                        ReplacementPolicy.create(name, poolPages)));
+                // the same sequence of accesses for every policy
+                Random r = new Random(0);
+                TransactionId tid = new TransactionId();
+                long start = System.nanoTime();
+                for (int i = 0; i < accesses; ) {
+                    if (r.nextInt(accesses / 10 + 1) == 0) {
+                        for (int p = 0; p < tablePages && i < accesses; p++, i++)
+                            bp.getPage(tid, new HeapPageId(hf.getId(), p), Permissions.READ_ONLY);
+                    } else {
+                        int p = r.nextInt(5) < 4 ? r.nextInt(hotPages)
+                                : hotPages + r.nextInt(Math.max(1, tablePages - hotPages));
+                        bp.getPage(tid, new HeapPageId(hf.getId(), Math.min(p, tablePages - 1)),
+                                Permissions.READ_ONLY);
+                        i++;
+                    }
+                }
+                double secs = (System.nanoTime() - start) / 1e9;
+                bp.transactionComplete(tid);
+                System.out.printf("%-6s hit ratio %.3f (%d hits, %d misses), %.2f s%n", name,
+                        (double) bp.getHits() / (bp.getHits() + bp.getMisses()),
+                        bp.getHits(), bp.getMisses(), secs);
+            }
+            hf.getFile().delete();
+        }
+        else if (args[0].equals("benchshards")) {
+            // benchshards [threads] [poolPages] [accesses]: getPage
+            // throughput of threads threads with the pool in one shard and
+            // in one shard per thread; the table is twice the size of the
+            // pool, and 80% of the accesses go to a quarter of it
+            final int threads = args.length > 1 ? Integer.parseInt(args[1])
+                    : Runtime.getRuntime().availableProcessors();
+            final int poolPages = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+            final int accesses = args.length > 3 ? Integer.parseInt(args[3]) : 1000000;
+            final int tablePages = 2 * poolPages;
+            final HeapFile hf = createBenchTable(tablePages);
+
+            for (int shards : new int[] { 1, Math.min(threads, poolPages) }) {
+                final BufferPool bp = Database.resetBufferPool(new BufferPool(poolPages, 0,
+                        "clock", shards));
+                Thread[] workers = new Thread[threads];
+                final Throwable[] failure = new Throwable[1];
+                for (int t = 0; t < threads; t++) {
+                    final Random r = new Random(t);
+                    workers[t] = new Thread(() -> {
+                        TransactionId tid = new TransactionId();
+                        try {
+                            for (int i = 0; i < accesses; i++) {
+                                int p = r.nextInt(5) < 4 ? r.nextInt(tablePages / 4)
+                                        : r.nextInt(tablePages);
+                                bp.getPage(tid, new HeapPageId(hf.getId(), p), Permissions.READ_ONLY);
+                            }
+                        } catch (Exception e) {
+                            failure[0] = e;
+                        }
+                    });
+                }
+                long start = System.nanoTime();
+                for (Thread w : workers)
+                    w.start();
+                for (Thread w : workers) {
+                    try {
+                        w.join();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                double secs = (System.nanoTime() - start) / 1e9;
+                if (failure[0] != null)
+                    throw new RuntimeException(failure[0]);
+                System.out.printf("%d thread(s), %d shard(s): %.2f s, %.0f getPage/s, hit ratio %.3f%n",
+                        threads, shards, secs, (double) threads * accesses / secs,
+                        (double) bp.getHits() / (bp.getHits() + bp.getMisses()));
+            }
+            hf.getFile().delete();
+        }
         else {
             System.err.println("Unknown command: " + args[0]);
             System.exit(1);
         }
     }
 
+    /**
+     * Creates a table of tablePages full pages of single int tuples in a
+     * temporary file, and adds it to the catalog.
+     */
+    private static HeapFile createBenchTable(int tablePages) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int perPage = HeapPage.getNumTuples(Utility.getTupleDesc(1), pageSize);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < tablePages * perPage; i++) {
+            ArrayList<Integer> tup = new ArrayList<Integer>();
+            tup.add(i);
+            tuples.add(tup);
+        }
+        File output = File.createTempFile("bench", ".dat");
+        output.deleteOnExit();
+        HeapFileEncoder.convert(tuples, output, pageSize, 1);
+        HeapFile hf = new HeapFile(output, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(hf);
+        return hf;
+    }
+
 }
@@ -0,0 +1,56 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * SlottedHeapFile is a HeapFile whose pages store variable-length records
+ * in the SlottedHeapPage format. Tables whose STRING_TYPE columns hold short
+ * strings fit many more tuples on a page than with HeapPage, which always
+ * reserves STRING_LEN bytes per string.
+ * <p>
+ * Files in this format can be produced with
+ * {@link HeapFileEncoder#convertSlotted}.
+ *
+ * @see SlottedHeapPage
+ */
+public class SlottedHeapFile extends HeapFile {
+
+    /**
+     * Constructs a slotted heap file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this heap
+     *          file.
+     * @param td the schema of the tuples within this file.
+     */
+    public SlottedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    /**
+     * Constructs a slotted heap file backed by the specified file, whose pages are
+     * pageSize bytes long.
+     *
+     * @see HeapFile#HeapFile(File, TupleDesc, int)
+     */
+    public SlottedHeapFile(File f, TupleDesc td, int pageSize) {
+        super(f, td, pageSize);
+    }
+
+    @Override
+    protected boolean readsPagesInPlace() {
+        return true;
+    }
+
+    @Override
+    protected TuplePage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new SlottedHeapPage(pid, data);
+    }
+
+    @Override
+    protected boolean pageHasRoomOnDisk(int pageNo) throws IOException {
+        int pageSize = getPageSize();
+        byte[] header = new byte[SlottedHeapPage.HEADER_SIZE];
+        Database.getFileHandleManager().readFully(getFile(), header, (long) pageNo * pageSize);
+        return SlottedHeapPage.hasRoom(header, pageSize, getTupleDesc());
+    }
+}
@@ -0,0 +1,473 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * SlottedHeapPage is a page of a SlottedHeapFile. Unlike HeapPage, which
+ * gives every tuple a fixed-size slot, it stores variable-length records, so
+ * STRING_TYPE fields only take as many bytes as the string they hold.
+ * <p>
+ * The page starts with a header of three ints: the number of entries in the
+ * slot directory, the number of bytes at the end of the page used by
+ * records (including the space of deleted records that has not been
+ * reclaimed yet), and the number of bytes used by live records. The slot
+ * directory follows the header and grows towards the end of the page; each
+ * entry is an int offset and an int length, and an offset of 0 marks an
+ * empty slot. Records are allocated from the end of the page backwards.
+ * <p>
+ * Within a record, INT_TYPE fields take 4 bytes and STRING_TYPE fields take a
+ * 2 byte length followed by the bytes of the string. An all-zero page is a
+ * valid, empty page.
+ * <p>
+ * The RecordId of a tuple is its slot number, which does not change when
+ * the page compacts its records to reclaim the space of deleted ones.
+ *
+ * @see SlottedHeapFile
+ * @see HeapPage
+ */
+public class SlottedHeapPage implements TuplePage {
+
+    /** Size, in bytes, of the page header. */
+    static final int HEADER_SIZE = 12;
+    /** Size, in bytes, of a slot directory entry. */
+    static final int SLOT_SIZE = 8;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    // the serialized page, in a frame of the BufferPool's FrameArena;
+    // insertTuple and deleteTuple update it in place
+    final ByteBuffer data;
+    private TransactionId dirtyingTransaction;
+
+    // the page as of the last setBeforeImage, or null if it has not been
+    // modified since
+    byte[] oldData;
+    private final Byte oldDataLock=new Byte((byte)0);
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk.
+     * The format of the page is described in the class comment.
+     *
+     * @throws IOException if data is not a valid page
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        int pageSize = Database.getCatalog().getPageSize(id.getTableId());
+        if (data.length < pageSize) {
+            throw new EOFException("page data is shorter than a page");
+        }
+        this.data = Database.getBufferPool().getFrameArena().copyOf(this, data, pageSize);
+        int numSlots = getNumSlots();
+        int heapBytes = getHeapBytes();
+        if (numSlots < 0 || heapBytes < 0
+                || HEADER_SIZE + (long) numSlots * SLOT_SIZE + heapBytes > pageSize) {
+            throw new IOException("corrupt slotted page " + id);
+        }
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedHeapPage getBeforeImage(){
+        try {
+            byte[] oldDataRef = null;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData != null ? oldData : getPageData();
+            }
+            return new SlottedHeapPage(pid,oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized(oldDataLock)
+        {
+        oldData = null;
+        }
+    }
+
+    /**
+     * Saves the contents of the page as its before image, unless the page
+     * has been modified since the last setBeforeImage.
+     *
+     * @see HeapPage#saveBeforeImage
+     */
+    private void saveBeforeImage() {
+        synchronized(oldDataLock)
+        {
+        if (oldData == null) {
+            oldData = getPageData();
+        }
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page; a copy
+     * of its frame.
+     *
+     * @see #SlottedHeapPage
+     */
+    public byte[] getPageData() {
+        return FrameArena.toArray(data);
+    }
+
+    /** @return the number of entries in the slot directory. */
+    public int getNumSlots() {
+        return data.getInt(0);
+    }
+
+    private int getHeapBytes() {
+        return data.getInt(4);
+    }
+
+    private int getLiveBytes() {
+        return data.getInt(8);
+    }
+
+    private int getSlotOffset(int slot) {
+        return data.getInt(HEADER_SIZE + slot * SLOT_SIZE);
+    }
+
+    private int getSlotLength(int slot) {
+        return data.getInt(HEADER_SIZE + slot * SLOT_SIZE + 4);
+    }
+
+    private void setSlot(int slot, int offset, int length) {
+        data.putInt(HEADER_SIZE + slot * SLOT_SIZE, offset);
+        data.putInt(HEADER_SIZE + slot * SLOT_SIZE + 4, length);
+    }
+
+    /**
+     * @return the number of bytes on the page available to new records and
+     *   slot directory entries, including the space of deleted records
+     */
+    public int getFreeSpace() {
+        return data.capacity() - HEADER_SIZE - getNumSlots() * SLOT_SIZE - getLiveBytes();
+    }
+
+    private static int freeSpace(byte[] header, int pageSize) {
+        int numSlots = Type.readInt(header, 0);
+        int liveBytes = Type.readInt(header, 8);
+        return pageSize - HEADER_SIZE - numSlots * SLOT_SIZE - liveBytes;
+    }
+
+    /**
+     * Checks a page header, as stored at the start of the page data, for
+     * room for a tuple of the largest size the schema allows.
+     *
+     * @param header at least the first HEADER_SIZE bytes of the page
+     * @param pageSize the size of the page
+     * @param td the schema of the tuples on the page
+     */
+    static boolean hasRoom(byte[] header, int pageSize, TupleDesc td) {
+        return freeSpace(header, pageSize) >= getMaxRecordSize(td) + SLOT_SIZE;
+    }
+
+    /**
+     * @return the size, in bytes, of the largest record with the specified
+     *   schema
+     */
+    static int getMaxRecordSize(TupleDesc td) {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            size += td.getFieldType(i) == Type.STRING_TYPE ? 2 + Type.STRING_LEN : td.getFieldType(i).getLen();
+        }
+        return size;
+    }
+
+    /** @return the size, in bytes, of the record storing t. */
+    static int getRecordSize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                size += 2 + Math.min(((StringField) t.getField(i)).getValue().length(), Type.STRING_LEN);
+            } else {
+                size += td.getFieldType(i).getLen();
+            }
+        }
+        return size;
+    }
+
+    /** Writes the record storing t into data, starting at offset. */
+    private static void writeRecord(Tuple t, ByteBuffer data, int offset) {
+        TupleDesc td = t.getTupleDesc();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                String s = ((StringField) t.getField(i)).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                data.putShort(offset, (short) len);
+                // like DataOutputStream.writeBytes, keep the low byte of each char
+                for (int j = 0; j < len; j++) {
+                    data.put(offset + 2 + j, (byte) s.charAt(j));
+                }
+                offset += 2 + len;
+            } else {
+                td.getFieldType(i).write(t.getField(i), data, offset);
+                offset += td.getFieldType(i).getLen();
+            }
+        }
+    }
+
+    /**
+     * Adds a record for t to the page in data, using a new slot and the free
+     * space between the slot directory and the records. Used to build pages
+     * without going through the Catalog, e.g. by HeapFileEncoder.
+     *
+     * @param data the page to add the record to
+     * @param t the tuple to store
+     * @return the slot of the new record, or -1 if it does not fit
+     */
+    static int appendRecord(byte[] data, Tuple t) {
+        int numSlots = Type.readInt(data, 0);
+        int heapBytes = Type.readInt(data, 4);
+        int size = getRecordSize(t);
+        if (data.length - heapBytes - HEADER_SIZE - (numSlots + 1) * SLOT_SIZE < size) {
+            return -1;
+        }
+        int offset = data.length - heapBytes - size;
+        writeRecord(t, ByteBuffer.wrap(data), offset);
+        Type.writeInt(offset, data, HEADER_SIZE + numSlots * SLOT_SIZE);
+        Type.writeInt(size, data, HEADER_SIZE + numSlots * SLOT_SIZE + 4);
+        Type.writeInt(numSlots + 1, data, 0);
+        Type.writeInt(heapBytes + size, data, 4);
+        Type.writeInt(Type.readInt(data, 8) + size, data, 8);
+        return numSlots;
+    }
+
+    /**
+     * Moves the live records to the end of the page, so that the space of
+     * deleted records becomes part of the free space before them.
+     */
+    private void compact() {
+        byte[] old = getPageData();
+        ByteBuffer view = data.duplicate();
+        int end = data.capacity();
+        for (int i = 0; i < getNumSlots(); i++) {
+            int offset = getSlotOffset(i);
+            if (offset != 0) {
+                int length = getSlotLength(i);
+                end -= length;
+                view.position(end);
+                view.put(old, offset, length);
+                setSlot(i, end, length);
+            }
+        }
+        data.putInt(4, data.capacity() - end);
+    }
+
+    /** @return the offset of the specified field of the record at offset. */
+    private int getFieldOffset(int offset, int fieldIndex) {
+        for (int i = 0; i < fieldIndex; i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                offset += 2 + (data.getShort(offset) & 0xffff);
+            } else {
+                offset += td.getFieldType(i).getLen();
+            }
+        }
+        return offset;
+    }
+
+    /** Decodes the field of the specified type stored at offset. */
+    private Field readField(Type type, int offset) {
+        if (type == Type.STRING_TYPE) {
+            int len = data.getShort(offset) & 0xffff;
+            return new StringField(new String(FrameArena.copyOfRange(data, offset + 2, len)), Type.STRING_LEN);
+        }
+        return type.parse(data, offset);
+    }
+
+    /** Decodes the tuple stored in the specified slot, at offset. */
+    private Tuple decodeTuple(int slot, int offset) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slot));
+        for (int j = 0; j < td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            t.setField(j, readField(type, offset));
+            offset += type == Type.STRING_TYPE ? 2 + (data.getShort(offset) & 0xffff)
+                    : type.getLen();
+        }
+        return t;
+    }
+
+    /**
+     * Returns one field of the tuple in the specified slot, without
+     * materializing the rest of the tuple.
+     *
+     * @throws NoSuchElementException if the slot is empty
+     */
+    public Field getField(int slotId, int fieldIndex) {
+        if (!isSlotUsed(slotId)) {
+            throw new NoSuchElementException("slot " + slotId + " is empty");
+        }
+        return readField(td.getFieldType(fieldIndex), getFieldOffset(getSlotOffset(slotId), fieldIndex));
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < getNumSlots() && getSlotOffset(i) != 0;
+    }
+
+    // see TuplePage.java for javadocs
+    public boolean hasRoomFor(Tuple t) {
+        int slotBytes = findFreeSlot() < getNumSlots() ? 0 : SLOT_SIZE;
+        return getFreeSpace() >= getRecordSize(t) + slotBytes;
+    }
+
+    // see TuplePage.java for javadocs
+    public boolean hasRoom() {
+        return getFreeSpace() >= getMaxRecordSize(td) + SLOT_SIZE;
+    }
+
+    /** @return the first empty slot, or getNumSlots() if there is none. */
+    private int findFreeSlot() {
+        int numSlots = getNumSlots();
+        for (int i = 0; i < numSlots; i++) {
+            if (getSlotOffset(i) == 0) {
+                return i;
+            }
+        }
+        return numSlots;
+    }
+
+    /**
+     * Delete the specified tuple from the page. The space of its record is
+     * reclaimed the next time the page is compacted.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()) || !isSlotUsed(rid.getTupleNumber())) {
+            throw new DbException("The tuple is not in this page or the slot is already empty.");
+        }
+        int slot = rid.getTupleNumber();
+        saveBeforeImage();
+        data.putInt(8, getLiveBytes() - getSlotLength(slot));
+        setSlot(slot, 0, 0);
+    }
+
+    /**
+     * Adds the specified tuple to the page, reusing an empty slot if there
+     * is one and compacting the page if its free space is fragmented.
+     * @throws DbException if the tuple does not fit or tupledesc is
+     *         mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("TupleDesc mismatch.");
+        }
+        if (!hasRoomFor(t)) {
+            throw new DbException("Page is full. No room for the tuple.");
+        }
+        saveBeforeImage();
+        int numSlots = getNumSlots();
+        int slot = findFreeSlot();
+        int size = getRecordSize(t);
+        int slotBytes = slot < numSlots ? 0 : SLOT_SIZE;
+        if (data.capacity() - getHeapBytes() - HEADER_SIZE - numSlots * SLOT_SIZE < size + slotBytes) {
+            compact();
+        }
+        if (slot == numSlots) {
+            data.putInt(0, numSlots + 1);
+        }
+        int heapBytes = getHeapBytes() + size;
+        int offset = data.capacity() - heapBytes;
+        writeRecord(t, data, offset);
+        setSlot(slot, offset, size);
+        data.putInt(4, heapBytes);
+        data.putInt(8, getLiveBytes() + size);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtyingTransaction = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirtyingTransaction;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return iterator(null);
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page that satisfy the
+     * specified predicate, which is evaluated on the single field it refers
+     * to before the tuple is materialized. The iterator covers the slots
+     * that existed when it was created, and skips tuples deleted since.
+     *
+     * @param p the predicate to filter on, or null to return all tuples
+     */
+    public Iterator<Tuple> iterator(Predicate p) {
+        final int numSlots = getNumSlots();
+        return new Iterator<Tuple>() {
+            // the next slot to look at
+            private int slot = 0;
+            private Tuple next = advance();
+
+            /** Decodes the next used, matching tuple, or returns null. */
+            private Tuple advance() {
+                while (slot < numSlots) {
+                    int i = slot++;
+                    int offset = getSlotOffset(i);
+                    if (offset == 0) {
+                        continue;
+                    }
+                    if (p != null && !readField(td.getFieldType(p.getField()),
+                            getFieldOffset(offset, p.getField())).compare(p.getOp(), p.getOperand())) {
+                        continue;
+                    }
+                    return decodeTuple(i, offset);
+                }
+                return null;
+            }
+
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            public Tuple next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = next;
+                next = advance();
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -47,8 +47,9 @@ public class Transaction {
             if (abort) {
                 Database.getLogFile().logAbort(tid); //does rollback too
             } else {
-                //write all the dirty pages for this transaction out
-                Database.getBufferPool().flushPages(tid);
+                //write all the dirty pages for this transaction out, or log
+                //them for the page cleaner to write
+                Database.getBufferPool().commitPages(tid);
                 Database.getLogFile().logCommit(tid);
             }
 
@@ -39,6 +39,9 @@ public class TupleDesc implements Serializable {
 
     private ArrayList<TupleDesc.TDItem> tditems;
 
+    // byte offset of each field within a serialized tuple; computed on first use
+    private transient int[] fieldOffsets;
+
 
     /**
      * @return
@@ -161,6 +164,28 @@ public class TupleDesc implements Serializable {
         return size;   
          }
 
+    /**
+     * Gets the offset of the ith field within a serialized tuple, i.e. the
+     * sum of the sizes of the fields before it.
+     *
+     * @param i
+     *            The index of the field. It must be a valid index.
+     * @return the offset, in bytes, of the ith field
+     */
+    public int getFieldOffset(int i) {
+        int[] offsets = fieldOffsets;
+        if (offsets == null) {
+            offsets = new int[tditems.size()];
+            int offset = 0;
+            for (int j = 0; j < offsets.length; j++) {
+                offsets[j] = offset;
+                offset += tditems.get(j).fieldType.getLen();
+            }
+            fieldOffsets = offsets;
+        }
+        return offsets[i];
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
@@ -0,0 +1,55 @@
+package simpledb;
+
+import java.util.Iterator;
+
+/**
+ * TuplePage is the interface implemented by the pages of a HeapFile. It is
+ * what HeapFile needs from a page to scan, insert and delete tuples, so that
+ * HeapFile subclasses can store tuples in a different page format.
+ *
+ * @see HeapFile#createPage
+ * @see HeapPage
+ * @see SlottedHeapPage
+ */
+public interface TuplePage extends Page {
+
+    /**
+     * Adds the specified tuple to the page; the tuple's RecordId is updated
+     * to reflect that it is now stored on this page.
+     *
+     * @throws DbException if the tuple does not fit on the page, or its
+     *   TupleDesc does not match the page's
+     */
+    public void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Deletes the specified tuple from the page.
+     *
+     * @throws DbException if the tuple is not on this page, or its slot is
+     *   already empty
+     */
+    public void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * @return true if the specified tuple would fit on the page
+     */
+    public boolean hasRoomFor(Tuple t);
+
+    /**
+     * @return true if any tuple of the page's schema would fit on the page.
+     *   HeapFile records this in its FreeSpaceMap.
+     */
+    public boolean hasRoom();
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     *   this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator();
+
+    /**
+     * @param p the predicate to filter on, or null to return all tuples
+     * @return an iterator over the tuples on this page that satisfy p
+     */
+    public Iterator<Tuple> iterator(Predicate p);
+}
@@ -0,0 +1,88 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TwoQueuePolicy implements the full 2Q algorithm. Pages enter a FIFO queue,
+ * A1in, and are evicted from it without disturbing the pages in Am, an LRU
+ * queue of pages that have proven to be hot. The ids of pages evicted from
+ * A1in are remembered in a ghost queue, A1out; a page that is read again
+ * while its id is still in A1out goes straight into Am. Pages only touched
+ * by a scan therefore pass through A1in and never push hot pages out.
+ * <p>
+ * A1in is kept to a quarter of the buffer pool and A1out to half of it, the
+ * sizes suggested by the authors. Victims are found in O(1), apart from
+ * skipping pages the buffer pool may not evict.
+ *
+ * @Threadsafe
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+
+    private final int maxIn;
+    private final int maxOut;
+    // pages seen once, oldest first
+    private final LinkedHashSet<PageId> in = new LinkedHashSet<>();
+    // ids of pages recently evicted from in, oldest first
+    private final LinkedHashSet<PageId> out = new LinkedHashSet<>();
+    // hot pages, least recently accessed first
+    private final LinkedHashMap<PageId, Boolean> main = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Creates a policy for a buffer pool of numPages pages. */
+    public TwoQueuePolicy(int numPages) {
+        this.maxIn = Math.max(1, numPages / 4);
+        this.maxOut = Math.max(1, numPages / 2);
+    }
+
+    public synchronized void pageAdded(PageId pid) {
+        if (in.contains(pid) || main.containsKey(pid)) {
+            return;
+        }
+        if (out.remove(pid)) {
+            main.put(pid, Boolean.TRUE);
+        } else {
+            in.add(pid);
+        }
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        // accesses to pages in A1in are correlated with the first one and do
+        // not make the page hot; accesses to pages in Am refresh them
+        main.get(pid);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        if (in.remove(pid)) {
+            out.add(pid);
+            if (out.size() > maxOut) {
+                Iterator<PageId> it = out.iterator();
+                it.next();
+                it.remove();
+            }
+        } else {
+            main.remove(pid);
+        }
+    }
+
+    public synchronized PageId chooseVictim(java.util.function.Predicate<PageId> evictable,
+            java.util.function.ToIntFunction<PageId> rank, int best) {
+        // take from A1in while it is over its share, otherwise from Am, and
+        // from the other queue if no page of the first can be evicted
+        Collection<PageId> first = in.size() > maxIn || main.isEmpty() ? in : main.keySet();
+        Collection<PageId> second = first == in ? main.keySet() : in;
+        Victim victim = new Victim(evictable, rank, best);
+        if (!victim.consider(first)) {
+            victim.consider(second);
+        }
+        return victim.pid;
+    }
+
+    /** Pages in Am come first, then those in A1in, most recent first. */
+    public synchronized List<PageId> hottestPages() {
+        List<PageId> hottest = new ArrayList<>(main.keySet());
+        Collections.reverse(hottest);
+        List<PageId> recent = new ArrayList<>(in);
+        Collections.reverse(recent);
+        hottest.addAll(recent);
+        return hottest;
+    }
+}
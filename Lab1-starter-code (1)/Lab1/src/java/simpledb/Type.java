@@ -2,6 +2,8 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +26,26 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(byte[] data, int offset) {
+            return new IntField(readInt(data, offset));
+        }
+
+        @Override
+        public void write(Field f, byte[] data, int offset) {
+            writeInt(((IntField) f).getValue(), data, offset);
+        }
+
+        @Override
+        public Field parse(ByteBuffer data, int offset) {
+            return new IntField(data.getInt(offset));
+        }
+
+        @Override
+        public void write(Field f, ByteBuffer data, int offset) {
+            data.putInt(offset, ((IntField) f).getValue());
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,6 +64,46 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(byte[] data, int offset) {
+            int strLen = readInt(data, offset);
+            return new StringField(new String(data, offset + 4, strLen), STRING_LEN);
+        }
+
+        @Override
+        public void write(Field f, byte[] data, int offset) {
+            String s = ((StringField) f).getValue();
+            int strLen = Math.min(s.length(), STRING_LEN);
+            writeInt(strLen, data, offset);
+            // like DataOutputStream.writeBytes, keep the low byte of each char
+            for (int i = 0; i < strLen; i++) {
+                data[offset + 4 + i] = (byte) s.charAt(i);
+            }
+            Arrays.fill(data, offset + 4 + strLen, offset + getLen(), (byte) 0);
+        }
+
+        @Override
+        public Field parse(ByteBuffer data, int offset) {
+            byte[] bs = new byte[data.getInt(offset)];
+            for (int i = 0; i < bs.length; i++) {
+                bs[i] = data.get(offset + 4 + i);
+            }
+            return new StringField(new String(bs), STRING_LEN);
+        }
+
+        @Override
+        public void write(Field f, ByteBuffer data, int offset) {
+            String s = ((StringField) f).getValue();
+            int strLen = Math.min(s.length(), STRING_LEN);
+            data.putInt(offset, strLen);
+            for (int i = 0; i < strLen; i++) {
+                data.put(offset + 4 + i, (byte) s.charAt(i));
+            }
+            for (int i = offset + 4 + strLen; i < offset + getLen(); i++) {
+                data.put(i, (byte) 0);
+            }
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +122,49 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object, decoded directly
+   *   from the getLen() bytes of data starting at offset, in the same format
+   *   as {@link #parse(DataInputStream)} reads.
+   * @param data the bytes to decode from
+   * @param offset the index of the first byte of the field in data
+   */
+    public abstract Field parse(byte[] data, int offset);
+
+  /**
+   * Writes the specified field, which must be of this type, into the getLen()
+   * bytes of data starting at offset, in the same format as
+   * {@link Field#serialize} writes.
+   * @param f the field to write
+   * @param data the bytes to write into
+   * @param offset the index of the first byte of the field in data
+   */
+    public abstract void write(Field f, byte[] data, int offset);
+
+  /**
+   * Like {@link #parse(byte[], int)}, but decodes the field from a page
+   * frame, such as one of a {@link FrameArena}.
+   */
+    public abstract Field parse(ByteBuffer data, int offset);
+
+  /**
+   * Like {@link #write(Field, byte[], int)}, but writes the field into a
+   * page frame, such as one of a {@link FrameArena}.
+   */
+    public abstract void write(Field f, ByteBuffer data, int offset);
+
+    /** Reads a big-endian int, as written by DataOutputStream.writeInt. */
+    static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
+    /** Writes a big-endian int, as DataOutputStream.writeInt does. */
+    static void writeInt(int v, byte[] data, int offset) {
+        data[offset] = (byte) (v >>> 24);
+        data[offset + 1] = (byte) (v >>> 16);
+        data[offset + 2] = (byte) (v >>> 8);
+        data[offset + 3] = (byte) v;
+    }
+
 }
@@ -0,0 +1,200 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * Vacuum compacts a HeapFile while it stays online, so that after heavy
+ * deletes the file shrinks back towards the size of its live data and scans
+ * read proportionally fewer pages.
+ * <p>
+ * Work is done in small steps. Each step runs {@link HeapFile#compact} on a
+ * few pages at the end of the file in its own transaction, which moves
+ * their tuples into empty slots of earlier pages through the BufferPool,
+ * commits it, and then truncates the pages it emptied with
+ * {@link HeapFile#truncateEmptyPages}. Steps can be run by the caller, or
+ * by a background thread started with {@link #start}.
+ * <p>
+ * Moved tuples get new RecordIds. Nothing else in the database refers to
+ * the RecordIds of a HeapFile (B+tree files store their own tuples), so
+ * there is nothing to rewrite.
+ * <p>
+ * A step does nothing while an iterator over the file is open, and leaves
+ * pages with another transaction's uncommitted changes alone; such pages
+ * at the end of the file stay until a later step. An iterator that is
+ * never closed keeps every later step from doing anything, so once steps
+ * have been skipped for {@link #SKIP_WARNING_MILLIS} the vacuum reports
+ * it on System.err, and {@link #getSkippedSteps} tells how many were.
+ *
+ * @see HeapFile#compact
+ * @Threadsafe
+ */
+public class Vacuum implements Runnable {
+
+    /** Default number of pages each step empties. */
+    public static final int DEFAULT_PAGES_PER_STEP = 16;
+
+    /** Default pause, in milliseconds, between background steps. */
+    public static final long DEFAULT_INTERVAL_MILLIS = 1000;
+
+    /**
+     * How long, in milliseconds, steps are skipped because iterators over
+     * the file are open before the vacuum reports it.
+     */
+    public static final long SKIP_WARNING_MILLIS = 60 * 1000;
+
+    private final HeapFile file;
+    private final int pagesPerStep;
+    private final long intervalMillis;
+
+    // the background thread, if one is running
+    private Thread thread = null;
+    private volatile boolean stopping = false;
+    // the steps skipped in a row because of open iterators, when the first
+    // of them was, and whether they have been reported
+    private int skippedSteps = 0;
+    private long skippingSince = 0;
+    private boolean skipReported = false;
+
+    /**
+     * Creates a vacuum for the specified file with the default step size
+     * and interval.
+     */
+    public Vacuum(HeapFile file) {
+        this(file, DEFAULT_PAGES_PER_STEP, DEFAULT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Creates a vacuum for the specified file.
+     *
+     * @param file the file to compact
+     * @param pagesPerStep the maximum number of pages each step empties
+     * @param intervalMillis the pause between background steps
+     */
+    public Vacuum(HeapFile file, int pagesPerStep, long intervalMillis) {
+        if (pagesPerStep < 1) {
+            throw new IllegalArgumentException("pagesPerStep must be positive");
+        }
+        this.file = file;
+        this.pagesPerStep = pagesPerStep;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Runs one step: moves the tuples off up to pagesPerStep pages at the
+     * end of the file in a new transaction, commits it, and truncates the
+     * file. If moving the tuples fails, the transaction is aborted.
+     *
+     * @return the number of pages removed from the file
+     */
+    public int step() throws DbException, IOException, TransactionAbortedException {
+        Transaction t = new Transaction();
+        t.start();
+        boolean committed = false;
+        try {
+            skipped(file.compact(t.getId(), pagesPerStep) < 0);
+            t.commit();
+            committed = true;
+        } finally {
+            if (!committed) {
+                t.abort();
+            }
+        }
+        return file.truncateEmptyPages();
+    }
+
+    /**
+     * Counts a step that was skipped, or not, because iterators over the
+     * file were open, and reports steps skipped for too long.
+     */
+    private synchronized void skipped(boolean skipped) {
+        if (!skipped) {
+            skippedSteps = 0;
+            skipReported = false;
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (skippedSteps++ == 0) {
+            skippingSince = now;
+        }
+        if (!skipReported && now - skippingSince >= SKIP_WARNING_MILLIS) {
+            skipReported = true;
+            System.err.println("Vacuum: " + file.getFile().getName() + " has not been compacted for "
+                    + (now - skippingSince) / 1000 + "s (" + skippedSteps + " steps) because"
+                    + " iterators over it are open; an iterator that is never closed stops"
+                    + " the file from being compacted");
+        }
+    }
+
+    /**
+     * @return the number of the latest steps that did nothing because
+     *   iterators over the file were open; 0 if the latest step was not
+     *   skipped
+     */
+    public synchronized int getSkippedSteps() {
+        return skippedSteps;
+    }
+
+    /**
+     * Runs steps until one removes no pages.
+     *
+     * @return the number of pages removed from the file
+     */
+    public int runToCompletion() throws DbException, IOException, TransactionAbortedException {
+        int removed = 0;
+        int n;
+        while ((n = step()) > 0) {
+            removed += n;
+        }
+        return removed;
+    }
+
+    /**
+     * Runs steps until {@link #stop} is called, pausing intervalMillis
+     * between steps, and for longer when there is nothing to do.
+     */
+    public void run() {
+        while (!stopping) {
+            int removed;
+            try {
+                removed = step();
+            } catch (DbException | IOException | TransactionAbortedException e) {
+                System.err.println("Vacuum: step on " + file.getFile().getName() + " failed: " + e);
+                e.printStackTrace();
+                removed = 0;
+            }
+            synchronized (this) {
+                if (!stopping) {
+                    try {
+                        wait(removed > 0 ? intervalMillis : 10 * intervalMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /** Starts running steps in a background daemon thread. */
+    public synchronized void start() {
+        if (thread == null) {
+            stopping = false;
+            thread = new Thread(this, "simpledb-vacuum-" + file.getFile().getName());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /** Stops the background thread, and waits for it to finish its step. */
+    public void stop() throws InterruptedException {
+        Thread t;
+        synchronized (this) {
+            t = thread;
+            thread = null;
+            stopping = true;
+            notifyAll();
+        }
+        if (t != null) {
+            t.join();
+        }
+    }
+}
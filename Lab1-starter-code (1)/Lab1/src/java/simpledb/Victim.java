@@ -0,0 +1,51 @@
+package simpledb;
+
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * Victim looks for the page to evict for a ReplacementPolicy that keeps
+ * its pages in the order it evicts them: the first evictable page of the
+ * lowest rank.
+ *
+ * @see ReplacementPolicy#chooseVictim(Predicate, ToIntFunction, int)
+ */
+class Victim {
+
+    private final Predicate<PageId> evictable;
+    private final ToIntFunction<PageId> ranks;
+    private final int best;
+    // the victim so far, or null if none was found, and its rank
+    PageId pid = null;
+    private int rank = Integer.MAX_VALUE;
+
+    Victim(Predicate<PageId> evictable, ToIntFunction<PageId> ranks, int best) {
+        this.evictable = evictable;
+        this.ranks = ranks;
+        this.best = best;
+    }
+
+    /**
+     * Considers the specified pages, in the order they would be evicted,
+     * after those considered before.
+     *
+     * @return whether a page of the best rank was found, so that no later
+     *   page needs to be considered
+     */
+    boolean consider(Iterable<PageId> pids) {
+        for (PageId p : pids) {
+            if (!evictable.test(p)) {
+                continue;
+            }
+            int r = ranks.applyAsInt(p);
+            if (pid == null || r < rank) {
+                pid = p;
+                rank = r;
+                if (r <= best) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,304 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * ZoneMap keeps, for each page of a HeapFile, the minimum and maximum value
+ * of every INT_TYPE column, so that scans with pushed-down predicates can
+ * skip pages that cannot contain a matching tuple without reading them.
+ * <p>
+ * Zones only ever widen: inserts extend the zone of their page, but deletes
+ * leave it alone, since the delete may still be rolled back. A zone is
+ * therefore always a superset of the values on the page, which is all that
+ * skipping needs.
+ * <p>
+ * The zone of a page is only known once it has been computed from the page
+ * itself (see {@link #completePage}); until then the page may match
+ * anything, but inserts still widen its zone so that nothing is lost when
+ * it is completed. Scans complete the zones of the pages they read, so the
+ * map fills in as the table is queried.
+ * <p>
+ * The map is persisted in a sidecar file (the table file's name plus
+ * ".zm") with one entry per page: a flags byte (1 if the page has held a
+ * tuple, 2 if the zone is known), followed by an int minimum and an int
+ * maximum per column (zero for columns that are not INT_TYPE). Changes are
+ * kept in memory and written by {@link #flush}, which HeapFile calls before
+ * it writes pages and at checkpoints, so that a zone on disk always covers
+ * its page on disk. Only known zones are written: the others can be
+ * recomputed from the pages, so tables that are never scanned with
+ * predicates get no sidecar.
+ *
+ * @see HeapFile#getZoneMap
+ * @see SeqScan#addPredicate
+ * @Threadsafe
+ */
+public class ZoneMap {
+
+    private final TupleDesc td;
+    private final File file;
+    private final int entrySize;
+
+    // per page, whether the page has held a tuple, whether its zone is
+    // known, and the bounds of each field, at [page * numFields + field]
+    private boolean[] used = new boolean[16];
+    private boolean[] known = new boolean[16];
+    private int[] mins;
+    private int[] maxs;
+    private int numPages = 0;
+    // pages whose entries changed since the last flush
+    private final BitSet dirty = new BitSet();
+
+    /**
+     * Creates an empty zone map for a table with the specified schema,
+     * persisted in the specified file.
+     */
+    ZoneMap(TupleDesc td, File file) {
+        this.td = td;
+        this.file = file;
+        this.entrySize = 1 + 8 * td.numFields();
+        this.mins = new int[used.length * td.numFields()];
+        this.maxs = new int[used.length * td.numFields()];
+    }
+
+    /** @return the sidecar file holding the zone map of the table stored in f. */
+    public static File getZoneMapFile(File f) {
+        return new File(f.getPath() + ".zm");
+    }
+
+    /**
+     * Reads a zone map from its sidecar file.
+     *
+     * @return the zone map, with an entry for each page recorded in the file
+     *   (none if the file does not exist)
+     */
+    static ZoneMap load(TupleDesc td, File file) throws IOException {
+        ZoneMap zm = new ZoneMap(td, file);
+        int n = (int) (file.length() / zm.entrySize);
+        if (n > 0) {
+            byte[] buf = new byte[n * zm.entrySize];
+            Database.getFileHandleManager().readFully(file, buf, 0);
+            ByteBuffer bb = ByteBuffer.wrap(buf);
+            zm.grow(n);
+            for (int i = 0; i < n; i++) {
+                byte flags = bb.get();
+                zm.used[i] = (flags & 1) != 0;
+                zm.known[i] = (flags & 2) != 0;
+                for (int j = 0; j < td.numFields(); j++) {
+                    zm.mins[i * td.numFields() + j] = bb.getInt();
+                    zm.maxs[i * td.numFields() + j] = bb.getInt();
+                }
+            }
+            zm.numPages = n;
+        }
+        return zm;
+    }
+
+    /** @return the number of pages the map has an entry for. */
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    /**
+     * Extends the zone of the specified page to cover the specified tuple.
+     */
+    public synchronized void addTuple(int pageNo, Tuple t) {
+        if (widen(pageNo, t)) {
+            dirty.set(pageNo);
+        }
+    }
+
+    /**
+     * Extends the zone of the specified page to cover t.
+     *
+     * @return true if the zone changed
+     */
+    private boolean widen(int pageNo, Tuple t) {
+        grow(pageNo + 1);
+        if (pageNo >= numPages) {
+            numPages = pageNo + 1;
+        }
+        boolean changed = !used[pageNo];
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) != Type.INT_TYPE) {
+                continue;
+            }
+            int v = ((IntField) t.getField(j)).getValue();
+            int k = pageNo * td.numFields() + j;
+            if (!used[pageNo]) {
+                mins[k] = v;
+                maxs[k] = v;
+            } else if (v < mins[k]) {
+                mins[k] = v;
+                changed = true;
+            } else if (v > maxs[k]) {
+                maxs[k] = v;
+                changed = true;
+            }
+        }
+        used[pageNo] = true;
+        return changed;
+    }
+
+    /** @return true if the zone of the specified page is known. */
+    public synchronized boolean isKnown(int pageNo) {
+        return pageNo < numPages && known[pageNo];
+    }
+
+    /**
+     * Computes the zone of the specified page, if it is not known yet, from
+     * the tuples on the page and in its before image. Together with the
+     * inserts recorded so far, these cover every tuple the page can hold
+     * once its transactions have committed or aborted.
+     */
+    public synchronized void completePage(int pageNo, TuplePage page) {
+        if (isKnown(pageNo)) {
+            return;
+        }
+        grow(pageNo + 1);
+        if (pageNo >= numPages) {
+            numPages = pageNo + 1;
+        }
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            widen(pageNo, it.next());
+        }
+        it = ((TuplePage) page.getBeforeImage()).iterator();
+        while (it.hasNext()) {
+            widen(pageNo, it.next());
+        }
+        known[pageNo] = true;
+        dirty.set(pageNo);
+    }
+
+    /**
+     * Checks whether the specified page may hold a tuple that satisfies all
+     * of the specified predicates.
+     *
+     * @return false only if no tuple on the page can match
+     */
+    public synchronized boolean mayMatch(int pageNo, List<Predicate> predicates) {
+        if (!isKnown(pageNo)) {
+            return true;
+        }
+        if (!used[pageNo]) {
+            return false;
+        }
+        for (Predicate p : predicates) {
+            if (td.getFieldType(p.getField()) != Type.INT_TYPE) {
+                continue;
+            }
+            int k = pageNo * td.numFields() + p.getField();
+            int v = ((IntField) p.getOperand()).getValue();
+            int min = mins[k];
+            int max = maxs[k];
+            boolean may;
+            switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                may = min <= v && v <= max;
+                break;
+            case NOT_EQUALS:
+                may = min != v || max != v;
+                break;
+            case GREATER_THAN:
+                may = max > v;
+                break;
+            case GREATER_THAN_OR_EQ:
+                may = max >= v;
+                break;
+            case LESS_THAN:
+                may = min < v;
+                break;
+            case LESS_THAN_OR_EQ:
+                may = min <= v;
+                break;
+            default:
+                may = true;
+            }
+            if (!may) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Forgets the zones of the pages at and after numPages, after the table
+     * file has been truncated to numPages pages.
+     */
+    public synchronized void truncate(int numPages) {
+        if (numPages >= this.numPages) {
+            return;
+        }
+        Arrays.fill(used, numPages, this.numPages, false);
+        Arrays.fill(known, numPages, this.numPages, false);
+        dirty.clear(numPages, this.numPages);
+        this.numPages = numPages;
+        try {
+            if (file.exists()) {
+                Database.getFileHandleManager().truncate(file, (long) numPages * entrySize);
+            }
+        } catch (IOException e) {
+            // a longer sidecar is discarded when the table is reopened
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes the known entries that changed since the last flush to the
+     * sidecar file, one write per run of adjacent entries, and forces it to
+     * disk.
+     *
+     * @throws IOException if the sidecar can't be written; the entries stay
+     *   dirty
+     */
+    public synchronized void flush() throws IOException {
+        boolean written = false;
+        int start = dirty.nextSetBit(0);
+        while (start >= 0) {
+            if (!known[start]) {
+                dirty.clear(start);
+                start = dirty.nextSetBit(start + 1);
+                continue;
+            }
+            int end = start + 1;
+            while (end < numPages && dirty.get(end) && known[end]) {
+                end++;
+            }
+            ByteBuffer bb = ByteBuffer.allocate((end - start) * entrySize);
+            for (int i = start; i < end; i++) {
+                putEntry(bb, i);
+            }
+            bb.flip();
+            Database.getFileHandleManager().write(file, bb, (long) start * entrySize);
+            dirty.clear(start, end);
+            written = true;
+            start = dirty.nextSetBit(end);
+        }
+        if (written) {
+            Database.getFileHandleManager().force(file);
+        }
+    }
+
+    /** Appends the entry of the specified page to bb. */
+    private void putEntry(ByteBuffer bb, int pageNo) {
+        bb.put((byte) ((used[pageNo] ? 1 : 0) | (known[pageNo] ? 2 : 0)));
+        for (int j = 0; j < td.numFields(); j++) {
+            bb.putInt(mins[pageNo * td.numFields() + j]);
+            bb.putInt(maxs[pageNo * td.numFields() + j]);
+        }
+    }
+
+    /** Makes room for entries for the first n pages. */
+    private void grow(int n) {
+        if (n > used.length) {
+            int capacity = Math.max(n, used.length * 2);
+            used = Arrays.copyOf(used, capacity);
+            known = Arrays.copyOf(known, capacity);
+            mins = Arrays.copyOf(mins, capacity * td.numFields());
+            maxs = Arrays.copyOf(maxs, capacity * td.numFields());
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.CountingHeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BloomFilterMapTest extends SimpleDbTestBase {
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static Predicate equalsPredicate(int field, int value) {
+        return new Predicate(field, Predicate.Op.EQUALS, new IntField(value));
+    }
+
+    /**
+     * Unit test for BloomFilterMap.mayMatch()
+     */
+    @Test public void mayMatch() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(2);
+        File f = File.createTempFile("bloom", ".bf");
+        f.deleteOnExit();
+        BloomFilterMap bf = BloomFilterMap.create(td, f, new int[] { 1 },
+                BloomFilterMap.DEFAULT_BITS_PER_TUPLE, BufferPool.getPageSize());
+
+        for (int i = 0; i < 100; i++) {
+            bf.add(0, Utility.getHeapTuple(new int[] { i, i * 1000 }));
+        }
+        bf.addPage(1);
+        assertEquals(2, bf.numPages());
+
+        // no false negatives, and few false positives
+        int falsePositives = 0;
+        for (int i = 0; i < 100; i++) {
+            assertTrue(bf.mayMatch(0, Arrays.asList(equalsPredicate(1, i * 1000))));
+            if (bf.mayMatch(0, Arrays.asList(equalsPredicate(1, i * 1000 + 1))))
+                falsePositives++;
+        }
+        assertTrue(falsePositives < 10);
+        // empty pages match nothing, pages past the end match anything
+        assertFalse(bf.mayMatch(1, Arrays.asList(equalsPredicate(1, 0))));
+        assertTrue(bf.mayMatch(2, Arrays.asList(equalsPredicate(1, 0))));
+        // other fields and operators are not checked
+        assertTrue(bf.mayMatch(1, Arrays.asList(equalsPredicate(0, 0))));
+        assertTrue(bf.mayMatch(1, Arrays.asList(
+                new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(0)))));
+
+        // pages are only added at the end
+        assertFalse(bf.add(5, Utility.getHeapTuple(new int[] { 1, 1 })));
+        assertTrue(bf.mayMatch(5, Arrays.asList(equalsPredicate(1, 2))));
+
+        // the sidecar file has the same contents
+        bf.save();
+        BloomFilterMap loaded = BloomFilterMap.load(td, f);
+        assertEquals(2, loaded.numPages());
+        assertArrayEquals(new int[] { 1 }, loaded.getColumns());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(bf.mayMatch(0, Arrays.asList(equalsPredicate(1, i))),
+                    loaded.mayMatch(0, Arrays.asList(equalsPredicate(1, i))));
+        }
+        assertFalse(loaded.mayMatch(1, Arrays.asList(equalsPredicate(1, 0))));
+    }
+
+    /**
+     * A SeqScan with an EQUALS predicate on an unordered column with a Bloom
+     * filter only reads the pages that may hold the value.
+     */
+    @Test public void pointLookupSkipsPages() throws Exception {
+        int rows = 504 * 10;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++) {
+            // a permutation of 0..rows-1, so the zone maps don't help
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, (i * 7919) % rows)));
+        }
+        File f = File.createTempFile("bloom", ".dat");
+        f.deleteOnExit();
+        BloomFilterMap.getBloomFilterFile(f).deleteOnExit();
+        ZoneMap.getZoneMapFile(f).deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        HeapFile.setReadAheadPages(0);
+
+        try {
+            CountingHeapFile hf = new CountingHeapFile(f, Utility.getTupleDesc(2));
+            Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+            assertNull(hf.getBloomFilters());
+            HeapFileEncoder.buildBloomFilters(hf, new int[] { 1 },
+                    BloomFilterMap.DEFAULT_BITS_PER_TUPLE);
+            hf.readCount.set(0);
+
+            int value = (3000 * 7919) % rows;
+            assertEquals(1, count(hf, 1, value));
+            assertTrue(hf.readCount.get() <= 2);
+
+            // the filters are found again when the table is reopened, and
+            // inserts are added to them
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            hf = new CountingHeapFile(f, Utility.getTupleDesc(2));
+            Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+            assertEquals(10, hf.getBloomFilters().numPages());
+            for (int i = 0; i < 504; i++) {
+                Database.getBufferPool().insertTuple(tid, hf.getId(),
+                        Utility.getHeapTuple(new int[] { -1, -1 - i }));
+            }
+            assertEquals(11, hf.getBloomFilters().numPages());
+            assertEquals(1, count(hf, 1, -1));
+            assertEquals(1, count(hf, 1, -504));
+            assertEquals(0, count(hf, 1, -505));
+        } finally {
+            HeapFile.setReadAheadPages(HeapFile.DEFAULT_READ_AHEAD_PAGES);
+        }
+    }
+
+    /** Counts the tuples of hf whose field is value, using a SeqScan. */
+    private int count(HeapFile hf, int field, int value) throws Exception {
+        SeqScan scan = new SeqScan(tid, hf.getId());
+        scan.addPredicate(equalsPredicate(field, value));
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            assertEquals(new IntField(value), scan.next().getField(field));
+            count++;
+        }
+        scan.close();
+        return count;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BloomFilterMapTest.class);
+    }
+}
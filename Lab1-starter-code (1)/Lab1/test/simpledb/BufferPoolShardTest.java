@@ -0,0 +1,128 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolShardTest extends SimpleDbTestBase {
+    private TransactionId tid;
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 40, null, tuples);
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * The shards together hold no more than numPages pages, and a scan
+     * through them sees every tuple.
+     */
+    @Test public void bounded() throws Exception {
+        BufferPool bp = Database.resetBufferPool(new BufferPool(10, 0, "clock", 3));
+        assertEquals(3, bp.getNumShards());
+        SystemTestUtil.matchTuples(hf, tuples);
+        assertTrue(bp.getNumCachedPages() <= 10);
+        for (int i = 0; i < 40; i++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), i);
+            Page page = bp.getPage(tid, pid, Permissions.READ_ONLY);
+            assertSame(page, bp.getCachedPage(pid));
+            assertTrue(bp.getNumCachedPages() <= 10);
+        }
+    }
+
+    /**
+     * Small pools stay in one shard by default.
+     */
+    @Test public void defaultShards() {
+        assertEquals(1, new BufferPool(BufferPool.DEFAULT_PAGES).getNumShards());
+        int pages = BufferPool.MIN_SHARD_PAGES * BufferPool.DEFAULT_SHARDS;
+        assertEquals(BufferPool.DEFAULT_SHARDS, new BufferPool(pages).getNumShards());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooManyShards() {
+        new BufferPool(4, 0, "clock", 5);
+    }
+
+    /**
+     * flushPages writes the pages of a transaction in every shard, and no
+     * other pages.
+     */
+    @Test public void flushPages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(new BufferPool(16, 0, "clock", 4));
+        TransactionId other = new TransactionId();
+        List<Page> mine = new ArrayList<Page>();
+        List<Page> theirs = new ArrayList<Page>();
+        for (int i = 0; i < 8; i++) {
+            Page page = bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_WRITE);
+            TransactionId dirtier = i % 2 == 0 ? tid : other;
+            page.markDirty(true, dirtier);
+            (dirtier == tid ? mine : theirs).add(page);
+        }
+        bp.flushPages(tid);
+        for (Page page : mine) {
+            assertNull(page.isDirty());
+        }
+        for (Page page : theirs) {
+            assertEquals(other, page.isDirty());
+        }
+        bp.flushAllPages();
+        for (Page page : theirs) {
+            assertNull(page.isDirty());
+        }
+    }
+
+    /**
+     * Threads reading pages concurrently all see the same copy of a page
+     * while it is cached, and the pool stays within its bounds.
+     */
+    @Test public void concurrentReads() throws Exception {
+        final BufferPool bp = Database.resetBufferPool(new BufferPool(16, 0, "clock", 4));
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final Random r = new Random(t);
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 2000; i++) {
+                        HeapPageId pid = new HeapPageId(hf.getId(), r.nextInt(40));
+                        Page page = bp.getPage(tid, pid, Permissions.READ_ONLY);
+                        assertEquals(pid, page.getId());
+                    }
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        if (failure[0] != null) {
+            throw new AssertionError(failure[0]);
+        }
+        assertTrue(bp.getNumCachedPages() <= 16);
+        assertEquals(8000, bp.getHits() + bp.getMisses());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolShardTest.class);
+    }
+}
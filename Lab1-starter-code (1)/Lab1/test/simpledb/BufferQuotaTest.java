@@ -0,0 +1,171 @@
+package simpledb;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferQuotaTest extends SimpleDbTestBase {
+    private TransactionId tid;
+    private HeapFile small;
+    private HeapFile big;
+    private ArrayList<ArrayList<Integer>> bigTuples;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        small = SystemTestUtil.createRandomHeapFile(2, 504 * 5, null, null);
+        bigTuples = new ArrayList<ArrayList<Integer>>();
+        big = SystemTestUtil.createRandomHeapFile(2, 504 * 50, null, bigTuples);
+        bp = Database.resetBufferPool(new BufferPool(20, 0, "clock", 1));
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /** Caches every page of the small table, then scans the big one. */
+    private void readSmallThenScanBig() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            bp.getPage(tid, new HeapPageId(small.getId(), i), Permissions.READ_ONLY);
+        }
+        SystemTestUtil.matchTuples(big, bigTuples);
+    }
+
+    /**
+     * Unit test for BufferQuota: shares are checked, and turned into bytes
+     * of a pool.
+     */
+    @Test public void quota() {
+        BufferQuota q = new BufferQuota(0.1, 0.25, 3);
+        assertEquals(2 * 4096, q.minBytes(20 * 4096));
+        assertEquals(5 * 4096, q.maxBytes(20 * 4096, 4096));
+        assertEquals(4096, q.maxBytes(2 * 4096, 4096));
+        assertEquals(new BufferQuota(0.1, 0.25, 3), q);
+        assertEquals(BufferQuota.DEFAULT, Database.getCatalog().getBufferQuota(big.getId()));
+        for (double[] shares : new double[][] { { -0.1, 1 }, { 0.5, 0.4 }, { 0, 0 }, { 0, 1.5 } }) {
+            try {
+                new BufferQuota(shares[0], shares[1], 0);
+                fail("expected exception");
+            } catch (IllegalArgumentException e) {
+            }
+        }
+    }
+
+    /**
+     * A table at its maximum share replaces its own pages, and the pages
+     * of other tables stay.
+     */
+    @Test public void maxShare() throws Exception {
+        Database.getCatalog().setBufferQuota(big.getId(), new BufferQuota(0, 0.25, 0));
+        readSmallThenScanBig();
+        assertTrue(bp.getNumCachedPages(big.getId()) <= 5);
+        assertEquals(5, bp.getNumCachedPages(small.getId()));
+    }
+
+    /**
+     * Pages of a table within its reserved share are not evicted for other
+     * tables.
+     */
+    @Test public void minShare() throws Exception {
+        Database.getCatalog().setBufferQuota(small.getId(), new BufferQuota(0.25, 1, 0));
+        readSmallThenScanBig();
+        assertEquals(5, bp.getNumCachedPages(small.getId()));
+        assertEquals(20, bp.getNumCachedPages());
+    }
+
+    /**
+     * Pages of tables with lower priorities are evicted first.
+     */
+    @Test public void priority() throws Exception {
+        Database.getCatalog().setBufferQuota(small.getId(), new BufferQuota(0, 1, 1));
+        readSmallThenScanBig();
+        assertEquals(5, bp.getNumCachedPages(small.getId()));
+    }
+
+    /**
+     * Without quotas, the scan pushes the small table out; reservations
+     * larger than the pool still leave room for new pages.
+     */
+    @Test public void quotasGiveWay() throws Exception {
+        readSmallThenScanBig();
+        assertEquals(0, bp.getNumCachedPages(small.getId()));
+
+        Database.getCatalog().setBufferQuota(small.getId(), new BufferQuota(1, 1, 0));
+        Database.getCatalog().setBufferQuota(big.getId(), new BufferQuota(1, 1, 0));
+        readSmallThenScanBig();
+        assertEquals(20, bp.getNumCachedPages());
+        int occupied = 0;
+        for (int n : bp.getOccupancy().values()) {
+            occupied += n;
+        }
+        assertEquals(20, occupied);
+    }
+
+    /**
+     * The pool counts its capacity in bytes: a 64KB page takes the room of
+     * sixteen default-sized pages, and shares are of those bytes.
+     */
+    @Test public void largePages() throws Exception {
+        int pageSize = 16 * BufferPool.getPageSize();
+        int perPage = HeapPage.getNumTuples(Utility.getTupleDesc(2), pageSize);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 2 * perPage; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, -i)));
+        }
+        File f = File.createTempFile("large", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, pageSize, 2);
+        HeapFile large = new HeapFile(f, Utility.getTupleDesc(2), pageSize);
+        Database.getCatalog().addTable(large, SystemTestUtil.getUUID());
+        assertEquals(20L * BufferPool.getPageSize(), bp.getCapacity());
+
+        for (int i = 0; i < 5; i++) {
+            bp.getPage(tid, new HeapPageId(small.getId(), i), Permissions.READ_ONLY);
+        }
+        bp.getPage(tid, new HeapPageId(large.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(1, bp.getNumCachedPages(large.getId()));
+        assertEquals(4, bp.getNumCachedPages(small.getId()));
+        assertEquals(bp.getCapacity(), bp.getNumCachedBytes());
+
+        // half the pool is less than one large page, which is still let in
+        Database.getCatalog().setBufferQuota(large.getId(), new BufferQuota(0, 0.5, 0));
+        Database.getCatalog().setBufferQuota(small.getId(), new BufferQuota(0.2, 1, 0));
+        SystemTestUtil.matchTuples(large, tuples);
+        assertEquals(1, bp.getNumCachedPages(large.getId()));
+        assertEquals(4, bp.getNumCachedPages(small.getId()));
+    }
+
+    /**
+     * Catalog.loadSchema reads quotas from the table options.
+     */
+    @Test public void loadSchema() throws Exception {
+        File schema = File.createTempFile("quota", ".txt");
+        schema.deleteOnExit();
+        String name = "quota" + System.nanoTime();
+        try (PrintWriter out = new PrintWriter(schema)) {
+            out.println(name + " (a int, b int) minshare 0.1 maxshare .5 priority 2");
+            out.println(name + "_plain (a int)");
+        }
+        Catalog catalog = Database.getCatalog();
+        catalog.loadSchema(schema.getPath());
+        assertEquals(new BufferQuota(0.1, 0.5, 2), catalog.getBufferQuota(catalog.getTableId(name)));
+        assertEquals(BufferQuota.DEFAULT, catalog.getBufferQuota(catalog.getTableId(name + "_plain")));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferQuotaTest.class);
+    }
+}
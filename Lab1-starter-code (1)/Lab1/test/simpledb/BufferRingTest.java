@@ -0,0 +1,108 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferRingTest extends SimpleDbTestBase {
+    private TransactionId tid;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        bp = Database.resetBufferPool(new BufferPool(200, 0, "clock", 1));
+        // a ring of BufferRing.DEFAULT_RING_PAGES pages
+        HeapFile.setReadAheadPages(8);
+    }
+
+    @After public void tearDown() throws Exception {
+        HeapFile.setReadAheadPages(HeapFile.DEFAULT_READ_AHEAD_PAGES);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * Unit test for BufferRing.add: the oldest page leaves a full ring.
+     */
+    @Test public void ring() {
+        BufferRing ring = new BufferRing(2);
+        HeapPageId[] pids = new HeapPageId[4];
+        for (int i = 0; i < pids.length; i++) {
+            pids[i] = new HeapPageId(1, i);
+        }
+        assertNull(ring.add(pids[0]));
+        assertNull(ring.add(pids[1]));
+        assertEquals(pids[0], ring.add(pids[2]));
+        ring.remove(pids[2]);
+        assertNull(ring.add(pids[3]));
+        assertEquals(pids[1], ring.add(pids[0]));
+        assertEquals(2, ring.size());
+    }
+
+    /**
+     * Only scans of tables larger than a quarter of the pool use a ring.
+     */
+    @Test public void forScan() {
+        assertNull(BufferRing.forScan(50));
+        BufferRing ring = BufferRing.forScan(51);
+        assertNotNull(ring);
+        assertEquals(BufferRing.DEFAULT_RING_PAGES, ring.getNumPages());
+        // the default read-ahead window needs a ring too big for this pool
+        HeapFile.setReadAheadPages(HeapFile.DEFAULT_READ_AHEAD_PAGES);
+        assertNull(BufferRing.forScan(1000));
+    }
+
+    /**
+     * A scan of a table larger than the pool leaves the pages that were
+     * cached before it in the pool.
+     */
+    @Test public void scanKeepsWorkingSet() throws Exception {
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 504 * 100, null, null);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 504 * 300, null, tuples);
+        for (int i = 0; i < 100; i++) {
+            bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        }
+
+        SystemTestUtil.matchTuples(big, tuples);
+        for (int i = 0; i < 100; i++) {
+            assertNotNull(bp.getCachedPage(new HeapPageId(hot.getId(), i)));
+        }
+        assertTrue(bp.getNumCachedPages() <= 100 + BufferRing.DEFAULT_RING_PAGES);
+    }
+
+    /**
+     * Pages dirtied after they were read through a ring stay in the pool.
+     */
+    @Test public void dirtyPagesStay() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        BufferRing ring = new BufferRing(2);
+        HeapPageId[] pids = new HeapPageId[4];
+        for (int i = 0; i < pids.length; i++) {
+            pids[i] = new HeapPageId(hf.getId(), i);
+        }
+        bp.getPage(tid, pids[0], Permissions.READ_ONLY, ring).markDirty(true, tid);
+        bp.getPage(tid, pids[1], Permissions.READ_ONLY, ring);
+        bp.getPage(tid, pids[2], Permissions.READ_ONLY, ring);
+        bp.getPage(tid, pids[3], Permissions.READ_ONLY, ring);
+        assertNotNull(bp.getCachedPage(pids[0]));
+        assertNull(bp.getCachedPage(pids[1]));
+        assertNotNull(bp.getCachedPage(pids[2]));
+        assertNotNull(bp.getCachedPage(pids[3]));
+        bp.flushPages(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
@@ -2,6 +2,8 @@ package simpledb;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.File;
+import java.io.FileWriter;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -93,6 +95,49 @@ public class CatalogTest extends SimpleDbTestBase {
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /**
+     * Unit test for Catalog.loadSchema() with per-table formats
+     */
+    @Test public void loadSchemaFormats() throws Exception {
+        File schema = File.createTempFile("catalog", ".txt");
+        schema.deleteOnExit();
+        String paxName = "pax" + r.nextInt(Integer.MAX_VALUE);
+        String heapName = "heap" + r.nextInt(Integer.MAX_VALUE);
+        FileWriter w = new FileWriter(schema);
+        w.write(paxName + " (a int, b int) using pax\n");
+        w.write(heapName + " (a int pk, s string)\n");
+        w.close();
+
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        Catalog c = Database.getCatalog();
+        assertEquals(PaxHeapFile.class, c.getDatabaseFile(c.getTableId(paxName)).getClass());
+        assertEquals(HeapFile.class, c.getDatabaseFile(c.getTableId(heapName)).getClass());
+        assertEquals("a", c.getPrimaryKey(c.getTableId(heapName)));
+    }
+
+    /**
+     * Unit test for Catalog.loadSchema() with per-table page sizes
+     */
+    @Test public void loadSchemaPageSize() throws Exception {
+        File schema = File.createTempFile("catalog", ".txt");
+        schema.deleteOnExit();
+        String bigName = "big" + r.nextInt(Integer.MAX_VALUE);
+        String smallName = "small" + r.nextInt(Integer.MAX_VALUE);
+        String heapName = "heap" + r.nextInt(Integer.MAX_VALUE);
+        FileWriter w = new FileWriter(schema);
+        w.write(bigName + " (a int, b int) using slotted pagesize 65536\n");
+        w.write(smallName + " (a int, b int) pagesize 1024\n");
+        w.write(heapName + " (a int, b int)\n");
+        w.close();
+
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        Catalog c = Database.getCatalog();
+        assertEquals(SlottedHeapFile.class, c.getDatabaseFile(c.getTableId(bigName)).getClass());
+        assertEquals(65536, c.getPageSize(c.getTableId(bigName)));
+        assertEquals(1024, c.getPageSize(c.getTableId(smallName)));
+        assertEquals(BufferPool.getPageSize(), c.getPageSize(c.getTableId(heapName)));
+    }
+
     /**
      * JUnit suite target
      */
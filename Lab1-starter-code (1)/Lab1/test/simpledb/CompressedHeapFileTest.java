@@ -0,0 +1,170 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Rows of repetitive integers: long runs in the first column, a small
+     * range of values in the second, and arbitrary values in the third.
+     */
+    private static ArrayList<ArrayList<Integer>> repetitiveTuples(int rows) {
+        Random r = new Random(7);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i / 100, 1000 + i % 7, r.nextInt())));
+        }
+        return tuples;
+    }
+
+    private CompressedHeapFile createCompressedFile(ArrayList<ArrayList<Integer>> tuples)
+            throws Exception {
+        File f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        CompressedHeapFile.getIndexFile(f).deleteOnExit();
+        HeapFileEncoder.convertCompressed(tuples, f, BufferPool.getPageSize(), 3);
+        CompressedHeapFile cf = new CompressedHeapFile(f, Utility.getTupleDesc(3));
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        return cf;
+    }
+
+    /**
+     * Unit test for PageCompressor with every encoding.
+     */
+    @Test public void compressRoundTrip() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE, Type.STRING_TYPE });
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+        HeapPage page = new HeapPage(new HeapPageId(-1, 0), HeapPage.createEmptyPageData());
+        Random r = new Random(1);
+        // leave some empty slots between the tuples
+        int numSlots = HeapPage.getNumTuples(td);
+        for (int i = 0; i < numSlots; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i / 5));                           // RLE
+            t.setField(1, new IntField(-50 + r.nextInt(100)));            // FOR
+            t.setField(2, new StringField("code" + (i % 3), Type.STRING_LEN)); // DICT
+            t.setField(3, new StringField("s" + r.nextInt(), Type.STRING_LEN)); // PLAIN
+            page.insertTuple(t);
+        }
+        Iterator<Tuple> it = page.iterator();
+        for (int i = 0; it.hasNext(); i++) {
+            Tuple t = it.next();
+            if (i % 4 == 1)
+                page.deleteTuple(t);
+        }
+
+        byte[] data = page.getPageData();
+        byte[] compressed = PageCompressor.compress(data, td, BufferPool.getPageSize());
+        assertTrue(compressed.length < data.length / 2);
+        HeapPage copy = new HeapPage(page.getId(),
+                PageCompressor.decompress(compressed, td, BufferPool.getPageSize()));
+
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        Iterator<Tuple> expected = page.iterator();
+        Iterator<Tuple> actual = copy.iterator();
+        while (expected.hasNext()) {
+            assertTrue(TestUtil.compareTuples(expected.next(), actual.next()));
+        }
+        assertFalse(actual.hasNext());
+    }
+
+    /**
+     * A repetitive table is several times smaller on disk, and reads back
+     * intact.
+     */
+    @Test public void scan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = repetitiveTuples(5000);
+        CompressedHeapFile cf = createCompressedFile(tuples);
+
+        int pages = (5000 + HeapPage.getNumTuples(cf.getTupleDesc()) - 1) / HeapPage.getNumTuples(cf.getTupleDesc());
+        assertEquals(pages, cf.numPages());
+        assertTrue(cf.getFile().length() < (long) pages * BufferPool.getPageSize() / 2);
+        SystemTestUtil.matchTuples(cf, tuples);
+    }
+
+    /**
+     * Written pages are found through the index, including pages that grew
+     * past their extent and pages appended to the file.
+     */
+    @Test public void writePage() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = repetitiveTuples(300);
+        CompressedHeapFile cf = createCompressedFile(tuples);
+        int pages = cf.numPages();
+
+        // make the first page less compressible, so that it moves
+        HeapPage page = (HeapPage) cf.readPage(new HeapPageId(cf.getId(), 0));
+        Iterator<Tuple> it = page.iterator();
+        Tuple first = it.next();
+        page.deleteTuple(first);
+        Tuple t = Utility.getHeapTuple(new int[] { 123456789, -987654321, 5 });
+        page.insertTuple(t);
+        cf.writePage(page);
+        tuples.remove(0);
+        tuples.add(new ArrayList<Integer>(Arrays.asList(123456789, -987654321, 5)));
+
+        // append a page through insertTuple once the file is full
+        ArrayList<Integer> extra = new ArrayList<Integer>(Arrays.asList(1, 2, 3));
+        while (cf.numPages() == pages) {
+            Tuple tup = Utility.getHeapTuple(new int[] { 1, 2, 3 });
+            Database.getBufferPool().insertTuple(tid, cf.getId(), tup);
+            tuples.add(extra);
+        }
+        Database.getBufferPool().flushAllPages();
+
+        // reopen, so that the index is read back from disk
+        CompressedHeapFile reopened = new CompressedHeapFile(cf.getFile(), cf.getTupleDesc());
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(pages + 1, reopened.numPages());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /**
+     * A page that grows a tuple at a time moves to a larger extent only now
+     * and then, and reuses the extents it moved out of, so the file stays
+     * small.
+     */
+    @Test public void growingPage() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = repetitiveTuples(1);
+        CompressedHeapFile cf = createCompressedFile(tuples);
+        Random r = new Random(3);
+        for (int i = 0; i < 400; i++) {
+            int[] values = { r.nextInt(), r.nextInt(), r.nextInt() };
+            Database.getBufferPool().insertTuple(tid, cf.getId(), Utility.getHeapTuple(values));
+            Database.getBufferPool().flushAllPages();
+            tuples.add(new ArrayList<Integer>(Arrays.asList(values[0], values[1], values[2])));
+        }
+        assertTrue(cf.getFile().length() <= 2L * cf.numPages() * BufferPool.getPageSize());
+
+        CompressedHeapFile reopened = new CompressedHeapFile(cf.getFile(), cf.getTupleDesc());
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
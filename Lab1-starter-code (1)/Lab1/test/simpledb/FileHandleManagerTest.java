@@ -0,0 +1,127 @@
+package simpledb;
+
+import java.io.EOFException;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class FileHandleManagerTest extends SimpleDbTestBase {
+    private FileHandleManager fhm;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        fhm = new FileHandleManager(2);
+    }
+
+    private File tempFile() throws Exception {
+        File f = File.createTempFile("fhm", ".dat");
+        f.deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Unit test for FileHandleManager.write() and FileHandleManager.read()
+     */
+    @Test public void positionalReadWrite() throws Exception {
+        File f = tempFile();
+        fhm.write(f, new byte[] {1, 2, 3, 4}, 8);
+        assertEquals(12, f.length());
+
+        byte[] buf = new byte[4];
+        fhm.readFully(f, buf, 8);
+        assertArrayEquals(new byte[] {1, 2, 3, 4}, buf);
+
+        // the gap before the write is zero-filled
+        fhm.readFully(f, buf, 0);
+        assertArrayEquals(new byte[4], buf);
+    }
+
+    @Test public void readPastEnd() throws Exception {
+        File f = tempFile();
+        fhm.write(f, new byte[] {1, 2}, 0);
+        assertEquals(-1, fhm.read(f, ByteBuffer.allocate(4), 2));
+        assertEquals(2, fhm.read(f, ByteBuffer.allocate(4), 0));
+        try {
+            fhm.readFully(f, new byte[4], 0);
+            fail("expected exception");
+        } catch (EOFException e) {
+        }
+    }
+
+    /**
+     * Only the most recently used files stay open.
+     */
+    @Test public void boundedHandles() throws Exception {
+        File f1 = tempFile();
+        File f2 = tempFile();
+        File f3 = tempFile();
+        fhm.write(f1, new byte[] {1}, 0);
+        fhm.write(f2, new byte[] {2}, 0);
+        assertEquals(2, fhm.numOpenFiles());
+        fhm.write(f3, new byte[] {3}, 0);
+        assertEquals(2, fhm.numOpenFiles());
+
+        // f1 was closed but is transparently reopened
+        byte[] buf = new byte[1];
+        fhm.readFully(f1, buf, 0);
+        assertEquals(1, buf[0]);
+
+        fhm.closeAll();
+        assertEquals(0, fhm.numOpenFiles());
+    }
+
+    /**
+     * Files are only opened for writing when they are written to, so
+     * read-only files can be read.
+     */
+    @Test public void readOnlyFile() throws Exception {
+        File f = tempFile();
+        fhm.write(f, new byte[] {5}, 0);
+        fhm.close(f);
+        assertTrue(f.setWritable(false));
+        try {
+            byte[] buf = new byte[1];
+            fhm.readFully(f, buf, 0);
+            assertEquals(5, buf[0]);
+        } finally {
+            f.setWritable(true);
+        }
+    }
+
+    /**
+     * A channel closed by an interrupt is reopened on the next access.
+     */
+    @Test public void reopenAfterInterrupt() throws Exception {
+        File f = tempFile();
+        fhm.write(f, new byte[] {7}, 0);
+        Thread.currentThread().interrupt();
+        try {
+            fhm.read(f, ByteBuffer.allocate(1), 0);
+            fail("expected exception");
+        } catch (ClosedByInterruptException e) {
+        } finally {
+            Thread.interrupted();
+        }
+
+        byte[] buf = new byte[1];
+        fhm.readFully(f, buf, 0);
+        assertEquals(7, buf[0]);
+        fhm.write(f, new byte[] {8}, 0);
+        fhm.readFully(f, buf, 0);
+        assertEquals(8, buf[0]);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FileHandleManagerTest.class);
+    }
+}
@@ -0,0 +1,191 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class FrameArenaTest extends SimpleDbTestBase {
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /** Runs the garbage collector until the arena has no live frames. */
+    private static void awaitReclaim(FrameArena arena) throws InterruptedException {
+        for (int i = 0; i < 50 && arena.getLiveBytes() > 0; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertEquals(0, arena.getLiveBytes());
+    }
+
+    /**
+     * Unit test for FrameArena.copyOf(): frames are direct, and reused once
+     * their owners are gone.
+     */
+    @Test public void reuseFrames() throws Exception {
+        FrameArena arena = new FrameArena(2 * 4096);
+        byte[] data = new byte[4096];
+        Arrays.fill(data, (byte) 7);
+
+        Object owner = new Object();
+        ByteBuffer frame = arena.copyOf(owner, data, 4096);
+        assertTrue(frame.isDirect());
+        assertEquals(4096, frame.capacity());
+        assertEquals(7, frame.get(4095));
+        // shorter data is padded with zeros
+        assertEquals(0, arena.copyOf(owner, new byte[10], 4096).get(100));
+        assertEquals(2 * 4096, arena.getLiveBytes());
+
+        // the arena is full, so new frames must reuse those of dead owners
+        owner = null;
+        frame = null;
+        awaitReclaim(arena);
+        Object other = new Object();
+        frame = arena.copyOf(other, data, 4096);
+        assertTrue(frame.isDirect());
+        assertEquals(7, frame.get(0));
+        assertTrue(arena.allocate(other, 4096).isDirect());
+        assertEquals(0, arena.getHeapFrames());
+        assertEquals(2 * 4096, arena.getReservedBytes());
+    }
+
+    /**
+     * Once its capacity is used up, the arena allocates frames on the heap.
+     */
+    @Test public void heapFallback() throws Exception {
+        FrameArena arena = new FrameArena(3 * 4096);
+        List<ByteBuffer> frames = new ArrayList<ByteBuffer>();
+        Object owner = new Object();
+        for (int i = 0; i < 4; i++) {
+            frames.add(arena.allocate(owner, 4096));
+        }
+        assertTrue(frames.get(2).isDirect());
+        assertFalse(frames.get(3).isDirect());
+        assertEquals(1, arena.getHeapFrames());
+        assertFalse(new FrameArena(0).allocate(owner, 4096).isDirect());
+    }
+
+    /**
+     * A thread whose stripe is full takes frames from the other stripes
+     * before falling back to the heap.
+     */
+    @Test public void stripes() throws Exception {
+        FrameArena arena = new FrameArena(4 * 4096, 2);
+        Object owner = new Object();
+        for (int i = 0; i < 4; i++) {
+            assertTrue(arena.allocate(owner, 4096).isDirect());
+        }
+        assertEquals(4 * 4096, arena.getReservedBytes());
+        assertFalse(arena.allocate(owner, 4096).isDirect());
+        assertEquals(1, arena.getHeapFrames());
+    }
+
+    /**
+     * Scans keep reading the right bytes while other scans evict their
+     * pages and the frames of dead pages are reused.
+     */
+    @Test public void evictWhileScanning() throws Exception {
+        final List<HeapFile> files = new ArrayList<HeapFile>();
+        final List<ArrayList<ArrayList<Integer>>> contents = new ArrayList<ArrayList<ArrayList<Integer>>>();
+        for (int i = 0; i < 3; i++) {
+            ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+            files.add(SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, tuples));
+            contents.add(tuples);
+        }
+        BufferPool bp = Database.resetBufferPool(new BufferPool(4, 8 * 4096));
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        final AtomicBoolean done = new AtomicBoolean();
+        List<Thread> scanners = new ArrayList<Thread>();
+        for (int i = 0; i < files.size(); i++) {
+            final int table = i;
+            Thread t = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 10; j++) {
+                            SystemTestUtil.matchTuples(files.get(table), contents.get(table));
+                        }
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }
+            };
+            scanners.add(t);
+            t.start();
+        }
+        Thread collector = new Thread() {
+            public void run() {
+                while (!done.get()) {
+                    System.gc();
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        collector.start();
+        for (Thread t : scanners) {
+            t.join();
+        }
+        done.set(true);
+        collector.join();
+        assertEquals(Collections.emptyList(), failures);
+        assertTrue(bp.getFrameArena().getReservedBytes() > 0);
+    }
+
+    /**
+     * Pages read through an off-heap buffer pool keep their bytes in direct
+     * frames, and keep a before image only once they are modified.
+     */
+    @Test public void offHeapPages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES, 4 * 1024 * 1024);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2000, null, tuples);
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+        assertTrue(page.data.isDirect());
+        assertNull(page.oldData);
+        int empty = page.getNumEmptySlots();
+
+        Tuple t = page.iterator().next();
+        Database.getBufferPool().deleteTuple(tid, t);
+        assertNotNull(page.oldData);
+        assertEquals(empty + 1, page.getNumEmptySlots());
+        assertEquals(empty, page.getBeforeImage().getNumEmptySlots());
+        page.setBeforeImage();
+        assertNull(page.oldData);
+        assertEquals(empty + 1, page.getBeforeImage().getNumEmptySlots());
+
+        // inserts write into the frame too, reusing the freed slot
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 1, 2 }));
+        assertEquals(empty, page.getNumEmptySlots());
+        assertTrue(bp.getFrameArena().getLiveBytes() >= hf.numPages() * BufferPool.getPageSize());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FrameArenaTest.class);
+    }
+}
@@ -0,0 +1,94 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.CountingHeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for FreeSpaceMap.nextPageWithRoom()
+     */
+    @Test public void nextPageWithRoom() {
+        FreeSpaceMap fsm = new FreeSpaceMap();
+        for (int i = 0; i < 10; i++) {
+            fsm.setHasRoom(i, false);
+        }
+        assertEquals(-1, fsm.nextPageWithRoom(0, 10));
+
+        fsm.setHasRoom(7, true);
+        assertEquals(7, fsm.nextPageWithRoom(0, 10));
+        assertEquals(-1, fsm.nextPageWithRoom(8, 10));
+
+        // pages the map has not seen yet are assumed to have room
+        assertEquals(10, fsm.nextPageWithRoom(8, 12));
+        assertTrue(fsm.hasRoom(11));
+    }
+
+    /**
+     * The map built from disk marks full pages as full.
+     */
+    @Test public void buildFromDisk() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 3 + 10, null, null);
+        FreeSpaceMap fsm = hf.getFreeSpaceMap();
+        assertFalse(fsm.hasRoom(0));
+        assertFalse(fsm.hasRoom(2));
+        assertTrue(fsm.hasRoom(3));
+        assertEquals(1, fsm.numPagesWithRoom());
+    }
+
+    /**
+     * Inserts go straight to the page with room, without reading the full
+     * pages before it.
+     */
+    @Test public void insertSkipsFullPages() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 5, 1000, null, tuples);
+        CountingHeapFile hf = new CountingHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        // free a slot on page 3
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(hf.getId(), 3), Permissions.READ_WRITE);
+        hf.deleteTuple(tid, page.iterator().next());
+        assertEquals(1, hf.readCount.get());
+
+        Tuple t = Utility.getHeapTuple(7, 2);
+        hf.insertTuple(tid, t);
+        assertEquals(3, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(1, hf.readCount.get());
+        assertFalse(hf.getFreeSpaceMap().hasRoom(3));
+
+        // the file is full again, so the next insert appends a page
+        Tuple t2 = Utility.getHeapTuple(8, 2);
+        hf.insertTuple(tid, t2);
+        assertEquals(5, t2.getRecordId().getPageId().getPageNumber());
+        assertEquals(6, hf.numPages());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -0,0 +1,80 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HeapFileEncoderTest extends SimpleDbTestBase {
+
+    private static final Type[] TYPES = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+
+    /** Writes the specified lines to a temporary text file. */
+    private static File writeInput(List<String> lines) throws IOException {
+        File f = File.createTempFile("encoder", ".txt");
+        f.deleteOnExit();
+        PrintWriter pw = new PrintWriter(new FileWriter(f));
+        for (String line : lines)
+            pw.println(line);
+        pw.close();
+        return f;
+    }
+
+    private static File tempFile() throws IOException {
+        File f = File.createTempFile("encoder", ".dat");
+        f.deleteOnExit();
+        return f;
+    }
+
+    /**
+     * convertParallel produces the same file as convert, over several chunks
+     * and with a partial last page.
+     */
+    @Test public void convertParallelMatchesConvert() throws Exception {
+        ArrayList<String> lines = new ArrayList<String>();
+        int rows = HeapPage.getNumTuples(new TupleDesc(TYPES)) * HeapFileEncoder.PAGES_PER_CHUNK * 3 + 7;
+        for (int i = 0; i < rows; i++)
+            lines.add(i + ",name" + (i * 31 % 1000));
+        File input = writeInput(lines);
+
+        File serial = tempFile();
+        File parallel = tempFile();
+        HeapFileEncoder.convert(input, serial, BufferPool.getPageSize(), 2, TYPES, ',');
+        HeapFileEncoder.convertParallel(input, parallel, BufferPool.getPageSize(), 2, TYPES, ',', 3);
+        assertArrayEquals(Files.readAllBytes(serial.toPath()), Files.readAllBytes(parallel.toPath()));
+    }
+
+    /**
+     * convertParallel skips malformed lines, and writes one empty page for
+     * an empty input.
+     */
+    @Test public void convertParallelBadAndEmptyInput() throws Exception {
+        File output = tempFile();
+        HeapFileEncoder.convertParallel(writeInput(Arrays.asList("1,2", "x,3", "", "4,5", "6")),
+                output, BufferPool.getPageSize(), 2, new Type[] { Type.INT_TYPE, Type.INT_TYPE }, ',', 2);
+        HeapFile hf = new HeapFile(output, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertEquals(1, hf.numPages());
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        expected.add(new ArrayList<Integer>(Arrays.asList(1, 2)));
+        expected.add(new ArrayList<Integer>(Arrays.asList(4, 5)));
+        SystemTestUtil.matchTuples(hf, expected);
+
+        HeapFileEncoder.convertParallel(writeInput(new ArrayList<String>()), output,
+                BufferPool.getPageSize(), 2, new Type[] { Type.INT_TYPE, Type.INT_TYPE }, ',', 2);
+        assertEquals(BufferPool.getPageSize(), output.length());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileEncoderTest.class);
+    }
+}
@@ -1,9 +1,12 @@
 package simpledb;
 
+import simpledb.TestUtil.CountingHeapFile;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.File;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -121,6 +124,188 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * A scan that reads ahead still reads every page exactly once, and
+     * returns every tuple.
+     */
+    @Test
+    public void testReadAhead() throws Exception {
+        int oldWindow = HeapFile.getReadAheadPages();
+        HeapFile.setReadAheadPages(4);
+        try {
+            ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+            File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 20, 1000, null, tuples);
+            CountingHeapFile table = new CountingHeapFile(f, td);
+            Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+            SystemTestUtil.matchTuples(table, tuples);
+            assertEquals(20, table.readCount.get());
+        } finally {
+            HeapFile.setReadAheadPages(oldWindow);
+        }
+    }
+
+    /**
+     * Pages loaded by BufferPool.prefetchPages are not read again by getPage.
+     */
+    @Test
+    public void testPrefetchPages() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 3, 1000, null, null);
+        CountingHeapFile table = new CountingHeapFile(f, td);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+        List<PageId> pids = new ArrayList<PageId>();
+        for (int i = 0; i < 3; i++) {
+            pids.add(new HeapPageId(table.getId(), i));
+        }
+        Database.getBufferPool().prefetchPages(pids);
+        for (PageId pid : pids) {
+            HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            assertEquals(0, p.getNumEmptySlots());
+        }
+        assertEquals(3, table.readCount.get());
+
+        // already cached: prefetching again reads nothing
+        Database.getBufferPool().prefetchPages(pids);
+        Database.getBufferPool().getPage(tid, pids.get(2), Permissions.READ_ONLY);
+        assertEquals(3, table.readCount.get());
+    }
+
+    /**
+     * Unit test for HeapFile.readPages(): the pages come back in the order
+     * they were asked for, and pages past the end of the file are null.
+     */
+    @Test
+    public void readPages() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 504 * 5, null, null);
+        List<PageId> pids = new ArrayList<PageId>();
+        for (int i : new int[] { 3, 0, 7, 1, 2 }) {
+            pids.add(new HeapPageId(table.getId(), i));
+        }
+        List<Page> pages = table.readPages(pids);
+        assertEquals(5, pages.size());
+        assertNull(pages.get(2));
+        for (int i : new int[] { 0, 1, 3, 4 }) {
+            assertEquals(pids.get(i), pages.get(i).getId());
+            assertEquals(0, ((HeapPage) pages.get(i)).getNumEmptySlots());
+        }
+    }
+
+    /**
+     * BufferPool.getPages reads the pages that are not cached in one batch,
+     * and returns cached pages without reading them.
+     */
+    @Test
+    public void testGetPages() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 6, 1000, null, null);
+        CountingHeapFile table = new CountingHeapFile(f, td);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        BufferPool bp = Database.getBufferPool();
+        Page cached = bp.getPage(tid, new HeapPageId(table.getId(), 2), Permissions.READ_ONLY);
+
+        List<PageId> pids = new ArrayList<PageId>();
+        for (int i : new int[] { 4, 2, 0, 5, 1, 4 }) {
+            pids.add(new HeapPageId(table.getId(), i));
+        }
+        List<Page> pages = bp.getPages(tid, pids, Permissions.READ_ONLY);
+        // the four pages that were not cached, once each
+        assertEquals(5, table.readCount.get());
+        assertEquals(1, table.readsIssued.get());
+        assertSame(cached, pages.get(1));
+        assertSame(pages.get(0), pages.get(5));
+        for (int i = 0; i < pids.size(); i++) {
+            assertEquals(pids.get(i), pages.get(i).getId());
+            assertSame(pages.get(i), bp.getCachedPage(pids.get(i)));
+        }
+    }
+
+    /**
+     * BufferPool.getPages reports pages that can't be read like getPage.
+     */
+    @Test(expected = DbException.class)
+    public void testGetPagesMissing() throws Exception {
+        List<PageId> pids = new ArrayList<PageId>();
+        pids.add(new HeapPageId(hf.getId(), 0));
+        pids.add(new HeapPageId(hf.getId(), 1));
+        Database.getBufferPool().getPages(tid, pids, Permissions.READ_ONLY);
+    }
+
+    /** A CountingHeapFile whose reads are slow, and that records how many run at once. */
+    private static class SlowHeapFile extends CountingHeapFile {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        SlowHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            int n = running.incrementAndGet();
+            maxRunning.accumulateAndGet(n, Math::max);
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            return super.readPage(pid);
+        }
+    }
+
+    /**
+     * BufferPool.prefetchPagesAsync issues its reads concurrently, and the
+     * pages are not read again by getPage.
+     */
+    @Test
+    public void testPrefetchPagesAsync() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 10, 1000, null, null);
+        SlowHeapFile table = new SlowHeapFile(f, td);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+        List<PageId> pids = new ArrayList<PageId>();
+        for (int i : new int[] { 7, 1, 9, 4, 2, 8 }) {
+            pids.add(new HeapPageId(table.getId(), i));
+        }
+        Database.getBufferPool().prefetchPagesAsync(pids);
+        for (PageId pid : pids) {
+            HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            assertEquals(0, p.getNumEmptySlots());
+        }
+        assertEquals(6, table.readCount.get());
+        assertTrue(table.maxRunning.get() > 1);
+
+        // already cached: prefetching again reads nothing
+        Database.getBufferPool().prefetchPagesAsync(pids);
+        Database.getBufferPool().getPage(tid, pids.get(0), Permissions.READ_ONLY);
+        assertEquals(6, table.readCount.get());
+    }
+
+    /**
+     * A getPage interrupted while it waits for a read ahead of the page
+     * fails and keeps the interrupt, rather than reading the page again.
+     */
+    @Test
+    public void interruptedWhileWaitingForPrefetch() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 2, 1000, null, null);
+        SlowHeapFile table = new SlowHeapFile(f, td);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        PageId pid = new HeapPageId(table.getId(), 1);
+
+        Database.getBufferPool().prefetchPagesAsync(Collections.singletonList(pid));
+        Thread.currentThread().interrupt();
+        try {
+            Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        assertTrue(Thread.interrupted());
+
+        Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        assertEquals(1, table.readCount.get());
+    }
+
     /**
      * JUnit suite target
      */
@@ -1,9 +1,15 @@
 package simpledb;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import simpledb.systemtest.SystemTestUtil;
 import static org.junit.Assert.*;
 import junit.framework.JUnit4TestAdapter;
 
@@ -43,6 +49,189 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.bulkInsert()
+     */
+    @Test public void bulkInsert() throws Exception {
+        empty.insertTuple(tid, Utility.getHeapTuple(-1, 2));
+        assertEquals(1, empty.numPages());
+
+        // bulk inserts go to new pages, which are logged as a whole
+        int n = 504 * (HeapFile.BULK_INSERT_BATCH_PAGES + 6) + 3;
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < n; ++i) {
+            tuples.add(Utility.getHeapTuple(i, 2));
+        }
+        int records = Database.getLogFile().getTotalRecords();
+        assertEquals(n, empty.bulkInsert(tid, tuples.iterator()));
+        int pages = HeapFile.BULK_INSERT_BATCH_PAGES + 7;
+        assertEquals(1 + pages, empty.numPages());
+        assertEquals(records + pages, Database.getLogFile().getTotalRecords());
+        assertEquals(new HeapPageId(empty.getId(), 1), tuples.get(0).getRecordId().getPageId());
+        assertEquals(new HeapPageId(empty.getId(), pages), tuples.get(n - 1).getRecordId().getPageId());
+
+        // the pages are on disk, and once tid commits the last one has room
+        // for an insert
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(n + 1, count);
+        Database.getBufferPool().transactionComplete(tid, true);
+        empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        assertEquals(1 + pages, empty.numPages());
+    }
+
+    /**
+     * The pages a bulk insert appended are removed again if its
+     * transaction aborts, and inserts made meanwhile do not go to them.
+     */
+    @Test public void bulkInsertAbort() throws Exception {
+        empty.insertTuple(tid, Utility.getHeapTuple(-1, 2));
+        Database.getBufferPool().flushAllPages();
+        long length = empty.getFile().length();
+
+        Transaction t = new Transaction();
+        t.start();
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 504 * 3 + 10; ++i) {
+            tuples.add(Utility.getHeapTuple(i, 2));
+        }
+        empty.bulkInsert(t.getId(), tuples.iterator());
+        assertEquals(5, empty.numPages());
+        Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(-2, 2));
+        t.abort();
+
+        assertEquals(1, empty.numPages());
+        assertEquals(length, empty.getFile().length());
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        Set<Integer> values = new HashSet<Integer>();
+        while (it.hasNext()) {
+            values.add(((IntField) it.next().getField(0)).getValue());
+        }
+        it.close();
+        assertEquals(new HashSet<Integer>(Arrays.asList(-1, -2)), values);
+    }
+
+    /**
+     * A tuple inserted by another transaction while a bulk load is writing
+     * its pages never lands on those pages, so it survives the abort.
+     */
+    @Test public void insertDuringAbortedBulkInsert() throws Exception {
+        final Transaction t = new Transaction();
+        final File f = File.createTempFile("bulk", ".dat");
+        f.deleteOnExit();
+        // inserts a tuple for tid right after the bulk load wrote page 2,
+        // the last of its pages
+        final AtomicBoolean inserted = new AtomicBoolean();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2)) {
+            @Override
+            public void writePage(Page page) throws IOException {
+                super.writePage(page);
+                if (page.getId().getPageNumber() == 2 && !inserted.getAndSet(true)) {
+                    try {
+                        Database.getBufferPool().insertTuple(tid, getId(), Utility.getHeapTuple(-2, 2));
+                    } catch (DbException | TransactionAbortedException e) {
+                        throw new IOException(e);
+                    }
+                }
+            }
+        };
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        for (int i = 0; i < 504; ++i) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(-1, 2));
+        }
+        Database.getBufferPool().flushAllPages();
+
+        t.start();
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 504 + 10; ++i) {
+            tuples.add(Utility.getHeapTuple(i, 2));
+        }
+        hf.bulkInsert(t.getId(), tuples.iterator());
+        assertEquals(4, hf.numPages());
+        t.abort();
+
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        Map<Integer, Integer> values = new HashMap<Integer, Integer>();
+        while (it.hasNext()) {
+            values.merge(((IntField) it.next().getField(0)).getValue(), 1, Integer::sum);
+        }
+        it.close();
+        Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        expected.put(-1, 504);
+        expected.put(-2, 1);
+        assertEquals(expected, values);
+    }
+
+    /**
+     * A table with 64KB pages is read and extended with pages of its own
+     * size, next to tables with the default page size.
+     */
+    @Test public void largePages() throws Exception {
+        int pageSize = 64 * 1024;
+        int perPage = HeapPage.getNumTuples(Utility.getTupleDesc(2), pageSize);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < perPage + 10; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, -i)));
+        }
+        File f = File.createTempFile("large", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, pageSize, 2);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2), pageSize);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertEquals(pageSize, Database.getCatalog().getPageSize(hf.getId()));
+        assertEquals(2, hf.numPages());
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        // fill the second page, then start a third
+        while (hf.numPages() == 2) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(7, 2));
+            tuples.add(new ArrayList<Integer>(Arrays.asList(7, 7)));
+        }
+        assertEquals(2 * perPage + 1, tuples.size());
+        Database.getBufferPool().flushAllPages();
+        assertEquals(3L * pageSize, f.length());
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        // the default-sized table is unaffected
+        assertEquals(BufferPool.getPageSize(), empty.getPageSize());
+        empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        assertEquals(1, empty.numPages());
+    }
+
+    /**
+     * Unit test for HeapFile.writePages(): pages given out of order and
+     * with gaps, including one past the end of the file, all land at their
+     * own offsets.
+     */
+    @Test public void writePages() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        int[] order = { 3, 0, 4, 1 };
+        List<Page> pages = new ArrayList<Page>();
+        for (int i : order) {
+            HeapPageId pid = new HeapPageId(hf.getId(), i);
+            HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+            page.insertTuple(Utility.getHeapTuple(i, 2));
+            pages.add(page);
+        }
+        hf.writePages(pages);
+        assertEquals(5, hf.numPages());
+        for (int i : order) {
+            Iterator<Tuple> it = ((HeapPage) hf.readPage(new HeapPageId(hf.getId(), i))).iterator();
+            assertEquals(i, ((IntField) it.next().getField(0)).getValue());
+            assertFalse(it.hasNext());
+        }
+        // page 2 was not written
+        assertEquals(0, ((HeapPage) hf.readPage(new HeapPageId(hf.getId(), 2))).getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
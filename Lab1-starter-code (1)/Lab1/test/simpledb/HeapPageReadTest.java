@@ -120,6 +120,40 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getField()
+     */
+    @Test public void getField() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        for (int row = 0; row < EXAMPLE_VALUES.length; row++) {
+            assertEquals(new IntField(EXAMPLE_VALUES[row][0]), page.getField(row, 0));
+            assertEquals(new IntField(EXAMPLE_VALUES[row][1]), page.getField(row, 1));
+        }
+    }
+
+    /**
+     * Unit test for HeapPage.iterator(Predicate)
+     */
+    @Test public void testFilteredIterator() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(30000));
+
+        int expected = 0;
+        for (int[] tuple : EXAMPLE_VALUES) {
+            if (tuple[0] > 30000)
+                expected++;
+        }
+
+        int count = 0;
+        Iterator<Tuple> it = page.iterator(p);
+        while (it.hasNext()) {
+            Tuple tup = it.next();
+            assertTrue(((IntField) tup.getField(0)).getValue() > 30000);
+            count++;
+        }
+        assertEquals(expected, count);
+    }
+
     /**
      * JUnit suite target
      */
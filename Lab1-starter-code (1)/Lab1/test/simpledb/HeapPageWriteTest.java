@@ -1,6 +1,7 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
@@ -126,6 +127,32 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getPageData() after inserts and deletes: the
+     * serialized page reads back as the same page.
+     */
+    @Test public void getPageDataRoundTrip() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        page.deleteTuple(page.iterator().next());
+        Tuple addition = Utility.getHeapTuple(new int[] { -1, 123456 });
+        page.insertTuple(addition);
+        assertEquals(0, addition.getRecordId().getTupleNumber());
+
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        Iterator<Tuple> it = page.iterator();
+        Iterator<Tuple> copyIt = copy.iterator();
+        while (it.hasNext()) {
+            assertTrue(TestUtil.compareTuples(it.next(), copyIt.next()));
+        }
+        assertFalse(copyIt.hasNext());
+        assertEquals(new IntField(123456), copy.getField(0, 1));
+
+        // the page does not write through to the array it was created from
+        assertTrue(new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA).getField(0, 0)
+                .compare(Predicate.Op.NOT_EQUALS, new IntField(-1)));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,84 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class MappedHeapFileTest extends SimpleDbTestBase {
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Opens a random table as a MappedHeapFile with small segments, so that
+     * the table spans several of them.
+     */
+    private MappedHeapFile createMappedFile(int rows, ArrayList<ArrayList<Integer>> tuples)
+            throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, rows, 1000, null, tuples);
+        MappedHeapFile mf = new MappedHeapFile(f, Utility.getTupleDesc(2),
+                2 * BufferPool.getPageSize());
+        Database.getCatalog().addTable(mf, SystemTestUtil.getUUID());
+        return mf;
+    }
+
+    /**
+     * Unit test for MappedHeapFile.readPage()
+     */
+    @Test public void readPage() throws Exception {
+        MappedHeapFile mf = createMappedFile(20, null);
+        HeapPage page = (HeapPage) mf.readPage(new HeapPageId(mf.getId(), 0));
+        assertEquals(484, page.getNumEmptySlots());
+        assertTrue(page.isSlotUsed(1));
+        assertFalse(page.isSlotUsed(20));
+    }
+
+    /**
+     * Scanning a table spread over several segments returns every tuple.
+     */
+    @Test public void scan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        MappedHeapFile mf = createMappedFile(504 * 5 + 17, tuples);
+        assertEquals(6, mf.numPages());
+        SystemTestUtil.matchTuples(mf, tuples);
+    }
+
+    /**
+     * Pages appended by insertTuple can be read back through the mapping.
+     */
+    @Test public void readAppendedPage() throws Exception {
+        MappedHeapFile mf = createMappedFile(504, null);
+        // map the only segment before the file grows
+        mf.readPage(new HeapPageId(mf.getId(), 0));
+
+        Tuple t = Utility.getHeapTuple(42, 2);
+        mf.insertTuple(tid, t);
+        assertEquals(2, mf.numPages());
+
+        HeapPage page = (HeapPage) mf.readPage(t.getRecordId().getPageId());
+        assertEquals(503, page.getNumEmptySlots());
+        assertEquals(new IntField(42), page.iterator().next().getField(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedHeapFileTest.class);
+    }
+}
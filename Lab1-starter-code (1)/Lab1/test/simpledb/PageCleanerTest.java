@@ -0,0 +1,178 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageCleanerTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private HeapPageId pid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // room for 4 tuples on the page
+        hf = SystemTestUtil.createRandomHeapFile(2, 500, null, null);
+        pid = new HeapPageId(hf.getId(), 0);
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /** @return the number of tuples on the first page of hf on disk */
+    private int tuplesOnDisk() {
+        int n = 0;
+        Iterator<Tuple> it = ((HeapPage) hf.readPage(pid)).iterator();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * A commit logs its pages and leaves them to the cleaner, which writes
+     * them once the COMMIT record is on disk.
+     */
+    @Test public void commitLeavesPagesToCleaner() throws Exception {
+        BufferPool bp = Database.resetBufferPool(new BufferPool(BufferPool.DEFAULT_PAGES));
+        bp.startPageCleaner();
+        int records = Database.getLogFile().getTotalRecords();
+        Transaction t = new Transaction();
+        t.start();
+        bp.insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(new int[] { 1, 2 }));
+        t.commit();
+        // BEGIN, UPDATE and COMMIT
+        assertTrue(Database.getLogFile().getTotalRecords() >= records + 3);
+
+        bp.stopPageCleaner();
+        assertNull(bp.getCachedPage(pid).isDirty());
+        assertEquals(501, tuplesOnDisk());
+    }
+
+    /**
+     * Without a cleaner, commits write their pages themselves.
+     */
+    @Test public void commitWithoutCleaner() throws Exception {
+        BufferPool bp = Database.resetBufferPool(new BufferPool(BufferPool.DEFAULT_PAGES));
+        bp.startPageCleaner();
+        bp.stopPageCleaner();
+        Transaction t = new Transaction();
+        t.start();
+        bp.insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(new int[] { 1, 2 }));
+        t.commit();
+        assertNull(bp.getCachedPage(pid).isDirty());
+        assertEquals(501, tuplesOnDisk());
+    }
+
+    /**
+     * The cleaner does not write a page that a later transaction dirtied
+     * after the one that handed it over committed.
+     */
+    @Test public void laterChangesStay() throws Exception {
+        BufferPool bp = Database.resetBufferPool(new BufferPool(BufferPool.DEFAULT_PAGES));
+        TransactionId committed = new TransactionId();
+        TransactionId running = new TransactionId();
+        Page page = bp.getPage(running, pid, Permissions.READ_WRITE);
+        ((HeapPage) page).insertTuple(Utility.getHeapTuple(new int[] { 1, 2 }));
+        page.markDirty(true, running);
+
+        bp.cleanPages(Arrays.asList(pid), committed);
+        assertEquals(running, page.isDirty());
+        assertEquals(500, tuplesOnDisk());
+        bp.cleanPages(Arrays.asList(pid), running);
+        assertNull(page.isDirty());
+        assertEquals(501, tuplesOnDisk());
+    }
+
+    /**
+     * A pool full of pages of committed transactions still has room for
+     * new pages.
+     */
+    @Test public void fullOfCommittedPages() throws Exception {
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 504 * 6, null, null);
+        BufferPool bp = Database.resetBufferPool(new BufferPool(3));
+        bp.startPageCleaner();
+        for (int i = 0; i < 3; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            Page page = bp.getPage(t.getId(), new HeapPageId(big.getId(), i), Permissions.READ_WRITE);
+            page.markDirty(true, t.getId());
+            t.commit();
+        }
+        for (int i = 3; i < 6; i++) {
+            bp.getPage(new TransactionId(), new HeapPageId(big.getId(), i), Permissions.READ_ONLY);
+        }
+        assertEquals(3, bp.getNumCachedPages());
+        bp.stopPageCleaner();
+    }
+
+    /**
+     * Committed pages are written to make room under the pool's monitor, so
+     * that they are not written while HeapFile.truncateEmptyPages drops
+     * them.
+     */
+    @Test public void evictionWritesUnderPoolMonitor() throws Exception {
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        final BufferPool bp = Database.resetBufferPool(new BufferPool(3));
+        bp.startPageCleaner();
+        final List<PageId> pids = new ArrayList<PageId>();
+        for (int i = 0; i < 4; i++) {
+            pids.add(new HeapPageId(big.getId(), i));
+        }
+        for (int i = 0; i < 3; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            Page page = bp.getPage(t.getId(), pids.get(i), Permissions.READ_WRITE);
+            page.markDirty(true, t.getId());
+            t.commit();
+        }
+
+        final Exception[] failure = new Exception[1];
+        Thread reader = new Thread() {
+            public void run() {
+                try {
+                    bp.getPage(new TransactionId(), pids.get(3), Permissions.READ_ONLY);
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        synchronized (bp) {
+            // the cleaner takes the monitor too, so nothing is written while
+            // we hold it
+            int dirty = 0;
+            for (int i = 0; i < 3; i++) {
+                if (bp.getCachedPage(pids.get(i)).isDirty() != null) {
+                    dirty++;
+                }
+            }
+            reader.start();
+            if (dirty == 3) {
+                while (reader.getState() != Thread.State.BLOCKED) {
+                    assertTrue(reader.isAlive());
+                    Thread.sleep(5);
+                }
+                assertNull(bp.getCachedPage(pids.get(3)));
+            }
+        }
+        reader.join();
+        assertNull(failure[0]);
+        assertNotNull(bp.getCachedPage(pids.get(3)));
+        bp.stopPageCleaner();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
@@ -0,0 +1,136 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PaxHeapFileTest extends SimpleDbTestBase {
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Encodes the specified rows in the PAX format and opens the file.
+     */
+    private PaxHeapFile createPaxFile(ArrayList<ArrayList<Integer>> tuples, int columns)
+            throws Exception {
+        File f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convertPax(tuples, f, BufferPool.getPageSize(), columns);
+        PaxHeapFile pf = new PaxHeapFile(f, Utility.getTupleDesc(columns));
+        Database.getCatalog().addTable(pf, SystemTestUtil.getUUID());
+        return pf;
+    }
+
+    private static ArrayList<ArrayList<Integer>> randomTuples(int rows, int columns) {
+        Random r = new Random(42);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            for (int j = 0; j < columns; j++) {
+                tuple.add(r.nextInt(1000));
+            }
+            tuples.add(tuple);
+        }
+        return tuples;
+    }
+
+    /**
+     * A PAX page holds as many tuples as a HeapPage and lays each column out
+     * contiguously.
+     */
+    @Test public void columnLayout() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = randomTuples(20, 3);
+        PaxHeapFile pf = createPaxFile(tuples, 3);
+        PaxHeapPage page = (PaxHeapPage) pf.readPage(new HeapPageId(pf.getId(), 0));
+        int numSlots = HeapPage.getNumTuples(pf.getTupleDesc());
+        assertEquals(numSlots - 20, page.getNumEmptySlots());
+
+        byte[] data = page.getPageData();
+        int headerSize = HeapPage.getHeaderSize(pf.getTupleDesc());
+        for (int i = 0; i < 20; i++) {
+            // the second column starts after numSlots values of the first
+            assertEquals((int) tuples.get(i).get(1),
+                    Type.readInt(data, headerSize + numSlots * 4 + i * 4));
+            assertEquals(new IntField(tuples.get(i).get(2)), page.getField(i, 2));
+        }
+    }
+
+    /**
+     * Scanning a PAX file returns every tuple.
+     */
+    @Test public void scan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = randomTuples(1500, 10);
+        PaxHeapFile pf = createPaxFile(tuples, 10);
+        assertTrue(pf.numPages() > 1);
+        SystemTestUtil.matchTuples(pf, tuples);
+    }
+
+    /**
+     * Unit test for PaxHeapPage.iterator(Predicate)
+     */
+    @Test public void filteredIterator() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = randomTuples(50, 10);
+        PaxHeapFile pf = createPaxFile(tuples, 10);
+        PaxHeapPage page = (PaxHeapPage) pf.readPage(new HeapPageId(pf.getId(), 0));
+
+        int expected = 0;
+        for (ArrayList<Integer> tuple : tuples) {
+            if (tuple.get(7) < 100)
+                expected++;
+        }
+        int count = 0;
+        Iterator<Tuple> it = page.iterator(new Predicate(7, Predicate.Op.LESS_THAN, new IntField(100)));
+        while (it.hasNext()) {
+            assertTrue(((IntField) it.next().getField(7)).getValue() < 100);
+            count++;
+        }
+        assertEquals(expected, count);
+    }
+
+    /**
+     * Inserted tuples are written into the column minipages, and deleted
+     * slots are reused.
+     */
+    @Test public void insertDelete() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = randomTuples(10, 2);
+        PaxHeapFile pf = createPaxFile(tuples, 2);
+
+        Tuple t = Utility.getHeapTuple(new int[] { 7, 8 });
+        pf.insertTuple(tid, t);
+        assertEquals(10, t.getRecordId().getTupleNumber());
+
+        PaxHeapPage page = (PaxHeapPage) Database.getBufferPool().getPage(tid,
+                t.getRecordId().getPageId(), Permissions.READ_ONLY);
+        PaxHeapPage copy = new PaxHeapPage(page.getId(), page.getPageData());
+        assertEquals(new IntField(8), copy.getField(10, 1));
+
+        pf.deleteTuple(tid, page.iterator().next());
+        Tuple t2 = Utility.getHeapTuple(new int[] { 9, 10 });
+        pf.insertTuple(tid, t2);
+        assertEquals(0, t2.getRecordId().getTupleNumber());
+        assertEquals(new IntField(10), page.getField(0, 1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxHeapFileTest.class);
+    }
+}
@@ -0,0 +1,249 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+    private TransactionId tid;
+    private PageId[] pids;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        pids = new PageId[8];
+        for (int i = 0; i < pids.length; i++) {
+            pids[i] = new HeapPageId(1, i);
+        }
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /** @return a predicate accepting all pages but the specified ones */
+    private static java.util.function.Predicate<PageId> allBut(PageId... pinned) {
+        List<PageId> l = Arrays.asList(pinned);
+        return pid -> !l.contains(pid);
+    }
+
+    /**
+     * Unit test for ClockPolicy: the hand skips referenced and unevictable
+     * pages.
+     */
+    @Test public void clock() {
+        ReplacementPolicy p = new ClockPolicy();
+        for (int i = 0; i < 4; i++) {
+            p.pageAdded(pids[i]);
+        }
+        p.pageAccessed(pids[0]);
+        p.pageAccessed(pids[2]);
+        assertEquals(pids[1], p.chooseVictim(allBut()));
+        p.pageRemoved(pids[1]);
+        // page 0 lost its bit on the first sweep, page 2 loses it now
+        assertEquals(pids[3], p.chooseVictim(allBut(pids[0])));
+        assertEquals(pids[0], p.chooseVictim(allBut()));
+        assertNull(p.chooseVictim(allBut(pids[0], pids[2], pids[3])));
+        // a removed page's frame is reused
+        p.pageAdded(pids[4]);
+        p.pageRemoved(pids[0]);
+        p.pageRemoved(pids[2]);
+        p.pageRemoved(pids[3]);
+        assertEquals(pids[4], p.chooseVictim(allBut()));
+    }
+
+    /**
+     * Ranked victims come from a single pass: the lowest rank wins, and
+     * the CLOCK hand only clears the bits it passes on the way to the
+     * victim, so searches that find nothing change nothing.
+     */
+    @Test public void rankedVictims() {
+        ReplacementPolicy p = new ClockPolicy();
+        for (int i = 0; i < 4; i++) {
+            p.pageAdded(pids[i]);
+            if (i > 0) {
+                p.pageAccessed(pids[i]);
+            }
+        }
+        List<PageId> hottest = Arrays.asList(pids[1], pids[2], pids[3], pids[0]);
+        assertNull(p.chooseVictim(allBut(pids)));
+        assertEquals(hottest, p.hottestPages());
+        // page 3 is the only page of rank 0: the others keep their bits
+        assertEquals(pids[3], p.chooseVictim(allBut(), pid -> pid.equals(pids[3]) ? 0 : 1, 0));
+        p.pageRemoved(pids[3]);
+        assertEquals(Arrays.asList(pids[1], pids[2], pids[0]), p.hottestPages());
+
+        for (ReplacementPolicy q : new ReplacementPolicy[] { new LruKPolicy(2, 8),
+                new TwoQueuePolicy(8) }) {
+            for (int i = 0; i < 4; i++) {
+                q.pageAdded(pids[i]);
+            }
+            assertEquals(pids[2], q.chooseVictim(allBut(), pid -> pid.equals(pids[2]) ? 0 : 1, 0));
+            assertEquals(pids[0], q.chooseVictim(allBut(), pid -> 1, 0));
+            assertNull(q.chooseVictim(allBut(pids), pid -> 0, 0));
+        }
+    }
+
+    /**
+     * ClockPolicy leaves pages reported dirty out of its search, and the
+     * hand keeps their bits when it passes them, until they are clean
+     * again.
+     */
+    @Test public void clockSkipsDirtyPages() {
+        ClockPolicy p = new ClockPolicy();
+        for (int i = 0; i < 4; i++) {
+            p.pageAdded(pids[i]);
+            p.pageAccessed(pids[i]);
+            p.pageDirtied(pids[i]);
+        }
+        // the predicate would take them, but they are known to be dirty
+        assertNull(p.chooseVictim(allBut()));
+        p.pageCleaned(pids[2]);
+        assertEquals(pids[2], p.chooseVictim(allBut()));
+        p.pageRemoved(pids[2]);
+
+        // the hand takes the bits of the clean pages 0 and 1 and comes
+        // back to page 0, passing page 3 twice without taking its bit
+        p.pageCleaned(pids[0]);
+        p.pageCleaned(pids[1]);
+        assertEquals(pids[0], p.chooseVictim(allBut()));
+        p.pageRemoved(pids[0]);
+        assertEquals(Arrays.asList(pids[3], pids[1]), p.hottestPages());
+    }
+
+    /**
+     * Unit test for LruKPolicy: pages with fewer than K accesses go first,
+     * then pages by their K-th most recent access.
+     */
+    @Test public void lruK() {
+        ReplacementPolicy p = new LruKPolicy(2, 4);
+        for (int i = 0; i < 4; i++) {
+            p.pageAdded(pids[i]);
+        }
+        p.pageAccessed(pids[0]);
+        p.pageAccessed(pids[0]);
+        p.pageAccessed(pids[1]);
+        p.pageAccessed(pids[2]);
+        p.pageAccessed(pids[2]);
+        p.pageAccessed(pids[3]);
+        assertEquals(pids[1], p.chooseVictim(allBut()));
+        assertEquals(pids[3], p.chooseVictim(allBut(pids[1])));
+        assertEquals(pids[0], p.chooseVictim(allBut(pids[1], pids[3])));
+
+        // an evicted page keeps its history when it comes back, so page 2
+        // is not taken for a page with a single access
+        p.pageRemoved(pids[2]);
+        p.pageAdded(pids[2]);
+        assertEquals(pids[0], p.chooseVictim(allBut(pids[1], pids[3])));
+        p.pageAccessed(pids[0]);
+        p.pageAccessed(pids[0]);
+        assertEquals(pids[2], p.chooseVictim(allBut(pids[1], pids[3])));
+        assertEquals(pids[1], p.chooseVictim(allBut()));
+    }
+
+    /**
+     * Unit test for TwoQueuePolicy: new pages go through A1in, and come
+     * back into Am if they are read again soon after they are evicted.
+     */
+    @Test public void twoQueue() {
+        ReplacementPolicy p = new TwoQueuePolicy(8);
+        p.pageAdded(pids[0]);
+        p.pageAdded(pids[1]);
+        p.pageAdded(pids[2]);
+        // A1in holds more than its quarter of the pool
+        assertEquals(pids[0], p.chooseVictim(allBut()));
+        p.pageRemoved(pids[0]);
+        p.pageAdded(pids[0]);
+        // A1in is within its share, so Am gives the victim
+        assertEquals(pids[0], p.chooseVictim(allBut()));
+        p.pageAdded(pids[3]);
+        assertEquals(pids[1], p.chooseVictim(allBut()));
+        // Am is least recently used first
+        p.pageRemoved(pids[1]);
+        p.pageRemoved(pids[2]);
+        p.pageAdded(pids[1]);
+        p.pageAdded(pids[2]);
+        p.pageAccessed(pids[0]);
+        assertEquals(pids[1], p.chooseVictim(allBut()));
+        assertEquals(pids[3], p.chooseVictim(allBut(pids[0], pids[1], pids[2])));
+    }
+
+    /**
+     * Unit test for ReplacementPolicy.hottestPages(): each policy ranks its
+     * pages in the reverse of the order it would evict them.
+     */
+    @Test public void hottestPages() {
+        ReplacementPolicy clock = new ClockPolicy();
+        ReplacementPolicy lruK = new LruKPolicy(2, 4);
+        for (int i = 0; i < 4; i++) {
+            clock.pageAdded(pids[i]);
+            lruK.pageAdded(pids[i]);
+        }
+        clock.pageAccessed(pids[2]);
+        clock.pageAccessed(pids[0]);
+        assertEquals(Arrays.asList(pids[0], pids[2], pids[1], pids[3]), clock.hottestPages());
+        for (int i : new int[] { 0, 0, 1, 2, 2, 3 }) {
+            lruK.pageAccessed(pids[i]);
+        }
+        assertEquals(Arrays.asList(pids[2], pids[0], pids[3], pids[1]), lruK.hottestPages());
+
+        ReplacementPolicy twoQ = new TwoQueuePolicy(8);
+        twoQ.pageAdded(pids[0]);
+        twoQ.pageAdded(pids[1]);
+        twoQ.pageRemoved(pids[0]);
+        twoQ.pageAdded(pids[0]);
+        twoQ.pageAdded(pids[2]);
+        assertEquals(Arrays.asList(pids[0], pids[2], pids[1]), twoQ.hottestPages());
+    }
+
+    /**
+     * The BufferPool stays within numPages with every policy, and never
+     * evicts dirty pages.
+     */
+    @Test public void boundedPool() throws Exception {
+        for (String name : new String[] { "clock", "lru-k", "2q" }) {
+            BufferPool bp = Database.resetBufferPool(new BufferPool(5, 0,
+                    ReplacementPolicy.create(name, 5)));
+            ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+            HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 20, null, tuples);
+            SystemTestUtil.matchTuples(hf, tuples);
+            assertTrue(bp.getNumCachedPages() <= 5);
+            // pages read ahead in time count as hits
+            assertTrue(bp.getHits() + bp.getMisses() >= 20);
+
+            List<Page> dirty = new ArrayList<Page>();
+            for (int i = 0; i < 5; i++) {
+                Page page = bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_WRITE);
+                page.markDirty(true, tid);
+                dirty.add(page);
+            }
+            try {
+                bp.getPage(tid, new HeapPageId(hf.getId(), 5), Permissions.READ_ONLY);
+                fail(name + " evicted a dirty page");
+            } catch (DbException e) {
+                // expected
+            }
+            for (Page page : dirty) {
+                assertSame(page, bp.getPage(tid, page.getId(), Permissions.READ_ONLY));
+            }
+            bp.flushPages(tid);
+            bp.getPage(tid, new HeapPageId(hf.getId(), 5), Permissions.READ_ONLY);
+            assertEquals(5, bp.getNumCachedPages());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
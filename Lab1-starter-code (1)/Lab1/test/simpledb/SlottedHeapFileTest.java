@@ -0,0 +1,152 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedHeapFileTest extends SimpleDbTestBase {
+    private static final TupleDesc STRING_TD =
+            new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static Tuple stringTuple(int i, String s) {
+        Tuple t = new Tuple(STRING_TD);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * Writes rows of (i, "code" + i) to a text file and encodes it in the
+     * slotted format.
+     */
+    private SlottedHeapFile createStringFile(int rows) throws IOException {
+        File text = File.createTempFile("slotted", ".txt");
+        text.deleteOnExit();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(text));
+        for (int i = 0; i < rows; i++) {
+            bw.write(i + ",code" + i + "\n");
+        }
+        bw.close();
+
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convertSlotted(text, f, BufferPool.getPageSize(), 2,
+                new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, ',');
+        SlottedHeapFile hf = new SlottedHeapFile(f, STRING_TD);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    /**
+     * Unit test for SlottedHeapPage insert, delete and reuse of space.
+     */
+    @Test public void pageInsertDelete() throws Exception {
+        Database.getCatalog().addTable(new SkeletonFile(-1, STRING_TD), SystemTestUtil.getUUID());
+        HeapPageId pid = new HeapPageId(-1, 0);
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        assertFalse(page.iterator().hasNext());
+
+        // fill the page
+        List<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; page.hasRoomFor(stringTuple(i, "s" + i)); i++) {
+            Tuple t = stringTuple(i, "s" + i);
+            page.insertTuple(t);
+            inserted.add(t);
+        }
+        // far more than the 30 fixed-size slots a HeapPage has room for
+        assertTrue(inserted.size() > 200);
+        assertFalse(page.hasRoom());
+
+        // free room for a long string by deleting short ones, which requires
+        // compacting the page
+        String longString = new String(new char[100]).replace('\0', 'x');
+        for (int i = 0; i < 60; i += 2) {
+            page.deleteTuple(inserted.get(i));
+        }
+        Tuple big = stringTuple(-1, longString);
+        page.insertTuple(big);
+        assertEquals(0, big.getRecordId().getTupleNumber());
+        assertEquals(new StringField(longString, Type.STRING_LEN), page.getField(0, 1));
+
+        // the serialized page reads back with the same contents
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        int count = 0;
+        Iterator<Tuple> it = copy.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (t.getRecordId().getTupleNumber() == 0) {
+                assertTrue(TestUtil.compareTuples(big, t));
+            } else {
+                assertTrue(TestUtil.compareTuples(inserted.get(t.getRecordId().getTupleNumber()), t));
+            }
+            count++;
+        }
+        assertEquals(inserted.size() - 30 + 1, count);
+    }
+
+    /**
+     * Scanning a file written by HeapFileEncoder.convertSlotted returns every
+     * tuple, and the file is much smaller than with fixed-size slots.
+     */
+    @Test public void scanEncodedFile() throws Exception {
+        SlottedHeapFile hf = createStringFile(1000);
+        assertTrue(hf.numPages() < 1000 / HeapPage.getNumTuples(STRING_TD) / 4);
+
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int i = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertTrue(TestUtil.compareTuples(stringTuple(i, "code" + i), t));
+            i++;
+        }
+        it.close();
+        assertEquals(1000, i);
+    }
+
+    /**
+     * Inserts fill the free space of existing pages before the file grows.
+     */
+    @Test public void insertTuple() throws Exception {
+        SlottedHeapFile hf = createStringFile(1000);
+        int pages = hf.numPages();
+
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        Tuple first = it.next();
+        it.close();
+        hf.deleteTuple(tid, first);
+
+        Tuple t = stringTuple(-1, "new");
+        hf.insertTuple(tid, t);
+        assertEquals(first.getRecordId(), t.getRecordId());
+        assertEquals(pages, hf.numPages());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapFileTest.class);
+    }
+}
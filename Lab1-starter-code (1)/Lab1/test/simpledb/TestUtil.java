@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
@@ -241,6 +242,33 @@ public class TestUtil {
 		}
     }
 
+    /**
+     * HeapFile that counts the pages it reads, for tests that check how
+     * many pages a scan or lookup touches.
+     */
+    public static class CountingHeapFile extends HeapFile {
+        /** Number of pages read. */
+        public final AtomicInteger readCount = new AtomicInteger();
+        /** Number of calls to readPages. */
+        public final AtomicInteger readsIssued = new AtomicInteger();
+
+        public CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            readCount.incrementAndGet();
+            return super.readPage(pid);
+        }
+
+        @Override
+        public List<Page> readPages(List<PageId> pids) {
+            readsIssued.incrementAndGet();
+            return super.readPages(pids);
+        }
+    }
+
     /**
      * Mock SeqScan class for unit testing.
      */
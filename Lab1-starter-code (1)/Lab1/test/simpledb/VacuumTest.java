@@ -0,0 +1,241 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+import java.util.function.IntPredicate;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class VacuumTest extends SimpleDbTestBase {
+
+    /**
+     * Deletes all but every tenth tuple of hf, and returns the values of the
+     * tuples that are left.
+     */
+    private static ArrayList<ArrayList<Integer>> deleteMost(HeapFile hf) throws Exception {
+        return deleteAllBut(hf, v -> v % 10 == 0);
+    }
+
+    /**
+     * Deletes the tuples of hf whose first field is not kept, and returns
+     * the values of the tuples that are left.
+     */
+    private static ArrayList<ArrayList<Integer>> deleteAllBut(HeapFile hf, IntPredicate keep)
+            throws Exception {
+        TransactionId tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> left = new ArrayList<ArrayList<Integer>>();
+        List<Tuple> doomed = new ArrayList<Tuple>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int v = ((IntField) t.getField(0)).getValue();
+            if (keep.test(v))
+                left.add(new ArrayList<Integer>(Arrays.asList(v, ((IntField) t.getField(1)).getValue())));
+            else
+                doomed.add(t);
+        }
+        it.close();
+        for (Tuple t : doomed)
+            Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().flushAllPages();
+        Database.getBufferPool().transactionComplete(tid);
+        return left;
+    }
+
+    private static ArrayList<ArrayList<Integer>> tuples(int rows) {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, -i)));
+        return tuples;
+    }
+
+    /** Creates a HeapFile with the specified tuples, in order. */
+    private static HeapFile createHeapFile(int rows) throws Exception {
+        File f = File.createTempFile("vacuum", ".dat");
+        f.deleteOnExit();
+        ZoneMap.getZoneMapFile(f).deleteOnExit();
+        HeapFileEncoder.convert(tuples(rows), f, BufferPool.getPageSize(), 2);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    /**
+     * After most tuples are deleted, vacuuming shrinks the file to the pages
+     * its live tuples need, and keeps all of them.
+     */
+    @Test public void compactHeapFile() throws Exception {
+        HeapFile hf = createHeapFile(504 * 10);
+        assertEquals(10, hf.numPages());
+
+        ArrayList<ArrayList<Integer>> left = deleteMost(hf);
+        Vacuum vacuum = new Vacuum(hf, 3, 10);
+        assertEquals(9, vacuum.runToCompletion());
+        assertEquals(1, hf.numPages());
+        assertEquals(BufferPool.getPageSize(), hf.getFile().length());
+        SystemTestUtil.matchTuples(hf, left);
+
+        // the truncated pages are reused by later inserts
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 504; i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 1, 1 }));
+        assertEquals(2, hf.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A source page the pool evicts while tuples are moved off it keeps the
+     * deletes: with room for four pages, fetching the third target evicts
+     * the second source page, the only clean page, before its first tuple
+     * is moved.
+     */
+    @Test public void sourcePageEvictedWhileMoving() throws Exception {
+        HeapFile hf = createHeapFile(504 * 5);
+        // pages 0 and 1 have room for 5 tuples each, page 2 for the 10 on
+        // each of pages 3 and 4
+        ArrayList<ArrayList<Integer>> left = deleteAllBut(hf, v -> {
+            int page = v / 504, slot = v % 504;
+            return page < 2 ? slot >= 5 : page == 2 ? slot >= 20 : slot < 10;
+        });
+        Database.resetBufferPool(4);
+
+        assertEquals(2, new Vacuum(hf, 2, 10).step());
+        assertEquals(3, hf.numPages());
+        SystemTestUtil.matchTuples(hf, left);
+    }
+
+    /**
+     * Pages with uncommitted changes are not truncated.
+     */
+    @Test public void dirtyPagesAreKept() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        TransactionId tid = new TransactionId();
+        List<Tuple> all = new ArrayList<Tuple>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            all.add(it.next());
+        it.close();
+        // empty the last page, but leave the deletes unflushed
+        for (Tuple t : all.subList(504 * 2, 504 * 3))
+            Database.getBufferPool().deleteTuple(tid, t);
+        assertEquals(0, hf.truncateEmptyPages());
+        assertEquals(3, hf.numPages());
+
+        Database.getBufferPool().flushAllPages();
+        assertEquals(1, hf.truncateEmptyPages());
+        assertEquals(2, hf.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Pages another transaction has dirtied are neither emptied nor filled,
+     * so its uncommitted changes are not written when the vacuum commits.
+     */
+    @Test public void otherTransactionsDirtyPages() throws Exception {
+        HeapFile hf = createHeapFile(504 * 4);
+        ArrayList<ArrayList<Integer>> left = deleteMost(hf);
+        HeapPageId first = new HeapPageId(hf.getId(), 0);
+        int onFirstPage = count(((TuplePage) hf.readPage(first)).iterator());
+
+        // another transaction deletes a tuple on the first page, and has
+        // not committed yet
+        TransactionId other = new TransactionId();
+        TuplePage page = (TuplePage) Database.getBufferPool().getPage(other, first, Permissions.READ_WRITE);
+        Tuple doomed = page.iterator().next();
+        Database.getBufferPool().deleteTuple(other, doomed);
+        left.remove(new ArrayList<Integer>(Arrays.asList(
+                ((IntField) doomed.getField(0)).getValue(), ((IntField) doomed.getField(1)).getValue())));
+
+        new Vacuum(hf).runToCompletion();
+        assertTrue(hf.numPages() < 4);
+        assertEquals(other, Database.getBufferPool().getCachedPage(first).isDirty());
+        assertEquals(onFirstPage, count(((TuplePage) hf.readPage(first)).iterator()));
+        SystemTestUtil.matchTuples(hf, left);
+    }
+
+    /**
+     * Tuples are not moved while a scan of the file is open.
+     */
+    @Test public void openScansBlockCompaction() throws Exception {
+        HeapFile hf = createHeapFile(504 * 4);
+        ArrayList<ArrayList<Integer>> left = deleteMost(hf);
+        Vacuum vacuum = new Vacuum(hf);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        assertEquals(0, vacuum.step());
+        assertEquals(0, vacuum.step());
+        assertEquals(2, vacuum.getSkippedSteps());
+        assertEquals(4, hf.numPages());
+        it.close();
+
+        assertEquals(3, vacuum.step());
+        assertEquals(0, vacuum.getSkippedSteps());
+        SystemTestUtil.matchTuples(hf, left);
+    }
+
+    private static int count(Iterator<Tuple> it) {
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * A compressed file is truncated through its index.
+     */
+    @Test public void compactCompressedFile() throws Exception {
+        File f = File.createTempFile("vacuum", ".dat");
+        f.deleteOnExit();
+        CompressedHeapFile.getIndexFile(f).deleteOnExit();
+        HeapFileEncoder.convertCompressed(tuples(504 * 4), f, BufferPool.getPageSize(), 2);
+        CompressedHeapFile cf = new CompressedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        long length = f.length();
+
+        ArrayList<ArrayList<Integer>> left = deleteMost(cf);
+        new Vacuum(cf).runToCompletion();
+        assertEquals(1, cf.numPages());
+        assertTrue(f.length() < length);
+        // the page that is left is moved back into the freed extents
+        assertTrue(f.length() <= BufferPool.getPageSize());
+
+        CompressedHeapFile reopened = new CompressedHeapFile(f, cf.getTupleDesc());
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(1, reopened.numPages());
+        SystemTestUtil.matchTuples(reopened, left);
+    }
+
+    /**
+     * The background thread compacts the file, and stops when asked.
+     */
+    @Test public void background() throws Exception {
+        HeapFile hf = createHeapFile(504 * 4);
+        ArrayList<ArrayList<Integer>> left = deleteMost(hf);
+
+        Vacuum vacuum = new Vacuum(hf, 1, 1);
+        vacuum.start();
+        for (int i = 0; i < 500 && hf.numPages() > 1; i++)
+            Thread.sleep(10);
+        vacuum.stop();
+        assertEquals(1, hf.numPages());
+        SystemTestUtil.matchTuples(hf, left);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(VacuumTest.class);
+    }
+}
@@ -0,0 +1,148 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class WarmRestartTest extends SimpleDbTestBase {
+    private TransactionId tid;
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /** Waits for the pool to cache n pages read in the background. */
+    private static void awaitCached(BufferPool bp, int n) throws InterruptedException {
+        for (int i = 0; i < 500 && bp.getNumCachedPages() < n; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(n, bp.getNumCachedPages());
+    }
+
+    /**
+     * Unit test for HotPageFile: ids of every kind are read back in the
+     * order they were written.
+     */
+    @Test public void hotPageFile() throws Exception {
+        File f = File.createTempFile("hot", ".pages");
+        f.deleteOnExit();
+        List<PageId> pids = Arrays.<PageId>asList(new HeapPageId(3, 9),
+                new BTreePageId(3, 2, BTreePageId.LEAF), new HeapPageId(-4, 0));
+        HotPageFile.write(f, pids);
+        assertEquals(pids, HotPageFile.read(f));
+        assertTrue(f.delete());
+        assertEquals(Collections.emptyList(), HotPageFile.read(f));
+    }
+
+    /**
+     * Concurrent writes of the hot pages, as by a checkpoint and the
+     * recording timer, each leave a whole list and no temporary files.
+     */
+    @Test public void concurrentWrites() throws Exception {
+        final File f = File.createTempFile("hot", ".pages");
+        f.deleteOnExit();
+        final List<List<PageId>> lists = new ArrayList<List<PageId>>();
+        for (int i = 0; i < 4; i++) {
+            List<PageId> pids = new ArrayList<PageId>();
+            for (int j = 0; j < 1000; j++) {
+                pids.add(new HeapPageId(i, j));
+            }
+            lists.add(pids);
+        }
+        final List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (final List<PageId> pids : lists) {
+            Thread t = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 20; i++) {
+                            HotPageFile.write(f, pids);
+                        }
+                    } catch (Exception e) {
+                        failures.add(e);
+                    }
+                }
+            };
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(Collections.emptyList(), failures);
+        assertTrue(lists.contains(HotPageFile.read(f)));
+        String[] left = f.getAbsoluteFile().getParentFile().list((dir, name) ->
+                name.startsWith(f.getName()) && name.endsWith(".tmp"));
+        assertEquals(0, left.length);
+    }
+
+    /**
+     * The pages cached when the hot pages were saved are read back into a
+     * new, empty pool by warmUp.
+     */
+    @Test public void saveAndWarmUp() throws Exception {
+        BufferPool bp = Database.resetBufferPool(new BufferPool(20, 0, "lru-k", 1));
+        Set<PageId> cached = new HashSet<PageId>();
+        for (int i : new int[] { 7, 3, 5, 3 }) {
+            HeapPageId pid = new HeapPageId(hf.getId(), i);
+            bp.getPage(tid, pid, Permissions.READ_ONLY);
+            cached.add(pid);
+        }
+        assertEquals(new HeapPageId(hf.getId(), 3), bp.getHotPages().get(0));
+        Database.getLogFile().saveHotPages();
+
+        bp = Database.resetBufferPool(new BufferPool(20, 0, "lru-k", 1));
+        assertEquals(3, Database.getLogFile().warmUp());
+        awaitCached(bp, 3);
+        assertEquals(cached, new HashSet<PageId>(bp.getHotPages()));
+    }
+
+    /**
+     * warmUp reads no more pages than the pool holds, hottest first, and
+     * skips pages of tables that are not in the catalog.
+     */
+    @Test public void warmUpLimits() throws Exception {
+        BufferPool bp = Database.resetBufferPool(new BufferPool(2, 0, "clock", 1));
+        List<PageId> pids = new ArrayList<PageId>();
+        pids.add(new HeapPageId(hf.getId() + 1, 0));
+        for (int i : new int[] { 8, 1, 4 }) {
+            pids.add(new HeapPageId(hf.getId(), i));
+        }
+        assertEquals(2, bp.warmUp(pids));
+        awaitCached(bp, 2);
+        assertNotNull(bp.getCachedPage(pids.get(1)));
+        assertNotNull(bp.getCachedPage(pids.get(2)));
+    }
+
+    /**
+     * Checkpoints record the hot pages.
+     */
+    @Test public void checkpointSavesHotPages() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        bp.getPage(tid, new HeapPageId(hf.getId(), 2), Permissions.READ_ONLY);
+        Database.getLogFile().logCheckpoint();
+        assertEquals(bp.getHotPages(), HotPageFile.read(Database.getLogFile().hotPagesFile));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(WarmRestartTest.class);
+    }
+}
@@ -0,0 +1,163 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.CountingHeapFile;
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static List<Predicate> predicates(Predicate... ps) {
+        return Arrays.asList(ps);
+    }
+
+    /**
+     * Unit test for ZoneMap.mayMatch()
+     */
+    @Test public void mayMatch() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(2);
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+        HeapPage page = new HeapPage(new HeapPageId(-1, 0), HeapPage.createEmptyPageData());
+        page.insertTuple(Utility.getHeapTuple(new int[] { 10, 1 }));
+        page.insertTuple(Utility.getHeapTuple(new int[] { 20, 1 }));
+
+        File f = File.createTempFile("zonemap", ".zm");
+        f.deleteOnExit();
+        ZoneMap zm = new ZoneMap(td, f);
+        Predicate gt25 = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(25));
+
+        // unknown pages may match anything, even after inserts
+        zm.addTuple(0, Utility.getHeapTuple(new int[] { 15, 1 }));
+        assertTrue(zm.mayMatch(0, predicates(gt25)));
+
+        zm.completePage(0, page);
+        assertTrue(zm.isKnown(0));
+        assertFalse(zm.mayMatch(0, predicates(gt25)));
+        assertTrue(zm.mayMatch(0, predicates(new Predicate(0, Predicate.Op.EQUALS, new IntField(15)))));
+        assertFalse(zm.mayMatch(0, predicates(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10)))));
+        assertTrue(zm.mayMatch(0, predicates(new Predicate(0, Predicate.Op.LESS_THAN_OR_EQ, new IntField(10)))));
+        assertFalse(zm.mayMatch(0, predicates(new Predicate(1, Predicate.Op.NOT_EQUALS, new IntField(1)))));
+        // all predicates must be able to match
+        assertFalse(zm.mayMatch(0, predicates(
+                new Predicate(0, Predicate.Op.EQUALS, new IntField(15)), gt25)));
+
+        // inserts widen the zone
+        zm.addTuple(0, Utility.getHeapTuple(new int[] { 30, 1 }));
+        assertTrue(zm.mayMatch(0, predicates(gt25)));
+
+        // changes reach the sidecar file when the map is flushed
+        assertFalse(ZoneMap.load(td, f).isKnown(0));
+        zm.flush();
+        ZoneMap loaded = ZoneMap.load(td, f);
+        assertTrue(loaded.isKnown(0));
+        assertTrue(loaded.mayMatch(0, predicates(gt25)));
+        assertFalse(loaded.mayMatch(0, predicates(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(30)))));
+    }
+
+    /**
+     * A SeqScan with a pushed-down predicate on an ordered column only reads
+     * the pages that can match, once the zone map is complete.
+     */
+    @Test public void scanSkipsPages() throws Exception {
+        int rows = 504 * 10;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 13)));
+        }
+        File f = File.createTempFile("zonemap", ".dat");
+        f.deleteOnExit();
+        ZoneMap.getZoneMapFile(f).deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        HeapFile.setReadAheadPages(0);
+
+        try {
+            // the first scan reads every page, and completes the zone map
+            CountingHeapFile hf = new CountingHeapFile(f, Utility.getTupleDesc(2));
+            Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+            assertEquals(101, count(hf, 1000, 1100));
+            assertEquals(10, hf.readCount.get());
+            Database.getLogFile().logCheckpoint();
+
+            // reopen the table with a cold buffer pool: the zone map is read
+            // from its sidecar and the scan only touches page 1
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            hf = new CountingHeapFile(f, Utility.getTupleDesc(2));
+            Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+            assertEquals(6, count(hf, 1000, 1005));
+            assertEquals(1, hf.readCount.get());
+
+            // inserted tuples widen their page's zone, so they are found
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 99999, 0 }));
+            assertEquals(1, count(hf, 99990, 100000));
+        } finally {
+            HeapFile.setReadAheadPages(HeapFile.DEFAULT_READ_AHEAD_PAGES);
+        }
+    }
+
+    /**
+     * Inserts only change the zone map in memory; it is written, once, when
+     * the pages are, and tables nobody scans with predicates get no sidecar.
+     */
+    @Test public void deferredWrites() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, 10, null, null);
+        File zmFile = ZoneMap.getZoneMapFile(hf.getFile());
+        zmFile.deleteOnExit();
+        for (int i = 0; i < 100; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { i, i }));
+        }
+        Database.getBufferPool().flushAllPages();
+        assertFalse(zmFile.exists());
+
+        // a scan with a predicate completes the zone, which is then written
+        // before the page it covers
+        assertEquals(1, count(hf, 50, 50));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 1000, 0 }));
+        assertFalse(zmFile.exists());
+        Database.getBufferPool().flushAllPages();
+        ZoneMap loaded = ZoneMap.load(hf.getTupleDesc(), zmFile);
+        assertTrue(loaded.isKnown(0));
+        assertTrue(loaded.mayMatch(0, predicates(new Predicate(0, Predicate.Op.EQUALS, new IntField(1000)))));
+    }
+
+    /** Counts the tuples of hf with lo <= field 0 <= hi, using a SeqScan. */
+    private int count(HeapFile hf, int lo, int hi) throws Exception {
+        SeqScan scan = new SeqScan(tid, hf.getId());
+        scan.addPredicate(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(lo)));
+        scan.addPredicate(new Predicate(0, Predicate.Op.LESS_THAN_OR_EQ, new IntField(hi)));
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            int v = ((IntField) scan.next().getField(0)).getValue();
+            assertTrue(lo <= v && v <= hi);
+            count++;
+        }
+        scan.close();
+        return count;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}